@@ -2,31 +2,63 @@
 package sudoku;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Used for grid and square computations, as well as solver validity checks.
- * 
+ *
+ * All the lookups are backed by primitive tables that are computed once, when
+ * the class is initialised, and never changed afterwards - so they are safe to
+ * share between threads, and every lookup is allocation-free and O(1).
+ *
  * @author Rudi Theunissen
  */
-public class Algorithms {
+public final class Algorithms {
 
-   /** Contains the pixel location values of the grid-lines. */
-   public static ArrayList<Integer> gapLocations;
-   /** Contains the pixel location values of a row or column's upper bounds. */
-   public static ArrayList<Integer> upperBounds;
-   /** Contains keys for the number and keypad-number keys, and their values. */
-   public static Map<Integer, Integer> numberKeyMap;
+   /** The amount of peers of each square - 8 in its row, 8 in its column,
+    *  and 4 more in its 3 by 3 section. */
+   public static final int PEER_COUNT = 20;
+   /** The amount of units - 9 rows, 9 columns and 9 sections. */
+   public static final int UNIT_COUNT = 27;
+   /** Why a solve request is invalid - it has between 6 and 16 clues. */
+   public static final String TOO_FEW_CLUES = "6 to 16 clues";
+   /** Why a solve request is invalid - two empty rows or columns. */
+   public static final String EMPTY_LINES =
+           "two empty rows in a band or columns in a stack";
+   /** Why a solve request is invalid - a number is repeated. */
+   public static final String REPEATED_NUMBER = "a number is repeated";
+   /** The width and height of the grid in pixels. */
+   private static final int GRID_PIXELS = 410;
 
-   public Algorithms() {
-      upperBounds = new ArrayList<Integer>();
-      gapLocations = new ArrayList<Integer>();
-      numberKeyMap = new HashMap<Integer, Integer>();
+   /** Maps a single-axis pixel location to a square number, 0 for a line. */
+   private static final int[] PIXEL_SQUARES = new int[GRID_PIXELS];
+   /** The pixel location of the left or top of each square (1 to 9). */
+   private static final int[] SQUARE_BASES = new int[10];
+   /** The row (0 to 8) of each array index. */
+   private static final int[] ROWS = new int[81];
+   /** The column (0 to 8) of each array index. */
+   private static final int[] COLS = new int[81];
+   /** The 3 by 3 section (0 to 8) of each array index. */
+   private static final int[] BOXES = new int[81];
+   /** The array indexes of the peers of each array index. */
+   private static final int[][] PEERS = new int[81][PEER_COUNT];
+   /** The array indexes in each row, column and section, in that order. */
+   private static final int[][] UNITS = new int[UNIT_COUNT][9];
+   /** Maps a number or keypad-number keycode to its number, -1 otherwise. */
+   private static final int[] KEY_NUMBERS = new int[106];
+
+   static {
       setLocationRanges();
+      setSquareTables();
       setNumberKeys();
    }
 
+   /**
+    * Private Constructor - only static methods are used.
+    */
+   private Algorithms() {
+   }
+
    /**
     * Sets pixel ranges of squares on the grid.
     *
@@ -38,31 +70,59 @@ public class Algorithms {
     * <li> {@link Algorithms#getSquare(int) getSquare} </li>
     * <li> {@link Algorithms#getBase(int) getBase} </li></ul>
     */
-   private void setLocationRanges() {
-      upperBounds.add(0);
-      gapLocations.add(0);
+   private static void setLocationRanges() {
+      int[] gapLocations = new int[14];
+      for (int i = 1; i < 14; i++) {
+         gapLocations[i] = (i == 1 || i == 5 || i == 9 || i == 13)
+                 ? (gapLocations[i - 1] + 1)
+                 : (gapLocations[i - 1] + 45);
+      }
+      SQUARE_BASES[0] = gapLocations[0] + 1;
+      for (int n = 1; n < 10; n++) {
+         SQUARE_BASES[n] = gapLocations[(int) (n * 1.3)] + 1;
+         for (int p = SQUARE_BASES[n]; p < SQUARE_BASES[n] + 44; p++) {
+            PIXEL_SQUARES[p] = n;
+         }
+      }
+   }
 
-      for (int i = 1; i < 10; i++) {
-         upperBounds.add((i == 4 || i == 7)
-                 ? (upperBounds.get(i - 1) + 46)
-                 : (upperBounds.get(i - 1) + 45));
+   /**
+    * Sets the row, column, section, unit and peer tables of every square.
+    */
+   private static void setSquareTables() {
+      for (int i = 0; i < 81; i++) {
+         ROWS[i] = i / 9;
+         COLS[i] = i % 9;
+         BOXES[i] = (i / 27) * 3 + (i % 9) / 3;
       }
-      for (int i = 1; i < 14; i++) {
-         gapLocations.add((i == 1 || i == 5 || i == 9 || i == 13)
-                 ? (gapLocations.get(i - 1) + 1)
-                 : (gapLocations.get(i - 1) + 45));
+      for (int k = 0; k < 9; k++) {
+         for (int j = 0; j < 9; j++) {
+            UNITS[k][j] = k * 9 + j;
+            UNITS[k + 9][j] = j * 9 + k;
+            UNITS[k + 18][j] = (k / 3) * 27 + (k % 3) * 3 + (j / 3) * 9 + j % 3;
+         }
+      }
+      for (int i = 0; i < 81; i++) {
+         int count = 0;
+         for (int j = 0; j < 81; j++) {
+            if (j != i && (ROWS[j] == ROWS[i] || COLS[j] == COLS[i]
+                    || BOXES[j] == BOXES[i])) {
+               PEERS[i][count++] = j;
+            }
+         }
       }
    }
 
    /**
     * Sets the keycodes that correspond to numbers and keypad-numbers.
     */
-   private void setNumberKeys() {
+   private static void setNumberKeys() {
+      Arrays.fill(KEY_NUMBERS, -1);
 
       // This maps two key values with one number value.
       for (int i = 48; i < 58; i++) {
-         numberKeyMap.put(i, i - 48);
-         numberKeyMap.put(i + 48, i - 48);
+         KEY_NUMBERS[i] = i - 48;
+         KEY_NUMBERS[i + 48] = i - 48;
       }
    }
 
@@ -71,17 +131,10 @@ public class Algorithms {
     * on the grid, for either x or y as the grid is a square.
     *
     * @param p the single axis pixel location.
-    * @return the particular square number (1 to 9).
+    * @return the particular square number (1 to 9), or 0 for a grid-line.
     */
    public static int getSquare(int p) {
-      if (!gapLocations.contains(p)) {
-         for (int i = 0; i < 10; i++) {
-            if (p < upperBounds.get(i)) {
-               return i;
-            }
-         }
-      }
-      return 0;
+      return (p >= 0 && p < GRID_PIXELS) ? PIXEL_SQUARES[p] : 0;
    }
 
    /**
@@ -91,7 +144,53 @@ public class Algorithms {
     * @return exact pixel location of either top or left of square.
     */
    public static int getBase(int n) {
-      return gapLocations.get((int) (n * 1.3)) + 1;
+      return SQUARE_BASES[n];
+   }
+
+   /**
+    * Returns the number that a key corresponds to.
+    *
+    * @param keyCode the keycode of the key that was pressed.
+    * @return the number of a number or keypad-number key, otherwise -1.
+    */
+   public static int getKeyNumber(int keyCode) {
+      return (keyCode >= 0 && keyCode < KEY_NUMBERS.length)
+              ? KEY_NUMBERS[keyCode] : -1;
+   }
+
+   /**
+    * Returns one of the peers of a square - the squares that share its row,
+    * column or 3 by 3 section.
+    *
+    * @param index the array index of the square.
+    * @param k which peer (0 to {@link Algorithms#PEER_COUNT} - 1).
+    * @return the array index of the peer.
+    */
+   public static int getPeer(int index, int k) {
+      return PEERS[index][k];
+   }
+
+   /**
+    * Returns one of the squares of a unit.
+    *
+    * Units 0 to 8 are rows, 9 to 17 are columns and 18 to 26 are sections.
+    *
+    * @param unit the unit (0 to {@link Algorithms#UNIT_COUNT} - 1).
+    * @param k which square of the unit (0 to 8).
+    * @return the array index of the square.
+    */
+   public static int getUnitSquare(int unit, int k) {
+      return UNITS[unit][k];
+   }
+
+   /**
+    * Returns the 3 by 3 section of an array index.
+    *
+    * @param index the array index.
+    * @return the section (0 to 8), numbered left to right, top to bottom.
+    */
+   public static int getBox(int index) {
+      return BOXES[index];
    }
 
    /**
@@ -112,7 +211,7 @@ public class Algorithms {
     * @return the index as a row value.
     */
    public static int getRow(int index) {
-      return ((index) / 9) + 1;
+      return ROWS[index] + 1;
    }
 
    /**
@@ -122,7 +221,7 @@ public class Algorithms {
     * @return the index as a column value.
     */
    public static int getCol(int index) {
-      return ((index) % 9) + 1;
+      return COLS[index] + 1;
    }
 
    /**
@@ -181,8 +280,25 @@ public class Algorithms {
     * @return true if all conditions have been met for a puzzle to be valid.
     */
    public static boolean isValidSolve(int[] input, ArrayList<Integer> noZeros) {
+      return getInvalidReason(input, noZeros) == null;
+   }
+
+   /**
+    * Determines why a solve request is invalid, with the same checks as
+    * {@link Algorithms#isValidSolve(int[], ArrayList)}.
+    *
+    * @param input an array that contains all the numbers that were entered.
+    * @param noZeros a list of array indexes
+    *                of all the non-zero numbers that were entered.
+    * @return {@link Algorithms#TOO_FEW_CLUES},
+    *         {@link Algorithms#EMPTY_LINES} or
+    *         {@link Algorithms#REPEATED_NUMBER}, or null if the request is
+    *         valid.
+    */
+   public static String getInvalidReason(int[] input,
+           ArrayList<Integer> noZeros) {
       if (!(noZeros.size() < 6 || noZeros.size() > 16)) {
-         return false;
+         return TOO_FEW_CLUES;
       }
 
       /**** BAND AND STACK CHECK ****/
@@ -202,7 +318,7 @@ public class Algorithms {
                   }
                }
                if (bandPairSum == 0 || stackPairSum == 0) {
-                  return false;
+                  return EMPTY_LINES;
                }
                bandPairSum = 0;
                stackPairSum = 0;
@@ -212,76 +328,24 @@ public class Algorithms {
                stackSplitSum += input[i * 9 + q * 3] + input[i * 9 + q * 3 + 2];
             }
             if (bandSplitSum == 0 || stackSplitSum == 0) {
-               return false;
+               return EMPTY_LINES;
             }
             bandSplitSum = 0;
             stackSplitSum = 0;
          }
       }
 
-      /**** SAME NUMBERS IN ROW OR COLUMN ****/
-      /* For every index that has a number, check values of its row and col. */
+      /**** SAME NUMBERS IN ROW, COLUMN OR 3 BY 3 SECTION ****/
+      /* For every index that has a number, check the values of its peers. */
       for (int n : noZeros) {
-         int row = Algorithms.getRow(n);
-         int col = Algorithms.getCol(n);
-
-         // Looks for the same number in the same row, columns to the right..
-         for (int c = col + 1; c < 10; c++) {
-            if (input[Algorithms.toIndex(row, c)] == input[n]) {
-               return false;
-            }
-         }
-         // Looks for the same number in the same row, columns to the left..
-         for (int c = col - 1; c > 0; c--) {
-            if (input[Algorithms.toIndex(row, c)] == input[n]) {
-               return false;
-            }
-         }
-         // Looks for the same number in the same column, rows below..
-         for (int r = row + 1; r < 10; r++) {
-            if (input[Algorithms.toIndex(r, col)] == input[n]) {
-               return false;
-            }
-         }
-         // Looks for the same number in the same column, rows above..
-         for (int r = row - 1; r > 0; r--) {
-            if (input[Algorithms.toIndex(r, col)] == input[n]) {
-               return false;
-            }
-         }
-         // Looks for the same number in the 3 by 3 section..
-         int upperLeft = Algorithms.getUpperLeftIndex(n);
-         for (int j = 0; j < 27; j += 9) {
-            for (int i = upperLeft + j; i < upperLeft + j + 3; i++) {
-               if (i != n && input[i] == input[n]) {
-                  return false;
-               }
+         for (int k = 0; k < PEER_COUNT; k++) {
+            if (input[PEERS[n][k]] == input[n]) {
+               return REPEATED_NUMBER;
             }
          }
       }
       // all conditions met, solve is valid.
-      return true;
+      return null;
    }
 
-   /**
-    * Accesses the <em>ArrayList</em> that contains the line pixel values.
-    *
-    * @return The <em>ArrayList</em> that contains the line pixel values.
-    */
-   public static ArrayList<Integer> getGaps() {
-      return gapLocations;
-   }
-
-   /**
-    * Accesses the <em>ArrayList</em> that contains the square pixel values.
-    *
-    * @return The <em>ArrayList</em> that contains the square pixel values.
-    */
-   public static ArrayList<Integer> getUpperBounds() {
-      return upperBounds;
-   }
-
-   public static Map<Integer, Integer> getNumberKeys() {
-      return numberKeyMap;
-   }
 }
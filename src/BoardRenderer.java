@@ -0,0 +1,194 @@
+/* File: BoardRenderer.java  -  April 2011 */
+package sudoku;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Renders the grid and its squares from cached, display-compatible images.
+ *
+ * The static grid image is kept in a compatible back buffer, and all the number
+ * images are packed into one glyph atlas, so that Java2D can keep both in video
+ * memory. Each square is painted with a single blit of a composed tile, which is
+ * cached by its number, colour and possibilities mask.
+ *
+ * @author Rudi Theunissen
+ */
+public class BoardRenderer {
+
+   /** The width and height of a square on the grid. */
+   public static final int SQUARE_SIZE = 44;
+   /** Amount of distinct possibilities masks - one bit for each number. */
+   private static final int MASKS = 512;
+
+   /** The configuration that the cached images are compatible with. */
+   private GraphicsConfiguration configuration;
+   /** The static grid image, as a compatible back buffer. */
+   private BufferedImage grid;
+   /** All the number images - one row for each number image type. */
+   private BufferedImage atlas;
+   /** Composed square tiles, see {@link BoardRenderer#getTileKey}. */
+   private BufferedImage[] tiles;
+
+   /**
+    * Constructor - builds the back buffer and the glyph atlas.
+    *
+    * @param images the loaded images, including the number images.
+    */
+   public BoardRenderer(Images images) {
+      if (!GraphicsEnvironment.isHeadless()) {
+         configuration = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                 .getDefaultScreenDevice().getDefaultConfiguration();
+      }
+      grid = toCompatibleImage(images.getImage("sudoku-grid"),
+              Transparency.OPAQUE);
+      atlas = createImage(SQUARE_SIZE * 9, SQUARE_SIZE * 4,
+              Transparency.TRANSLUCENT);
+      tiles = new BufferedImage[MASKS + 4 * 9];
+
+      Graphics2D g = atlas.createGraphics();
+      g.setComposite(AlphaComposite.Src);
+      for (int type = Images.WHITE; type <= Images.RED; type++) {
+         for (int number = 1; number < 10; number++) {
+            g.drawImage(images.getNumberImage(type, number),
+                    (number - 1) * SQUARE_SIZE, type * SQUARE_SIZE, null);
+         }
+      }
+      g.dispose();
+   }
+
+   /**
+    * Paints the cached grid image.
+    *
+    * @param g the graphics to paint with.
+    */
+   public void paintGrid(Graphics g) {
+      g.drawImage(grid, 0, 0, null);
+   }
+
+   /**
+    * Paints a square, either a number or its possibilities.
+    *
+    * @param g the graphics to paint with.
+    * @param x the x-axis pixel location of the square.
+    * @param y the y-axis pixel location of the square.
+    * @param number the number in the square, 0 if it's empty.
+    * @param type the number image type, such as {@link Images#WHITE}.
+    * @param minis the possibilities mask - bit n is set for possibility n.
+    */
+   public void paintSquare(Graphics g, int x, int y, int number, int type,
+           int minis) {
+      if (number == 0 && (minis & 0x3fe) == 0) {
+         return;
+      }
+      g.drawImage(getTile(number, type, minis), x, y, null);
+   }
+
+   /**
+    * Returns a composed tile, composing and caching it the first time.
+    *
+    * @param number the number in the square, 0 if it's empty.
+    * @param type the number image type.
+    * @param minis the possibilities mask.
+    * @return the composed tile.
+    */
+   private BufferedImage getTile(int number, int type, int minis) {
+      int key = getTileKey(number, type, minis);
+      BufferedImage tile = tiles[key];
+      if (tile != null) {
+         return tile;
+      }
+      tile = createImage(SQUARE_SIZE, SQUARE_SIZE, Transparency.TRANSLUCENT);
+      Graphics2D g = tile.createGraphics();
+      if (number != 0) {
+         blitGlyph(g, type, number, 0, 0);
+      } else {
+         for (int mini = 1; mini < 10; mini++) {
+            if ((minis & (1 << mini)) != 0) {
+               blitGlyph(g, Images.MINI, mini,
+                       Algorithms.getMiniSquareLocationX(mini, 0),
+                       Algorithms.getMiniSquareLocationY(mini, 0));
+            }
+         }
+      }
+      g.dispose();
+      tiles[key] = tile;
+      return tile;
+   }
+
+   /**
+    * Returns the cache index of a tile.
+    *
+    * Empty squares are keyed by their possibilities mask, and numbers follow
+    * after all the masks, keyed by number image type and number.
+    *
+    * @param number the number in the square, 0 if it's empty.
+    * @param type the number image type.
+    * @param minis the possibilities mask.
+    * @return the cache index of the tile.
+    */
+   private static int getTileKey(int number, int type, int minis) {
+      if (number == 0) {
+         return (minis >> 1) & (MASKS - 1);
+      }
+      return MASKS + type * 9 + number - 1;
+   }
+
+   /**
+    * Copies a single glyph out of the atlas.
+    *
+    * @param g the graphics to paint with.
+    * @param type the number image type.
+    * @param number the number (1 to 9).
+    * @param x the x-axis pixel location to paint at.
+    * @param y the y-axis pixel location to paint at.
+    */
+   private void blitGlyph(Graphics g, int type, int number, int x, int y) {
+      int size = (type == Images.MINI) ? 14 : SQUARE_SIZE;
+      int sx = (number - 1) * SQUARE_SIZE;
+      int sy = type * SQUARE_SIZE;
+      g.drawImage(atlas, x, y, x + size, y + size,
+              sx, sy, sx + size, sy + size, null);
+   }
+
+   /**
+    * Creates an image that is compatible with the display, when there is one.
+    *
+    * @param width the width of the image.
+    * @param height the height of the image.
+    * @param transparency the transparency, see {@link Transparency}.
+    * @return the new image.
+    */
+   private BufferedImage createImage(int width, int height, int transparency) {
+      if (configuration != null) {
+         return configuration.createCompatibleImage(width, height,
+                 transparency);
+      }
+      return new BufferedImage(width, height,
+              transparency == Transparency.OPAQUE
+              ? BufferedImage.TYPE_INT_RGB
+              : BufferedImage.TYPE_INT_ARGB_PRE);
+   }
+
+   /**
+    * Copies an image into a new compatible image.
+    *
+    * @param image the image to copy, which must be completely loaded.
+    * @param transparency the transparency of the new image.
+    * @return the compatible copy.
+    */
+   private BufferedImage toCompatibleImage(Image image, int transparency) {
+      BufferedImage copy = createImage(image.getWidth(null),
+              image.getHeight(null), transparency);
+      Graphics g = copy.getGraphics();
+      g.drawImage(image, 0, 0, null);
+      g.dispose();
+      return copy;
+   }
+}
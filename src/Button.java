@@ -21,7 +21,7 @@ public class Button extends JButton {
    /** The height of the button. */
    private int height;
    /** Instance of {@link Images} to load the ImageIcon for the button. */
-   Images images = new Images(false);
+   private Images images = Images.getInstance();
 
    /**
     * Constructor for the button.
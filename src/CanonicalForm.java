@@ -0,0 +1,254 @@
+/* File: CanonicalForm.java  -  April 2011 */
+package sudoku;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the canonical form of a puzzle, which is the same for every puzzle
+ * that is equivalent to it by symmetry.
+ *
+ * Two puzzles are equivalent if one can be turned into the other by any mix
+ * of transposing the grid, reordering the bands (rows of 3 by 3 sections), the
+ * rows within a band, the stacks (columns of sections), the columns within a
+ * stack, and relabeling the numbers. The canonical form is the smallest of
+ * all of these, read row by row, with an empty square smallest and the
+ * numbers relabeled in the order they first appear.
+ * <br><br>
+ * Rather than trying all 3,359,232 symmetries, the form is built one row at a
+ * time: every way of making the smallest first row is found, with the column
+ * order searched square by square and cut short as soon as it is bigger, and
+ * only the ways that also make the smallest next row are kept for each row
+ * after that.
+ * <br><br>
+ * A canonical form is not thread safe - each thread should use its own.
+ *
+ * @author Rudi Theunissen
+ */
+public final class CanonicalForm {
+
+   /** The index of the transposed flag in a state. */
+   private static final int TRANSPOSED = 0;
+   /** The index of the first column of the column order in a state. */
+   private static final int COLUMNS = 1;
+   /** The index of the mask of rows used in a state. */
+   private static final int ROWS_USED = 10;
+   /** The index of the mask of bands used in a state. */
+   private static final int BANDS_USED = 11;
+   /** The index of the band of the current row in a state. */
+   private static final int BAND = 12;
+   /** The index of the label of number 0 in a state. */
+   private static final int LABELS = 13;
+   /** The index of the next free label in a state. */
+   private static final int NEXT_LABEL = 23;
+   /** The size of a state. */
+   private static final int STATE_SIZE = 24;
+
+   /** The puzzle, and the puzzle transposed. */
+   private final int[][] grids = new int[2][81];
+   /** The ways of making the canonical form so far. */
+   private List<int[]> states = new ArrayList<int[]>();
+   /** The ways of making the next row, as it is found. */
+   private List<int[]> nextStates = new ArrayList<int[]>();
+   /** The smallest row found so far. */
+   private final int[] best = new int[9];
+   /** True once best holds a row. */
+   private boolean hasBest;
+   /** The row being built. */
+   private final int[] row = new int[9];
+   /** The state being built while searching the first row. */
+   private final int[] search = new int[STATE_SIZE];
+
+   /**
+    * Finds the canonical form of a puzzle.
+    *
+    * @param puzzle the 81 values of the puzzle, 0 for an empty square.
+    * @param canonical filled with the 81 values of the canonical form.
+    */
+   public void canonicalize(int[] puzzle, int[] canonical) {
+      for (int i = 0; i < 81; i++) {
+         grids[0][i] = puzzle[i];
+         grids[1][i] = puzzle[(i % 9) * 9 + i / 9];
+      }
+
+      // the first row decides the column order.
+      states.clear();
+      hasBest = false;
+      for (int t = 0; t < 2; t++) {
+         for (int r = 0; r < 9; r++) {
+            Arrays.fill(search, 0);
+            search[TRANSPOSED] = t;
+            search[ROWS_USED] = 1 << r;
+            search[BANDS_USED] = 1 << (r / 3);
+            search[BAND] = r / 3;
+            search[NEXT_LABEL] = 1;
+            searchColumns(grids[t], r, 0, 0);
+         }
+      }
+      System.arraycopy(best, 0, canonical, 0, 9);
+
+      // each row after that keeps only the ways that make it smallest.
+      for (int out = 1; out < 9; out++) {
+         nextStates.clear();
+         hasBest = false;
+         for (int[] state : states) {
+            int[] grid = grids[state[TRANSPOSED]];
+            for (int r = 0; r < 9; r++) {
+               if ((state[ROWS_USED] & (1 << r)) != 0) {
+                  continue;
+               }
+               boolean newBand = out % 3 == 0;
+               if (newBand ? (state[BANDS_USED] & (1 << (r / 3))) != 0
+                       : r / 3 != state[BAND]) {
+                  continue;
+               }
+               int[] next = state.clone();
+               int cmp = labelRow(grid, r, next);
+               if (cmp < 0) {
+                  nextStates.clear();
+                  hasBest = true;
+                  System.arraycopy(row, 0, best, 0, 9);
+               }
+               if (cmp <= 0) {
+                  next[ROWS_USED] |= 1 << r;
+                  next[BANDS_USED] |= 1 << (r / 3);
+                  next[BAND] = r / 3;
+                  nextStates.add(next);
+               }
+            }
+         }
+         System.arraycopy(best, 0, canonical, out * 9, 9);
+         List<int[]> swap = states;
+         states = nextStates;
+         nextStates = swap;
+      }
+   }
+
+   /**
+    * Searches the column orders for the smallest first row, square by square,
+    * keeping every column order that makes it.
+    *
+    * @param grid the puzzle, maybe transposed.
+    * @param r the row that becomes the first row.
+    * @param p the position of the square being chosen.
+    * @param columnsUsed a mask of the columns already chosen.
+    */
+   private void searchColumns(int[] grid, int r, int p, int columnsUsed) {
+      if (p == 9) {
+         if (compare(9) < 0 || !hasBest) {
+            states.clear();
+            hasBest = true;
+            System.arraycopy(row, 0, best, 0, 9);
+         }
+         states.add(search.clone());
+         return;
+      }
+      int stack = (p % 3 == 0) ? -1 : search[COLUMNS + p - 1] / 3;
+      for (int c = 0; c < 9; c++) {
+         if ((columnsUsed & (1 << c)) != 0
+                 || (stack >= 0 && c / 3 != stack)
+                 || (stack < 0 && (columnsUsed & (7 << (c / 3 * 3))) != 0)) {
+            continue;
+         }
+         int value = grid[r * 9 + c];
+         boolean labeled = value != 0 && search[LABELS + value] == 0;
+         if (labeled) {
+            search[LABELS + value] = search[NEXT_LABEL]++;
+         }
+         row[p] = (value == 0) ? 0 : search[LABELS + value];
+         if (!hasBest || compare(p + 1) <= 0) {
+            search[COLUMNS + p] = c;
+            searchColumns(grid, r, p + 1, columnsUsed | (1 << c));
+         }
+         if (labeled) {
+            search[LABELS + value] = 0;
+            search[NEXT_LABEL]--;
+         }
+      }
+   }
+
+   /**
+    * Relabels a row in the column order of a state, and compares it with the
+    * smallest row so far.
+    *
+    * @param grid the puzzle, maybe transposed.
+    * @param r the row.
+    * @param state the state, whose labels are extended.
+    * @return less than 0 if the row is smaller, 0 if it's the same, or more
+    *         than 0 if it's bigger, in which case the labels are incomplete.
+    */
+   private int labelRow(int[] grid, int r, int[] state) {
+      for (int p = 0; p < 9; p++) {
+         int value = grid[r * 9 + state[COLUMNS + p]];
+         if (value != 0 && state[LABELS + value] == 0) {
+            state[LABELS + value] = state[NEXT_LABEL]++;
+         }
+         row[p] = (value == 0) ? 0 : state[LABELS + value];
+         if (hasBest && row[p] != best[p]) {
+            if (row[p] > best[p]) {
+               return 1;
+            }
+            for (p++; p < 9; p++) {
+               value = grid[r * 9 + state[COLUMNS + p]];
+               if (value != 0 && state[LABELS + value] == 0) {
+                  state[LABELS + value] = state[NEXT_LABEL]++;
+               }
+               row[p] = (value == 0) ? 0 : state[LABELS + value];
+            }
+            return -1;
+         }
+      }
+      return hasBest ? 0 : -1;
+   }
+
+   /**
+    * Compares the start of the row being built with the smallest row.
+    *
+    * @param length the amount of squares to compare.
+    * @return less than 0, 0 or more than 0.
+    */
+   private int compare(int length) {
+      for (int p = 0; p < length; p++) {
+         if (row[p] != best[p]) {
+            return row[p] - best[p];
+         }
+      }
+      return 0;
+   }
+
+   /**
+    * Returns a 128 bit fingerprint of a grid, in two longs.
+    *
+    * @param grid the 81 values of the grid.
+    * @param fingerprint filled with the high and low longs.
+    */
+   public static void fingerprint(int[] grid, long[] fingerprint) {
+      long high = 0x9e3779b97f4a7c15L;
+      long low = 0xc2b2ae3d27d4eb4fL;
+      for (int w = 0; w < 81; w += 16) {
+         long word = 0;
+         for (int i = w; i < Math.min(81, w + 16); i++) {
+            word = (word << 4) | grid[i];
+         }
+         high = mix(high ^ word) + w;
+         low = mix(low + word * 0xff51afd7ed558ccdL) ^ w;
+      }
+      fingerprint[0] = high;
+      fingerprint[1] = low;
+   }
+
+   /**
+    * Mixes the bits of a long, using the finalizer of MurmurHash3.
+    *
+    * @param h the long.
+    * @return the mixed long.
+    */
+   private static long mix(long h) {
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      return h ^ (h >>> 33);
+   }
+}
@@ -0,0 +1,535 @@
+/* File: Constraints.java  -  April 2011 */
+package sudoku;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The constraints of a Sudoku variant, used by the {@link Solver}.
+ *
+ * Every variant has the 9 rows, 9 columns and 9 sections of a classic Sudoku.
+ * A {@link Constraints.Builder} can register more:<ul>
+ * <li><strong>Units</strong> - squares that must all be different, such as
+ *     the two diagonals or the four hyper windows.</li>
+ * <li><strong>Cages</strong> - squares that must all be different and add up
+ *     to a sum, as in Killer Sudoku.</li>
+ * <li><strong>Odd and even squares</strong> - squares that may only hold odd
+ *     or even numbers.</li></ul>
+ *
+ * Everything the solver needs is computed once, when the constraints are
+ * built: the units of each square, so the numbers used by a square's peers
+ * are found by combining a few unit masks, and for every cage size and sum,
+ * the bit masks of the numbers that can make up that sum. Constraints are
+ * immutable, so they can be shared between solvers and threads.
+ *
+ * @author Rudi Theunissen
+ */
+public final class Constraints {
+
+   /** Mask with a bit set for each of the numbers 1 to 9. */
+   public static final int ALL_NUMBERS = 0x3fe;
+   /** Mask with a bit set for each of the odd numbers. */
+   public static final int ODD_NUMBERS = 0x2aa;
+   /** Mask with a bit set for each of the even numbers. */
+   public static final int EVEN_NUMBERS = 0x154;
+
+   /** The highest sum of a cage - 1 + 2 + ... + 9. */
+   private static final int MAX_SUM = 45;
+   /** For each amount of numbers and sum, the masks of the different numbers
+    *  that have that sum. */
+   private static final int[][][] COMBINATIONS = new int[10][MAX_SUM + 1][];
+
+   static {
+      for (int count = 0; count < 10; count++) {
+         for (int sum = 0; sum <= MAX_SUM; sum++) {
+            List<Integer> masks = new ArrayList<Integer>();
+            for (int mask = 0; mask <= ALL_NUMBERS; mask += 2) {
+               if (Integer.bitCount(mask) == count && getSum(mask) == sum) {
+                  masks.add(mask);
+               }
+            }
+            COMBINATIONS[count][sum] = new int[masks.size()];
+            for (int i = 0; i < masks.size(); i++) {
+               COMBINATIONS[count][sum][i] = masks.get(i);
+            }
+         }
+      }
+   }
+
+   /** The classic constraints - rows, columns and sections only. */
+   public static final Constraints CLASSIC = new Builder("Classic").build();
+   /** X-Sudoku - the two long diagonals are units too. */
+   public static final Constraints DIAGONAL = new Builder("Diagonal")
+           .addDiagonals().build();
+   /** Hyper Sudoku - the four 3 by 3 windows inside the sections are units
+    *  too. */
+   public static final Constraints HYPER = new Builder("Hyper")
+           .addHyperWindows().build();
+
+   /** The name of the variant. */
+   private final String name;
+   /** The squares of each unit - the classic units first, then the extra
+    *  units, then the cages. */
+   private final int[][] units;
+   /** The units of each square. */
+   private final int[][] squareUnits;
+   /** The array indexes of the peers of each square. */
+   private final int[][] peers;
+   /** The numbers that each square may hold. */
+   private final int[] allowed;
+   /** The index of the first cage in the units. */
+   private final int firstCage;
+   /** The sum of each cage. */
+   private final int[] cageSums;
+   /** The cage of each square, or -1. */
+   private final int[] squareCages;
+
+   /**
+    * Registers the constraints of a variant.
+    */
+   public static final class Builder {
+
+      /** The name of the variant. */
+      private String name;
+      /** The extra units. */
+      private List<int[]> units = new ArrayList<int[]>();
+      /** The squares of each cage. */
+      private List<int[]> cages = new ArrayList<int[]>();
+      /** The sum of each cage. */
+      private List<Integer> sums = new ArrayList<Integer>();
+      /** The numbers that each square may hold. */
+      private int[] allowed = new int[81];
+
+      /**
+       * Constructor - starts with the classic constraints.
+       *
+       * @param name the name of the variant.
+       */
+      public Builder(String name) {
+         this.name = name;
+         for (int i = 0; i < 81; i++) {
+            allowed[i] = ALL_NUMBERS;
+         }
+      }
+
+      /**
+       * Adds a unit - squares that must all hold different numbers.
+       *
+       * @param squares the array indexes of the squares, at most 9.
+       * @return this builder.
+       */
+      public Builder addUnit(int... squares) {
+         units.add(checkSquares(squares).clone());
+         return this;
+      }
+
+      /**
+       * Adds the two long diagonals as units.
+       *
+       * @return this builder.
+       */
+      public Builder addDiagonals() {
+         int[] down = new int[9];
+         int[] up = new int[9];
+         for (int k = 0; k < 9; k++) {
+            down[k] = k * 10;
+            up[k] = (k + 1) * 8;
+         }
+         return addUnit(down).addUnit(up);
+      }
+
+      /**
+       * Adds the four hyper windows as units - the 3 by 3 squares that start
+       * at the second and sixth row and column.
+       *
+       * @return this builder.
+       */
+      public Builder addHyperWindows() {
+         for (int top = 1; top < 9; top += 4) {
+            for (int left = 1; left < 9; left += 4) {
+               int[] window = new int[9];
+               for (int k = 0; k < 9; k++) {
+                  window[k] = (top + k / 3) * 9 + left + k % 3;
+               }
+               addUnit(window);
+            }
+         }
+         return this;
+      }
+
+      /**
+       * Adds a cage - squares that must all hold different numbers that add
+       * up to a sum.
+       *
+       * @param sum the sum of the cage.
+       * @param squares the array indexes of the squares, at most 9.
+       * @return this builder.
+       */
+      public Builder addCage(int sum, int... squares) {
+         checkSquares(squares);
+         if (sum < 0 || sum > MAX_SUM
+                 || COMBINATIONS[squares.length][sum].length == 0) {
+            throw new IllegalArgumentException("No " + squares.length
+                    + " different numbers add up to " + sum);
+         }
+         cages.add(squares.clone());
+         sums.add(sum);
+         return this;
+      }
+
+      /**
+       * Allows only odd numbers in a square.
+       *
+       * @param square the array index of the square.
+       * @return this builder.
+       */
+      public Builder setOdd(int square) {
+         allowed[square] = ODD_NUMBERS;
+         return this;
+      }
+
+      /**
+       * Allows only even numbers in a square.
+       *
+       * @param square the array index of the square.
+       * @return this builder.
+       */
+      public Builder setEven(int square) {
+         allowed[square] = EVEN_NUMBERS;
+         return this;
+      }
+
+      /**
+       * Creates the constraints.
+       *
+       * @return the constraints.
+       */
+      public Constraints build() {
+         return new Constraints(this);
+      }
+
+      /**
+       * Checks that squares are valid array indexes, with no repeats.
+       *
+       * @param squares the array indexes.
+       * @return the array indexes.
+       */
+      private static int[] checkSquares(int[] squares) {
+         if (squares.length == 0 || squares.length > 9) {
+            throw new IllegalArgumentException("A unit has 1 to 9 squares");
+         }
+         boolean[] seen = new boolean[81];
+         for (int square : squares) {
+            if (square < 0 || square >= 81) {
+               throw new IllegalArgumentException("No square " + square);
+            } else if (seen[square]) {
+               throw new IllegalArgumentException("Square " + square
+                       + " is repeated");
+            }
+            seen[square] = true;
+         }
+         return squares;
+      }
+   }
+
+   /**
+    * Private Constructor - computes the tables of a variant.
+    *
+    * @param builder the registered constraints.
+    */
+   private Constraints(Builder builder) {
+      name = builder.name;
+      allowed = builder.allowed.clone();
+
+      List<int[]> all = new ArrayList<int[]>();
+      for (int u = 0; u < Algorithms.UNIT_COUNT; u++) {
+         int[] unit = new int[9];
+         for (int k = 0; k < 9; k++) {
+            unit[k] = Algorithms.getUnitSquare(u, k);
+         }
+         all.add(unit);
+      }
+      all.addAll(builder.units);
+      firstCage = all.size();
+      all.addAll(builder.cages);
+      units = all.toArray(new int[all.size()][]);
+
+      cageSums = new int[builder.sums.size()];
+      for (int c = 0; c < cageSums.length; c++) {
+         cageSums[c] = builder.sums.get(c);
+      }
+      squareCages = new int[81];
+      Arrays.fill(squareCages, -1);
+      for (int c = 0; c < cageSums.length; c++) {
+         for (int square : units[firstCage + c]) {
+            if (squareCages[square] != -1) {
+               throw new IllegalArgumentException("Square " + square
+                       + " is in two cages");
+            }
+            squareCages[square] = c;
+         }
+      }
+
+      // the units and peers of each square.
+      squareUnits = new int[81][];
+      peers = new int[81][];
+      for (int i = 0; i < 81; i++) {
+         List<Integer> memberOf = new ArrayList<Integer>();
+         boolean[] isPeer = new boolean[81];
+         for (int u = 0; u < units.length; u++) {
+            for (int square : units[u]) {
+               if (square == i) {
+                  memberOf.add(u);
+                  for (int peer : units[u]) {
+                     isPeer[peer] = peer != i;
+                  }
+               }
+            }
+         }
+         squareUnits[i] = toArray(memberOf);
+         List<Integer> squarePeers = new ArrayList<Integer>();
+         for (int j = 0; j < 81; j++) {
+            if (isPeer[j]) {
+               squarePeers.add(j);
+            }
+         }
+         peers[i] = toArray(squarePeers);
+      }
+   }
+
+   /**
+    * Returns the name of the variant.
+    *
+    * @return the name of the variant.
+    */
+   public String getName() {
+      return name;
+   }
+
+   /**
+    * Returns true if these are the classic constraints, with nothing extra.
+    *
+    * @return true for a classic Sudoku.
+    */
+   public boolean isClassic() {
+      if (units.length != Algorithms.UNIT_COUNT) {
+         return false;
+      }
+      for (int i = 0; i < 81; i++) {
+         if (allowed[i] != ALL_NUMBERS) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns the amount of units, including the cages.
+    *
+    * @return the amount of units.
+    */
+   public int getUnitCount() {
+      return units.length;
+   }
+
+   /**
+    * Returns the squares of a unit, which must not be changed.
+    *
+    * @param unit the unit.
+    * @return the array indexes of the squares.
+    */
+   public int[] getUnit(int unit) {
+      return units[unit];
+   }
+
+   /**
+    * Returns the units that a square is in, which must not be changed.
+    *
+    * @param index the array index of the square.
+    * @return the units of the square.
+    */
+   public int[] getUnits(int index) {
+      return squareUnits[index];
+   }
+
+   /**
+    * Returns the peers of a square - every square that shares a unit with it -
+    * which must not be changed.
+    *
+    * @param index the array index of the square.
+    * @return the array indexes of the peers.
+    */
+   public int[] getPeers(int index) {
+      return peers[index];
+   }
+
+   /**
+    * Returns the numbers that a square may hold, ignoring the other squares.
+    *
+    * @param index the array index of the square.
+    * @return a mask with a bit set for each number.
+    */
+   public int getAllowed(int index) {
+      return allowed[index];
+   }
+
+   /**
+    * Returns true if the variant has cages.
+    *
+    * @return true if the variant has cages.
+    */
+   public boolean hasCages() {
+      return cageSums.length > 0;
+   }
+
+   /**
+    * Returns the amount of cages.
+    *
+    * @return the amount of cages.
+    */
+   public int getCageCount() {
+      return cageSums.length;
+   }
+
+   /**
+    * Returns the cage of a square.
+    *
+    * @param index the array index of the square.
+    * @return the cage, or -1 if the square isn't in one.
+    */
+   public int getCage(int index) {
+      return squareCages[index];
+   }
+
+   /**
+    * Returns the unit of a cage.
+    *
+    * @param cage the cage.
+    * @return the unit, see {@link Constraints#getUnit(int)}.
+    */
+   public int getCageUnit(int cage) {
+      return firstCage + cage;
+   }
+
+   /**
+    * Returns the sum of a cage.
+    *
+    * @param cage the cage.
+    * @return the sum of the cage.
+    */
+   public int getCageSum(int cage) {
+      return cageSums[cage];
+   }
+
+   /**
+    * Returns the numbers that can still go in the empty squares of a cage.
+    *
+    * Uses the table of combinations - any number that is part of a set of
+    * unused numbers that adds up to the rest of the sum.
+    *
+    * @param used the numbers already in the cage.
+    * @param empty the amount of empty squares in the cage.
+    * @param remaining the rest of the sum, once the used numbers are taken off.
+    * @return a mask with a bit set for each number.
+    */
+   public static int getCageCandidates(int used, int empty, int remaining) {
+      if (remaining < 0 || remaining > MAX_SUM) {
+         return 0;
+      }
+      int candidates = 0;
+      for (int mask : COMBINATIONS[empty][remaining]) {
+         if ((mask & used) == 0) {
+            candidates |= mask;
+         }
+      }
+      return candidates;
+   }
+
+   /**
+    * Checks that no number on a grid breaks a constraint: no number is
+    * repeated in a unit, every number is allowed in its square, and every
+    * cage can still add up to its sum.
+    *
+    * @param grid the grid, 0 for an empty square.
+    * @return true if the grid breaks no constraint.
+    */
+   public boolean isValid(int[] grid) {
+      for (int i = 0; i < 81; i++) {
+         if (grid[i] == 0) {
+            continue;
+         }
+         if ((allowed[i] & (1 << grid[i])) == 0) {
+            return false;
+         }
+         for (int peer : peers[i]) {
+            if (grid[peer] == grid[i]) {
+               return false;
+            }
+         }
+      }
+      for (int c = 0; c < cageSums.length; c++) {
+         int used = 0;
+         int empty = 0;
+         int sum = 0;
+         for (int square : units[firstCage + c]) {
+            if (grid[square] == 0) {
+               empty++;
+            } else {
+               used |= 1 << grid[square];
+               sum += grid[square];
+            }
+         }
+         int remaining = cageSums[c] - sum;
+         if (empty == 0 ? remaining != 0
+                 : getCageCandidates(used, empty, remaining) == 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns the sum of the numbers in a mask.
+    *
+    * @param mask a mask with a bit set for each number.
+    * @return the sum of the numbers.
+    */
+   private static int getSum(int mask) {
+      int sum = 0;
+      for (int n = 1; n < 10; n++) {
+         if ((mask & (1 << n)) != 0) {
+            sum += n;
+         }
+      }
+      return sum;
+   }
+
+   /**
+    * Converts a list of integers to an array.
+    *
+    * @param list the list.
+    * @return the array.
+    */
+   private static int[] toArray(List<Integer> list) {
+      int[] array = new int[list.size()];
+      for (int i = 0; i < array.length; i++) {
+         array[i] = list.get(i);
+      }
+      return array;
+   }
+
+   /**
+    * Returns every built-in variant that can be solved without extra input.
+    *
+    * @return the classic, diagonal and hyper variants.
+    */
+   public static List<Constraints> getBuiltInVariants() {
+      List<Constraints> variants = new ArrayList<Constraints>();
+      variants.add(CLASSIC);
+      variants.add(DIAGONAL);
+      variants.add(HYPER);
+      return Collections.unmodifiableList(variants);
+   }
+}
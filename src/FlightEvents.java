@@ -0,0 +1,221 @@
+/* File: FlightEvents.java  -  April 2011 */
+package sudoku;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JDK Flight Recorder events of the app, so that a recording can tell
+ * which part of it a latency spike came from.
+ *
+ * There are events for solver runs, puzzle bank loads, puzzle record reads
+ * and painted frames. The core can't use jdk.jfr, so its events are created
+ * by this class as its {@link Probes.Sink}, see {@link FlightEvents#install()}.
+ * The panels create their {@link FlightEvents.PaintEvent} directly.
+ * <br><br>
+ * An event is only begun if its type is enabled in the recording, and only
+ * committed if it took longer than the threshold of its type. When nobody is
+ * recording, each operation of the core still creates a small event object
+ * and asks if its type is enabled, but doesn't read the clock or commit
+ * anything. The settings in
+ * <em>resources/jfr/sudoku.jfc</em> leave the events on with thresholds that
+ * suit a continuous recording, and {@link FlightSummary} summarises a
+ * recording.
+ *
+ * @author Rudi Theunissen
+ */
+public final class FlightEvents implements Probes.Sink {
+
+   /**
+    * A run of the solver.
+    */
+   @Name("sudoku.Solve")
+   @Label("Solve")
+   @Category({"Sudoku", "Solver"})
+   @Description("A run of the backtracking solver")
+   @StackTrace(false)
+   static final class SolveEvent extends Event {
+
+      /** The amount of numbers tried. */
+      @Label("Nodes")
+      long nodes;
+      /** The most squares filled in at once. */
+      @Label("Depth")
+      int depth;
+      /** The amount of solutions found. */
+      @Label("Solutions")
+      int solutions;
+      /** How the run ended. */
+      @Label("Outcome")
+      String outcome;
+   }
+
+   /**
+    * A load of the puzzle bank or a puzzle store.
+    */
+   @Name("sudoku.PuzzleLoad")
+   @Label("Puzzle Load")
+   @Category({"Sudoku", "Puzzles"})
+   @Description("A load of the puzzle bank or a puzzle store")
+   @StackTrace(false)
+   static final class LoadEvent extends Event {
+
+      /** What was loaded. */
+      @Label("Source")
+      String source;
+      /** The amount of puzzles loaded. */
+      @Label("Puzzles")
+      long puzzles;
+   }
+
+   /**
+    * A read of the puzzle and solution of a new game.
+    */
+   @Name("sudoku.RecordRead")
+   @Label("Record Read")
+   @Category({"Sudoku", "Puzzles"})
+   @Description("A read of a puzzle and its solution for a new game")
+   @StackTrace(false)
+   static final class ReadEvent extends Event {
+
+      /** Where the record was read from. */
+      @Label("Source")
+      String source;
+      /** The line number or record number. */
+      @Label("Record")
+      long record;
+   }
+
+   /**
+    * A frame painted by a panel.
+    */
+   @Name("sudoku.Paint")
+   @Label("Paint")
+   @Category({"Sudoku", "UI"})
+   @Description("A frame painted by the game or solver panel")
+   @StackTrace(false)
+   static final class PaintEvent extends Event {
+
+      /** The panel that painted the frame. */
+      @Label("Panel")
+      String panel;
+      /** The amount of squares drawn. */
+      @Label("Cells Drawn")
+      int cellsDrawn;
+   }
+
+   /**
+    * Private Constructor - see {@link FlightEvents#install()}.
+    */
+   private FlightEvents() {
+   }
+
+   /**
+    * Makes the core report its operations as events.
+    */
+   public static void install() {
+      Probes.setSink(new FlightEvents());
+   }
+
+   /**
+    * Begins a solve event, if solve events are recorded.
+    *
+    * @return the event, or null.
+    */
+   public Object solveStarted() {
+      SolveEvent event = new SolveEvent();
+      if (!event.isEnabled()) {
+         return null;
+      }
+      event.begin();
+      return event;
+   }
+
+   /**
+    * Ends and commits a solve event.
+    *
+    * @param solve the event.
+    * @param nodes the amount of numbers tried.
+    * @param depth the most squares that were filled in at once.
+    * @param solutions the amount of solutions found.
+    * @param outcome how the run ended.
+    */
+   public void solveFinished(Object solve, long nodes, int depth,
+           int solutions, String outcome) {
+      SolveEvent event = (SolveEvent) solve;
+      event.end();
+      if (event.shouldCommit()) {
+         event.nodes = nodes;
+         event.depth = depth;
+         event.solutions = solutions;
+         event.outcome = outcome;
+         event.commit();
+      }
+   }
+
+   /**
+    * Begins a load event, if load events are recorded.
+    *
+    * @return the event, or null.
+    */
+   public Object loadStarted() {
+      LoadEvent event = new LoadEvent();
+      if (!event.isEnabled()) {
+         return null;
+      }
+      event.begin();
+      return event;
+   }
+
+   /**
+    * Ends and commits a load event.
+    *
+    * @param load the event.
+    * @param source what was loaded.
+    * @param puzzles the amount of puzzles loaded.
+    */
+   public void loadFinished(Object load, String source, long puzzles) {
+      LoadEvent event = (LoadEvent) load;
+      event.end();
+      if (event.shouldCommit()) {
+         event.source = source;
+         event.puzzles = puzzles;
+         event.commit();
+      }
+   }
+
+   /**
+    * Begins a read event, if read events are recorded.
+    *
+    * @return the event, or null.
+    */
+   public Object readStarted() {
+      ReadEvent event = new ReadEvent();
+      if (!event.isEnabled()) {
+         return null;
+      }
+      event.begin();
+      return event;
+   }
+
+   /**
+    * Ends and commits a read event.
+    *
+    * @param read the event.
+    * @param source where the record was read from.
+    * @param record the line number or record number.
+    */
+   public void readFinished(Object read, String source, long record) {
+      ReadEvent event = (ReadEvent) read;
+      event.end();
+      if (event.shouldCommit()) {
+         event.source = source;
+         event.record = record;
+         event.commit();
+      }
+   }
+}
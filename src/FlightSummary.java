@@ -0,0 +1,201 @@
+/* File: FlightSummary.java  -  April 2011 */
+package sudoku;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Summarises the {@link FlightEvents} of a flight recording, and shows what
+ * else was happening during the slowest frames.
+ *
+ * For each kind of Sudoku event it prints the count and the p50, p90, p99 and
+ * longest duration, split by outcome for solver runs, by source for loads and
+ * reads, and by panel for paints, with the total nodes of the solver runs and
+ * the mean cells drawn by a paint. Then for each of the slowest paints it lists
+ * the solver runs, loads, reads and garbage collection pauses that overlapped
+ * it on any thread, so a spike can be put down to a part of the app.
+ * <br><br>
+ * Usage: <em>FlightSummary &lt;recording.jfr&gt; [slowest frames]</em>. Run by
+ * the <em>jfr-summary</em> target in build.xml.
+ *
+ * @author Rudi Theunissen
+ */
+public class FlightSummary {
+
+   /** The amount of slowest paints shown, unless given. */
+   private static final int SLOWEST = 10;
+   /** The events that a paint can overlap with. */
+   private static final String[] CAUSES = {"sudoku.Solve", "sudoku.PuzzleLoad",
+      "sudoku.RecordRead", "jdk.GarbageCollection", "jdk.GCPhasePause"};
+
+   /** The durations of each group of events, by name. */
+   private final Map<String, List<Duration>> groups =
+           new TreeMap<String, List<Duration>>();
+   /** The total nodes of the solver runs. */
+   private long nodes;
+   /** The total cells drawn by the paints. */
+   private long cells;
+   /** The paints. */
+   private final List<RecordedEvent> paints = new ArrayList<RecordedEvent>();
+   /** The events that a paint can overlap with. */
+   private final List<RecordedEvent> causes = new ArrayList<RecordedEvent>();
+
+   /**
+    * Summarises a recording.
+    *
+    * @param args the recording, and optionally the amount of slowest paints.
+    * @throws IOException if the recording couldn't be read.
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1) {
+         System.err.println("Usage: FlightSummary <recording.jfr>"
+                 + " [slowest frames]");
+         System.exit(1);
+      }
+      int slowest = (args.length > 1) ? Integer.parseInt(args[1]) : SLOWEST;
+      FlightSummary summary = new FlightSummary();
+      for (RecordedEvent event
+              : RecordingFile.readAllEvents(Paths.get(args[0]))) {
+         summary.add(event);
+      }
+      summary.print(slowest);
+   }
+
+   /**
+    * Adds an event to the summary.
+    *
+    * @param event the event.
+    */
+   private void add(RecordedEvent event) {
+      String type = event.getEventType().getName();
+      for (String cause : CAUSES) {
+         if (cause.equals(type)) {
+            causes.add(event);
+         }
+      }
+      if ("sudoku.Solve".equals(type)) {
+         nodes += event.getLong("nodes");
+         group("solve, " + event.getString("outcome"), event);
+      } else if ("sudoku.PuzzleLoad".equals(type)) {
+         group("load, " + event.getString("source"), event);
+      } else if ("sudoku.RecordRead".equals(type)) {
+         group("read, " + event.getString("source"), event);
+      } else if ("sudoku.Paint".equals(type)) {
+         cells += event.getInt("cellsDrawn");
+         paints.add(event);
+         group("paint, " + event.getString("panel"), event);
+      } else if ("jdk.GarbageCollection".equals(type)) {
+         group("gc, " + event.getString("name"), event);
+      }
+   }
+
+   /**
+    * Adds the duration of an event to a group.
+    *
+    * @param name the name of the group.
+    * @param event the event.
+    */
+   private void group(String name, RecordedEvent event) {
+      List<Duration> durations = groups.get(name);
+      if (durations == null) {
+         durations = new ArrayList<Duration>();
+         groups.put(name, durations);
+      }
+      durations.add(event.getDuration());
+   }
+
+   /**
+    * Prints the summary.
+    *
+    * @param slowest the amount of slowest paints to show.
+    */
+   private void print(int slowest) {
+      System.out.printf("%-28s %8s %10s %10s %10s %10s%n", "event", "count",
+              "p50 ms", "p90 ms", "p99 ms", "max ms");
+      for (Map.Entry<String, List<Duration>> group : groups.entrySet()) {
+         List<Duration> durations = group.getValue();
+         Collections.sort(durations);
+         System.out.printf("%-28s %8d %10.3f %10.3f %10.3f %10.3f%n",
+                 group.getKey(), durations.size(),
+                 getPercentile(durations, 0.5), getPercentile(durations, 0.9),
+                 getPercentile(durations, 0.99), getPercentile(durations, 1));
+      }
+      System.out.printf("%nsolver nodes %d, mean cells drawn per paint %.1f%n",
+              nodes, paints.isEmpty() ? 0.0 : (double) cells / paints.size());
+
+      Collections.sort(paints, new Comparator<RecordedEvent>() {
+         public int compare(RecordedEvent a, RecordedEvent b) {
+            return b.getDuration().compareTo(a.getDuration());
+         }
+      });
+      for (RecordedEvent paint : paints.subList(0,
+              Math.min(slowest, paints.size()))) {
+         System.out.printf("%npaint, %s %.3f ms at %s%n",
+                 paint.getString("panel"), toMillis(paint.getDuration()),
+                 paint.getStartTime());
+         boolean overlapped = false;
+         for (RecordedEvent cause : causes) {
+            Duration overlap = getOverlap(paint, cause);
+            if (overlap.isNegative() || overlap.isZero()) {
+               continue;
+            }
+            overlapped = true;
+            System.out.printf("   %-22s %.3f ms overlapping, on %s%n",
+                    cause.getEventType().getName(), toMillis(overlap),
+                    (cause.getThread() == null) ? "the JVM"
+                    : cause.getThread().getJavaName());
+         }
+         if (!overlapped) {
+            System.out.println("   nothing recorded overlapped it");
+         }
+      }
+   }
+
+   /**
+    * Returns how long two events overlapped.
+    *
+    * @param a an event.
+    * @param b another event.
+    * @return the overlap, negative if they didn't overlap.
+    */
+   private static Duration getOverlap(RecordedEvent a, RecordedEvent b) {
+      Instant start = a.getStartTime().isAfter(b.getStartTime())
+              ? a.getStartTime() : b.getStartTime();
+      Instant end = a.getEndTime().isBefore(b.getEndTime())
+              ? a.getEndTime() : b.getEndTime();
+      return Duration.between(start, end);
+   }
+
+   /**
+    * Returns a percentile of sorted durations.
+    *
+    * @param durations the durations, in order.
+    * @param fraction the percentile, between 0 and 1.
+    * @return the duration in milliseconds.
+    */
+   private static double getPercentile(List<Duration> durations,
+           double fraction) {
+      int index = (int) Math.ceil(fraction * durations.size()) - 1;
+      return toMillis(durations.get(Math.max(index, 0)));
+   }
+
+   /**
+    * Converts a duration to milliseconds.
+    *
+    * @param duration the duration.
+    * @return the milliseconds, with fractions.
+    */
+   private static double toMillis(Duration duration) {
+      return duration.toNanos() / 1e6;
+   }
+}
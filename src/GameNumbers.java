@@ -1,6 +1,7 @@
 /* File: GameNumbers.java  -  April 2011 */
 package sudoku;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Random;
@@ -18,8 +19,16 @@ public final class GameNumbers {
 
    /** A specific, random number line in the puzzle/solution text files. */
    private int newLineNumber;
-   /** The amount of non-zero numbers that are currently on the grid. */
-   private int nonZeros;
+   /** The difficulty of the current puzzle. */
+   private int difficulty;
+   /** The amount of squares that have been solved by hints. */
+   private int hintsUsed;
+   /** The array indexes of the empty squares, in no particular order. */
+   private int[] emptySquares;
+   /** The position of each square in emptySquares, or -1 if it isn't empty. */
+   private int[] emptyPositions;
+   /** The amount of empty squares that are currently on the grid. */
+   private int emptyCount;
    /** Random number generator. */
    private Random random;
    /** The current puzzle number line. */
@@ -38,23 +47,59 @@ public final class GameNumbers {
    private int[] initialArray;
    /** The array of integers that contains the solution of the puzzle array. */
    private int[] solutionArray;
-   /** A Scanner that reads the lines in the puzzles text file. */
-   private Scanner puzzleScan;
-   /* A Scanner that reads the lines in the solutions text file. */
-   private Scanner solutionScan;
-   /** An ArrayList that contains all the lines of the puzzles text file. */
-   private ArrayList<String> puzzleLinesArray;
-   /** An ArrayList that contains all the lines of the solutions text file. */
-   private ArrayList<String> solutionLinesArray;
+   /** The shared {@link PuzzleBank} that puzzles are picked from. */
+   private PuzzleBank bank;
+   /** The {@link PuzzleSupply} that new puzzles are taken from, or null. */
+   private PuzzleSupply supply;
+   /** The {@link PuzzleStore} that replaces the bank, or null. */
+   private PuzzleStore store;
+   /** The record of the current puzzle in the store. */
+   private long storeRecord = -1;
    /** A nested ArrayList containing all the entered possibilities. */
    private ArrayList<ArrayList<Integer>> minisArray;
+   /** The autosave {@link Journal} that moves are appended to, or null. */
+   private Journal journal;
+   /** Told when the game is finished, or null. */
+   private GameListener listener;
+
+   /** Times {@link GameNumbers#newGame(int)}. */
+   private static final Metrics.Timer NEW_GAME = Metrics.timer("game.newGame");
+   /** Times {@link GameNumbers#restartGame()}. */
+   private static final Metrics.Timer RESTART_GAME =
+           Metrics.timer("game.restartGame");
+   /** Times {@link GameNumbers#solveNumber()}. */
+   private static final Metrics.Timer SOLVE_NUMBER =
+           Metrics.timer("game.solveNumber");
+   /** Times {@link GameNumbers#solveAll()}. */
+   private static final Metrics.Timer SOLVE_ALL =
+           Metrics.timer("game.solveAll");
+   /** Counts the boards checked by {@link GameNumbers#validate()}. */
+   private static final Metrics.Counter VALIDATE =
+           Metrics.counter("game.validate");
+   /** Counts the new games of each source of puzzles. */
+   private static final Metrics.Counter SUPPLY_PUZZLES =
+           Metrics.counter("game.supplyPuzzles"),
+           STORE_PUZZLES = Metrics.counter("game.storePuzzles"),
+           BANK_PUZZLES = Metrics.counter("game.bankPuzzles");
 
    /**
-    * Default Constructor - creates the arrays and the number lines.
+    * Listens for the end of a game.
+    */
+   public interface GameListener {
+
+      /**
+       * Called when the last square is filled in with the right number.
+       */
+      void gameFinished();
+   }
+
+   /**
+    * Default Constructor - creates the arrays and uses the shared puzzle bank.
     */
    public GameNumbers() {
+      random = new Random();
+      bank = PuzzleBank.getInstance();
       createArrays();
-      createLines();
    }
 
    /**
@@ -65,9 +110,9 @@ public final class GameNumbers {
       gameArray = new int[81];
       initialArray = new int[81];
       solutionArray = new int[81];
+      emptySquares = new int[81];
+      emptyPositions = new int[81];
 
-      puzzleLinesArray = new ArrayList<String>();
-      solutionLinesArray = new ArrayList<String>();
       minisArray = new ArrayList<ArrayList<Integer>>();
 
       for (int i = 0; i < 81; i++) {
@@ -89,16 +134,26 @@ public final class GameNumbers {
       int arrayIndex = Algorithms.toIndex(row, col);
       if (!minisArray.get(arrayIndex).contains(numberEntered)) {
          minisArray.get(arrayIndex).set(numberEntered, numberEntered);
+         log(Journal.ADD_MINI, arrayIndex, numberEntered);
       }
    }
 
    /**
     * Creates a new Sudoku puzzle.
+    *
+    * @param difficulty the difficulty of the puzzle, 0 to 3.
     */
-   public void newGame() {
+   public void newGame(int difficulty) {
+      long begin = System.nanoTime();
+      this.difficulty = difficulty;
       setValues();
-      clearMinis();
+      resetMinis();
+      hintsUsed = 0;
       gameState = true;
+      if (journal != null) {
+         journal.snapshot(captureState());
+      }
+      NEW_GAME.recordSince(begin);
    }
 
    /**
@@ -108,21 +163,30 @@ public final class GameNumbers {
     * values of the numbers on the grid back to their initial states.
     */
    public void restartGame() {
+      long begin = System.nanoTime();
       if (gameState || startOverAllow) {
          System.arraycopy(initialArray, 0, gameArray, 0, 81);
-         nonZeros = 0;
-         for (int n : initialArray) {
-            nonZeros += (n != 0) ? 1 : 0;
-         }
-         clearMinis();
+         findEmptySquares();
+         resetMinis();
+         hintsUsed = 0;
          gameState = true;
+         log(Journal.RESTART, 0, 0);
       }
+      RESTART_GAME.recordSince(begin);
    }
 
    /**
     * Clears all the possibilities on the grid.
     */
    public void clearMinis() {
+      resetMinis();
+      log(Journal.CLEAR_MINIS, 0, 0);
+   }
+
+   /**
+    * Clears all the possibilities on the grid without journaling it.
+    */
+   private void resetMinis() {
       for (int l = 0; l < 81; l++) {
          for (int p = 0; p < 10; p++) {
             minisArray.get(l).set(p, 0);
@@ -138,24 +202,87 @@ public final class GameNumbers {
     * @param col the selected column on the grid.
     */
    public void toggleMini(int number, int row, int col) {
-      ArrayList<Integer> minis = minisArray.get(Algorithms.toIndex(row, col));
-      System.out.println(minis);
+      int arrayIndex = Algorithms.toIndex(row, col);
+      ArrayList<Integer> minis = minisArray.get(arrayIndex);
       minis.set(number, minis.get(number) == 0 ? number : 0);
+      log(Journal.TOGGLE_MINI, arrayIndex, number);
    }
 
    /**
     * Solves one random square.
     *
     * Called when the "Help" button or "H" key is pressed.<br>
-    * If the grid isn't full it solves one random empty square on the grid.
+    * If the grid isn't full it solves one random empty square on the grid,
+    * picked in constant time from the set of empty squares.
+    *
+    * @return the array index of the solved square, or -1 if none was solved.
     */
-   public void solveNumber() {
-      if (gameState) {
-         int randomIndex;
-         do {
-            randomIndex = random.nextInt(80);
-         } while (gameArray[randomIndex] != 0);
-         gameArray[randomIndex] = solutionArray[randomIndex];
+   public int solveNumber() {
+      long begin = System.nanoTime();
+      int randomIndex = -1;
+      if (gameState && emptyCount > 0) {
+         randomIndex = emptySquares[random.nextInt(emptyCount)];
+         revealNumber(randomIndex);
+         log(Journal.SOLVE_NUMBER, randomIndex, 0);
+      }
+      SOLVE_NUMBER.recordSince(begin);
+      return randomIndex;
+   }
+
+   /**
+    * Finds the next logical step for the current grid, without solving it.
+    *
+    * Called when the "Shift+H" keys are pressed.
+    *
+    * @return the next logical step, or null if the grid is full.
+    * @see Hint#nextLogicalStep(int[])
+    */
+   public Hint nextLogicalStep() {
+      return Hint.nextLogicalStep(gameArray);
+   }
+
+   /**
+    * Sets one square to its solution value, counting it as a hint.
+    *
+    * @param index the array index of the square.
+    */
+   private void revealNumber(int index) {
+      setSquare(index, solutionArray[index]);
+      hintsUsed++;
+   }
+
+   /**
+    * Sets the value of a square, keeping the set of empty squares up to date.
+    *
+    * @param index the array index of the square.
+    * @param value the new value of the square, 0 to clear it.
+    */
+   private void setSquare(int index, int value) {
+      if (gameArray[index] == 0 && value != 0) {
+         // swap the last empty square into this one's position..
+         int last = emptySquares[--emptyCount];
+         emptySquares[emptyPositions[index]] = last;
+         emptyPositions[last] = emptyPositions[index];
+         emptyPositions[index] = -1;
+      } else if (gameArray[index] != 0 && value == 0) {
+         emptySquares[emptyCount] = index;
+         emptyPositions[index] = emptyCount++;
+      }
+      gameArray[index] = value;
+   }
+
+   /**
+    * Rebuilds the set of empty squares after the whole grid has changed.
+    */
+   private void findEmptySquares() {
+      emptyCount = 0;
+      for (int i = 0; i < 81; i++) {
+         if (gameArray[i] == 0) {
+            emptySquares[emptyCount] = i;
+            emptyPositions[i] = emptyCount++;
+         } else {
+            emptyPositions[i] = -1;
+         }
       }
    }
 
@@ -166,82 +293,119 @@ public final class GameNumbers {
     * values. Also ends the current game but allows it to be restart again.
     */
    public void solveAll() {
+      long begin = System.nanoTime();
       System.arraycopy(solutionArray, 0, gameArray, 0, gameArray.length);
+      findEmptySquares();
       gameState = false;
       startOverAllow = true;
+      log(Journal.SOLVE_ALL, 0, 0);
+      SOLVE_ALL.recordSince(begin);
+   }
+
+   /**
+    * Checks every number of the current game, when the player asks for the
+    * game to be validated.
+    *
+    * @return the amount of numbers on the grid that are wrong.
+    */
+   public int validate() {
+      VALIDATE.increment();
+      int wrong = 0;
+      for (int i = 0; i < 81; i++) {
+         if (gameArray[i] != 0 && !isCorrect(i)) {
+            wrong++;
+         }
+      }
+      return wrong;
    }
 
    /**
     * Checks to see whether a specific value in the current puzzle is correct.
+    * Cheap enough to be called for every square on every repaint.
     *
     * @param i the number in the current game array to be checked.
     * @return true if the value is correct.
     */
-   public boolean validate(int i) {
+   public boolean isCorrect(int i) {
       return (gameArray[i] == solutionArray[i]);
    }
 
    /**
     * Sets the values of the current game's puzzle and solution array.
     *
-    * Sets each value in the grid values array to the corresponding value in the
-    * puzzle array (initial hints). Does the same for the solution array.
+    * Takes a generated puzzle from the {@link PuzzleSupply} if one is ready,
+    * or reads a random puzzle of the {@link PuzzleStore} straight into the
+    * arrays if there is one. Otherwise sets each value in the grid values
+    * array to the corresponding value in the puzzle array (initial hints) of a
+    * line of the bank. Does the same for the solution array.
     */
    private void setValues() {
-      setCurrentLine();
-      Scanner current = new Scanner(currentLine);
-      Scanner solution = new Scanner(solutionLine);
-
-      // Only reads single digit integers.
-      current.useDelimiter("");
-      solution.useDelimiter("");
-
-      nonZeros = 0;
-      for (int i = 0; i < 81; i++) {
-         gameArray[i] = current.nextInt();
-         solutionArray[i] = solution.nextInt();
-         if (gameArray[i] != 0) {
-            nonZeros++;
+      int[][] generated = (supply != null) ? supply.take(difficulty) : null;
+      if (generated != null) {
+         SUPPLY_PUZZLES.increment();
+         newLineNumber = 0;
+         System.arraycopy(generated[0], 0, gameArray, 0, 81);
+         System.arraycopy(generated[1], 0, solutionArray, 0, 81);
+      } else if (store != null) {
+         STORE_PUZZLES.increment();
+         newLineNumber = 0;
+         long size = store.getSectionSize(difficulty);
+         long previous = storeRecord;
+         do {
+            storeRecord = store.getSectionStart(difficulty)
+                    + (long) (random.nextDouble() * size);
+         } while (storeRecord == previous && size > 1);
+         Probes.Sink probe = Probes.getSink();
+         Object event = (probe != null) ? probe.readStarted() : null;
+         store.readPuzzle(storeRecord, gameArray);
+         store.readSolution(storeRecord, solutionArray);
+         if (event != null) {
+            probe.readFinished(event, "store", storeRecord);
+         }
+      } else {
+         BANK_PUZZLES.increment();
+         setCurrentLine();
+         Probes.Sink probe = Probes.getSink();
+         Object event = (probe != null) ? probe.readStarted() : null;
+         Scanner current = new Scanner(currentLine);
+         Scanner solution = new Scanner(solutionLine);
+
+         // Only reads single digit integers.
+         current.useDelimiter("");
+         solution.useDelimiter("");
+
+         for (int i = 0; i < 81; i++) {
+            gameArray[i] = current.nextInt();
+            solutionArray[i] = solution.nextInt();
+         }
+         if (event != null) {
+            probe.readFinished(event, "bank", newLineNumber);
          }
       }
       System.arraycopy(gameArray, 0, initialArray, 0, 81);
+      findEmptySquares();
    }
 
    /**
     * Creates puzzle/solution line pair.
     *
     * Determines the puzzle/solution pair for a new game by randomly choosing a
-    * line from within the current difficulty's line array. Also makes sure that
-    * the line that is chosen is not already the current line (current game).
+    * line from within the current difficulty's section, as listed in the index
+    * of the {@link PuzzleBank}. Also makes sure that the line that is chosen is
+    * not already the current line (current game).
     */
    private void setCurrentLine() {
-      random = new Random();
-
-      int numberOfPuzzles = Sudoku.NUMBER_OF_PUZZLES_PER_DIFFICULTY;
-      int difficulty = GamePanel.currentDifficulty;
-      int lineStart = difficulty * (numberOfPuzzles) + (difficulty + 1) * 3 + 5;
+      int numberOfPuzzles = bank.getSectionSize(difficulty);
+      int lineStart = bank.getSectionStart(difficulty);
       int oldLineNumber = newLineNumber;
 
       do {
          newLineNumber = random.nextInt(numberOfPuzzles) + lineStart;
-      } while (newLineNumber == oldLineNumber);
+      } while (newLineNumber == oldLineNumber && numberOfPuzzles > 1);
       // makes sure that the new random line is not the same as the old one.
 
-      currentLine = puzzleLinesArray.get(newLineNumber - 1);
-      solutionLine = solutionLinesArray.get(newLineNumber - 1);
-   }
-
-   /**
-    * Scans the entire puzzle and solution files' lines into arrays.
-    */
-   private void createLines() {
-      puzzleScan = getPuzzleScanner("puzzles.sud");
-      solutionScan = getPuzzleScanner("solutions.sud");
-
-      while (puzzleScan.hasNextLine()) {
-         puzzleLinesArray.add(puzzleScan.nextLine());
-         solutionLinesArray.add(solutionScan.nextLine());
-      }
+      currentLine = bank.getPuzzleLine(newLineNumber);
+      solutionLine = bank.getSolutionLine(newLineNumber);
    }
 
    /**
@@ -268,22 +432,228 @@ public final class GameNumbers {
          return;
       }
 
-      // keep track of non-zero numbers that are on the grid..
-      nonZeros += (numberEntered == 0)
-              ? ((gameArray[arrayIndex] == 0) ? 0 : -1)
-              : ((gameArray[arrayIndex] == 0) ? 1 : 0);
-
-      // update the current game array at the given index.
-      gameArray[arrayIndex] = numberEntered;
+      // update the current game array, and the empty squares, at the index.
+      setSquare(arrayIndex, numberEntered);
+      log(Journal.ADD_NUMBER, arrayIndex, numberEntered);
 
       // check to see if the game is finished..
-      if (nonZeros == 81 && Arrays.equals(gameArray, solutionArray)) {
+      if (emptyCount == 0 && Arrays.equals(gameArray, solutionArray)) {
          gameState = false;
          startOverAllow = true;
-         GamePanel.endGame();
+         if (listener != null) {
+            listener.gameFinished();
+         }
       }
    }
 
+   /**
+    * Appends a move to the journal, compacting the journal when it is due.
+    *
+    * @param type the record type, such as {@link Journal#ADD_NUMBER}.
+    * @param index the array index of the square.
+    * @param value the number involved in the move.
+    */
+   private void log(int type, int index, int value) {
+      if (journal != null && journal.append(type, index, value)) {
+         journal.snapshot(captureState());
+      }
+   }
+
+   /**
+    * Restores the last session from a journal, then starts journaling to it.
+    *
+    * Loads the last snapshot and replays every move that was recorded after
+    * it, which leaves the game exactly as it was when the app was closed.
+    * The game listener is held back while the moves are replayed, and is told
+    * once at the end if the replayed moves finished the game - so it is told
+    * on the calling thread, which need not be the event dispatch thread.
+    *
+    * @param sessionJournal the journal to restore from and append to.
+    * @return true if a previous session was restored.
+    */
+   public boolean replay(Journal sessionJournal) {
+      journal = null;
+      final boolean[] finished = new boolean[1];
+      GameListener gameListener = listener;
+      listener = new GameListener() {
+
+         /**
+          * Remembers that a replayed move finished the game.
+          */
+         public void gameFinished() {
+            finished[0] = true;
+         }
+      };
+      byte[] state = sessionJournal.readSnapshot();
+      boolean restored = state != null && restoreState(state);
+
+      if (restored) {
+         for (int record : sessionJournal.readRecords()) {
+            int index = Journal.getIndex(record);
+            int value = Journal.getValue(record);
+
+            switch (Journal.getType(record)) {
+               case Journal.ADD_NUMBER:
+                  addNumber(value, Algorithms.getRow(index),
+                          Algorithms.getCol(index));
+                  break;
+               case Journal.TOGGLE_MINI:
+                  toggleMini(value, Algorithms.getRow(index),
+                          Algorithms.getCol(index));
+                  break;
+               case Journal.ADD_MINI:
+                  addMiniNumber(value, Algorithms.getRow(index),
+                          Algorithms.getCol(index));
+                  break;
+               case Journal.SOLVE_NUMBER:
+                  revealNumber(index);
+                  break;
+               case Journal.RESTART:
+                  restartGame();
+                  break;
+               case Journal.SOLVE_ALL:
+                  solveAll();
+                  break;
+               case Journal.CLEAR_MINIS:
+                  clearMinis();
+                  break;
+               default:
+                  break;
+            }
+         }
+      }
+      listener = gameListener;
+      if (finished[0] && !gameState && listener != null) {
+         listener.gameFinished();
+      }
+      journal = sessionJournal;
+      journal.start();
+      return restored;
+   }
+
+   /**
+    * Captures the full game state, used as a journal snapshot.
+    *
+    * @return the encoded game state.
+    */
+   public byte[] captureState() {
+      ByteBuffer state = ByteBuffer.allocate(16 + 81 * 5);
+      state.putInt(difficulty);
+      state.putInt(newLineNumber);
+      state.putInt(hintsUsed);
+      state.put((byte) (gameState ? 1 : 0));
+      state.put((byte) (startOverAllow ? 1 : 0));
+      state.putShort((short) 0);
+
+      for (int i = 0; i < 81; i++) {
+         state.put((byte) gameArray[i]);
+         state.put((byte) initialArray[i]);
+         state.put((byte) solutionArray[i]);
+         state.putShort((short) getMiniMask(i));
+      }
+      return state.array();
+   }
+
+   /**
+    * Restores a game state that was made by {@link #captureState()}.
+    *
+    * @param data the encoded game state.
+    * @return true if the state was restored.
+    */
+   private boolean restoreState(byte[] data) {
+      if (data.length != 16 + 81 * 5) {
+         return false;
+      }
+      ByteBuffer state = ByteBuffer.wrap(data);
+      difficulty = state.getInt();
+      newLineNumber = state.getInt();
+      hintsUsed = state.getInt();
+      gameState = state.get() != 0;
+      startOverAllow = state.get() != 0;
+      state.getShort();
+
+      for (int i = 0; i < 81; i++) {
+         gameArray[i] = state.get();
+         initialArray[i] = state.get();
+         solutionArray[i] = state.get();
+         int minis = state.getShort();
+         for (int p = 0; p < 10; p++) {
+            minisArray.get(i).set(p, ((minis >> p) & 1) != 0 ? p : 0);
+         }
+      }
+      findEmptySquares();
+      return true;
+   }
+
+   /**
+    * Returns true if a game is in progress.
+    *
+    * @return true if a game is in progress.
+    */
+   public boolean isGameInProgress() {
+      return gameState;
+   }
+
+   /**
+    * Sets the supply that new games take generated puzzles from. Without one,
+    * every puzzle comes from the bank.
+    *
+    * @param supply the supply, or null for none.
+    */
+   public void setPuzzleSupply(PuzzleSupply supply) {
+      this.supply = supply;
+   }
+
+   /**
+    * Sets the store that new games pick their puzzles from instead of the
+    * bank. The store needs solutions, and a section of puzzles for each
+    * difficulty.
+    *
+    * @param store the store, or null to use the bank.
+    * @throws IllegalArgumentException if the store can't be used.
+    */
+   public void setPuzzleStore(PuzzleStore store) {
+      if (store != null && (!store.hasSolutions()
+              || store.getSectionCount() < bank.getDifficultyCount())) {
+         throw new IllegalArgumentException(
+                 "The store needs solutions and a section for each difficulty.");
+      }
+      for (int d = 0; store != null && d < bank.getDifficultyCount(); d++) {
+         if (store.getSectionSize(d) == 0) {
+            throw new IllegalArgumentException("The store has no puzzles in "
+                    + "section " + store.getSectionName(d) + ".");
+         }
+      }
+      this.store = store;
+   }
+
+   /**
+    * Sets the listener that is told when the game is finished.
+    *
+    * @param listener the listener, or null for none.
+    */
+   public void setGameListener(GameListener listener) {
+      this.listener = listener;
+   }
+
+   /**
+    * Returns the difficulty of the current puzzle.
+    *
+    * @return the difficulty of the current puzzle.
+    */
+   public int getDifficulty() {
+      return difficulty;
+   }
+
+   /**
+    * Returns the amount of squares that have been solved by hints.
+    *
+    * @return the amount of squares that have been solved by hints.
+    */
+   public int getHintsUsed() {
+      return hintsUsed;
+   }
+
    /**
     * Returns the value of the game array at a given index.
     *
@@ -295,24 +665,29 @@ public final class GameNumbers {
    }
 
    /**
-    * Used to set up a Scanner that uses a file as an input stream.
+    * Returns an ArrayList of possibilities (mini numbers) at a given index.
     *
-    * @param fileName Location of the file that is to be scanned.
-    * @return Scanner that is ready to read data from a file.
+    * @param index given array index.
+    * @return an ArrayList of possibilities (mini numbers) at a given index.
     */
-   private Scanner getPuzzleScanner(String fileName) {
-      String puzzleDir = Sudoku.PUZZLE_DIRECTORY;
-      return new Scanner(getClass().getResourceAsStream(puzzleDir + fileName));
+   public ArrayList<Integer> getMiniNumbers(int index) {
+      return minisArray.get(index);
    }
 
    /**
-    * Returns an ArrayList of possibilities (mini numbers) at a given index.
+    * Returns the possibilities at a given index as a bit mask.
     *
     * @param index given array index.
-    * @return an ArrayList of possibilities (mini numbers) at a given index.
+    * @return a mask with bit n set for each possibility n.
     */
-   public ArrayList<Integer> getMiniNumbers(int index) {
-      return minisArray.get(index);
+   public int getMiniMask(int index) {
+      int mask = 0;
+      for (int mini : minisArray.get(index)) {
+         if (mini != 0) {
+            mask |= 1 << mini;
+         }
+      }
+      return mask;
    }
 
    /**
@@ -321,6 +696,6 @@ public final class GameNumbers {
     * @return the amount of non-zero numbers that are currently on the grid.
     */
    public int getNonZeros() {
-      return nonZeros;
+      return 81 - emptyCount;
    }
 }
@@ -3,7 +3,9 @@ package sudoku;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import javax.swing.*;
 
 /**
@@ -15,6 +17,10 @@ public class GamePanel extends JPanel implements ActionListener {
 
    /** Instance of {@link Images}, used to load images. */
    private Images images;
+   /** Instance of {@link BoardRenderer}, used to paint the grid. */
+   private BoardRenderer renderer;
+   /** Instance of {@link InputLatency}, measures input to paint latency. */
+   private InputLatency latency;
    /** Instance of {@link GameNumbers}, the main utility class for the game. */
    private GameNumbers numbers;
    /** A square position along the x-axis; column. */
@@ -35,12 +41,27 @@ public class GamePanel extends JPanel implements ActionListener {
    private JButton[] buttons;
    /** Amount of extra hints that have been requested. */
    private int helpCount;
+   /** True for each square that has changed since the last repaint. */
+   private boolean[] dirtySquares;
+   /** True if the whole panel has changed since the last repaint. */
+   private boolean dirtyPanel;
 
    /**
     * Defines the initial values of a few data fields and sets up the buttons.
     * @see Button
     */
    public GamePanel() {
+      this(createNumbers(), new BoardRenderer(Images.getInstance()));
+   }
+
+   /**
+    * Constructor - uses numbers and a renderer that were created beforehand,
+    * off the event dispatch thread, see {@link GamePanel#createNumbers()}.
+    *
+    * @param numbers the numbers of the game.
+    * @param renderer the renderer that paints the grid.
+    */
+   public GamePanel(GameNumbers numbers, BoardRenderer renderer) {
       this.setFocusable(true);
       this.setLayout(new BoxLayout(this, BoxLayout.PAGE_AXIS));
       this.setPreferredSize(new Dimension(511, 410));
@@ -50,11 +71,14 @@ public class GamePanel extends JPanel implements ActionListener {
       this.addKeyListener(new KeyboardAdapter());
       this.addMouseListener(new MouseClickAdapter());
 
-      numbers = new GameNumbers();
-      images = new Images(true);
+      this.numbers = numbers;
+      images = Images.getInstance();
+      this.renderer = renderer;
+      latency = new InputLatency("game");
       squareX = 5;
       squareY = 5;
       currentDifficulty = 1;
+      dirtySquares = new boolean[81];
 
       setButtons();
    }
@@ -97,7 +121,7 @@ public class GamePanel extends JPanel implements ActionListener {
     * Creates a new game.
     */
    public void newGame() {
-      numbers.newGame();
+      numbers.newGame(currentDifficulty);
       squareX = 5;
       squareY = 5;
       gameState = true;
@@ -106,6 +130,70 @@ public class GamePanel extends JPanel implements ActionListener {
       showHelpDialog = false;
       helpCount = 0;
       buttons[2].setEnabled(true);
+      markPanel();
+   }
+
+   /**
+    * Restores the last session from the autosave journal.
+    *
+    * Works with {@link GameNumbers#replay(Journal)}
+    *
+    * @param journal the journal to restore from and append to.
+    */
+   public void restoreSession(Journal journal) {
+      if (numbers.replay(journal)) {
+         showRestoredSession();
+      }
+   }
+
+   /**
+    * Shows the difficulty, hints and state of a game that the numbers have
+    * already restored with {@link GameNumbers#replay(Journal)}.
+    */
+   public void showRestoredSession() {
+      currentDifficulty = numbers.getDifficulty();
+      gameState = numbers.isGameInProgress();
+      helpCount = numbers.getHintsUsed();
+      buttons[2].setEnabled(helpCount < 5);
+      ImageIcon diff = images.getImageIcon(currentDifficulty + "-diff-button");
+      buttons[1].setIcon(diff);
+   }
+
+   /**
+    * Creates the numbers of a game, with the puzzle supply and, if the app was
+    * run with <em>-Dsudoku.store=file</em>, the puzzle store. None of this
+    * touches Swing, so it can be done on any thread.
+    *
+    * @return the numbers.
+    */
+   public static GameNumbers createNumbers() {
+      GameNumbers numbers = new GameNumbers();
+      numbers.setGameListener(new GameNumbers.GameListener() {
+         public void gameFinished() {
+            // a restored game can finish while it is replayed on a loader thread.
+            if (SwingUtilities.isEventDispatchThread()) {
+               endGame();
+            } else {
+               SwingUtilities.invokeLater(new Runnable() {
+                  public void run() {
+                     endGame();
+                  }
+               });
+            }
+         }
+      });
+      numbers.setPuzzleSupply(PuzzleSupply.getInstance());
+      String storePath = System.getProperty("sudoku.store");
+      if (storePath != null) {
+         try {
+            numbers.setPuzzleStore(PuzzleStore.open(new File(storePath)));
+         } catch (IOException ex) {
+            System.err.println(ex);
+         } catch (IllegalArgumentException ex) {
+            System.err.println(ex);
+         }
+      }
+      return numbers;
    }
 
    /**
@@ -128,12 +216,33 @@ public class GamePanel extends JPanel implements ActionListener {
       }
       helpCount++;
       if (helpCount < 6) {
-         numbers.solveNumber();
+         markSquare(numbers.solveNumber());
          if (helpCount == 5) {
             buttons[2].setEnabled(false);
          }
       } else {
          showHelpDialog = true;
+         markPanel();
+      }
+   }
+
+   /**
+    * Moves the selector to the square that can be solved next by logic.
+    *
+    * Unlike {@link GamePanel#help()} this doesn't fill in the square and does
+    * not count towards the maximum number of hints.
+    *
+    * Works with {@link GameNumbers#nextLogicalStep()}
+    */
+   public void showNextStep() {
+      if (!gameState) {
+         return;
+      }
+      Hint hint = numbers.nextLogicalStep();
+      if (hint != null) {
+         markSelector();
+         squareX = Algorithms.getCol(hint.getIndex());
+         squareY = Algorithms.getRow(hint.getIndex());
       }
    }
 
@@ -146,6 +255,7 @@ public class GamePanel extends JPanel implements ActionListener {
       numbers.solveAll();
       validateState = false;
       gameState = false;
+      markPanel();
    }
 
    /**
@@ -162,6 +272,7 @@ public class GamePanel extends JPanel implements ActionListener {
               JOptionPane.QUESTION_MESSAGE,
               (Icon) images.getImageIcon("clear-confirm")) == 0) {
          numbers.clearMinis();
+         markPanel();
       }
    }
 
@@ -177,6 +288,7 @@ public class GamePanel extends JPanel implements ActionListener {
          buttons[2].setEnabled(true);
          gameState = true;
          helpCount = 0;
+         markPanel();
       }
    }
 
@@ -197,13 +309,81 @@ public class GamePanel extends JPanel implements ActionListener {
    public void inputNumber(int numberToAdd) {
       if (gameState) {
          numbers.addNumber(numberToAdd, squareY, squareX);
+         markSelector();
+         if (showFinishedDialog) {
+            markPanel();
+         }
       }
    }
 
     private void toggleMini(int number) {
         numbers.toggleMini(number, squareY, squareX);
+        markSelector();
     }
 
+   /**
+    * Toggles validation, which changes the colour of every number.
+    */
+   private void toggleValidation() {
+      validateState = !validateState;
+      if (validateState) {
+         numbers.validate();
+      }
+      markPanel();
+   }
+
+   /**
+    * Marks a square as changed, so that it is repainted.
+    *
+    * @param index the array index of the square, ignored if negative.
+    */
+   private void markSquare(int index) {
+      if (index >= 0) {
+         dirtySquares[index] = true;
+      }
+   }
+
+   /**
+    * Marks the square under the selector as changed.
+    */
+   private void markSelector() {
+      markSquare(Algorithms.toIndex(squareY, squareX));
+   }
+
+   /**
+    * Marks the whole panel as changed, for changes that affect every square.
+    */
+   private void markPanel() {
+      dirtyPanel = true;
+   }
+
+   /**
+    * Repaints only what has changed since the last call.
+    *
+    * Each changed square is repainted using its own rectangle, computed using
+    * {@link Algorithms#getBase(int)}, rather than repainting the whole panel.
+    *
+    * @return true if anything had changed, false if nothing is repainted.
+    */
+   private boolean repaintDirty() {
+      boolean changed = dirtyPanel;
+      if (dirtyPanel) {
+         repaint();
+      } else {
+         for (int i = 0; i < 81; i++) {
+            if (dirtySquares[i]) {
+               repaint(Algorithms.getBase(Algorithms.getCol(i)),
+                       Algorithms.getBase(Algorithms.getRow(i)), 44, 44);
+               changed = true;
+            }
+         }
+      }
+      dirtyPanel = false;
+      Arrays.fill(dirtySquares, false);
+      latency.repaintOverlay(this);
+      return changed;
+   }
+
    /**
     * Paints all the components and images onto the panel.
     *
@@ -213,46 +393,51 @@ public class GamePanel extends JPanel implements ActionListener {
     */
    @Override
    public void paintComponent(Graphics g) {
+      FlightEvents.PaintEvent frame = new FlightEvents.PaintEvent();
+      frame.begin();
       requestFocusInWindow();
       super.paintComponent(g);
 
       // paint the grid.
-      g.drawImage(images.getImage("sudoku-grid"), 0, 0, this);
+      renderer.paintGrid(g);
 
-      int number, x, y, row, col;
+      // only the squares within the clip have to be painted.
+      Rectangle clip = g.getClipBounds();
+
+      int number, type, x, y, row, col;
+      int drawn = 0;
       for (int i = 0; i < 81; i++) {
 
          row = Algorithms.getRow(i);
          col = Algorithms.getCol(i);
          x = Algorithms.getBase(col);
          y = Algorithms.getBase(row);
+         if (clip != null && !clip.intersects(x, y, 44, 44)) {
+            continue;
+         }
          number = numbers.getCurrentNumber(i);
+         drawn++;
 
          if (number == 0) {
             // paint the possibilities..
-            for (int mini : numbers.getMiniNumbers(i)) {
-               if (mini != 0) {
-                  int c = Algorithms.getMiniSquareLocationX(mini, x);
-                  int r = Algorithms.getMiniSquareLocationY(mini, y);
-                  g.drawImage(images.getNumberImage("mini", mini), c, r, this);
-               }
-            }
-            // if the number is zero, no image is to be painted, so skip.
+            renderer.paintSquare(g, x, y, 0, Images.MINI,
+                    numbers.getMiniMask(i));
             continue;
          }
 
          // if validation is not enabled..
          if (!validateState) {
-            g.drawImage(images.getNumberImage("white", number), x, y, this);
+            type = Images.WHITE;
 
             // otherwise if validation is enabled, and the number is correct..
-         } else if (numbers.validate(i)) {
-            g.drawImage(images.getNumberImage("green", number), x, y, this);
+         } else if (numbers.isCorrect(i)) {
+            type = Images.GREEN;
 
             // otherwise if the numbers is incorrect.
          } else {
-            g.drawImage(images.getNumberImage("red", number), x, y, this);
+            type = Images.RED;
          }
+         renderer.paintSquare(g, x, y, number, type, 0);
       }
 
       // paint the selector square if the game is in progress.
@@ -268,6 +453,13 @@ public class GamePanel extends JPanel implements ActionListener {
       } else if (showFinishedDialog) {
          g.drawImage(images.getImage("game-finished"), 54, 154, this);
       }
+
+      // the inputs that led to this paint are now visible.
+      latency.painted();
+      latency.paintOverlay(g);
+      frame.panel = "game";
+      frame.cellsDrawn = drawn;
+      frame.commit();
    }
 
    /**
@@ -276,7 +468,10 @@ public class GamePanel extends JPanel implements ActionListener {
     * @param e ActionEvent parameter.
     */
    public void actionPerformed(ActionEvent e) {
-      showHelpDialog = false;
+      if (showHelpDialog) {
+         showHelpDialog = false;
+         markPanel();
+      }
       String command = e.getActionCommand();
 
       if ("new".equals(command)) {
@@ -292,11 +487,11 @@ public class GamePanel extends JPanel implements ActionListener {
       } else if ("solve".equals(command)) {
          solveGame();
       } else if ("validate".equals(command)) {
-         validateState = !validateState;
+         toggleValidation();
       } else if ("exit".equals(command)) {
          Sudoku.setCard("Card with Menu");
       }
-      repaint();
+      repaintDirty();
    }
 
    /**
@@ -317,24 +512,33 @@ public class GamePanel extends JPanel implements ActionListener {
        */
       @Override
       public void keyPressed(KeyEvent e) {
+          if (e.getKeyCode() == KeyEvent.VK_F12) {
+             latency.toggleOverlay(GamePanel.this);
+             return;
+          }
+          latency.inputReceived(e);
           if (showFinishedDialog || showHelpDialog) {
             showFinishedDialog = false;
             showHelpDialog = false;
             repaint();
             return;
           }
+          // the selector may move, so its old square has to be repainted.
+          markSelector();
 
           int key = e.getKeyCode();
-          Map<Integer, Integer> numberKeys = Algorithms.getNumberKeys();
+          int number = Algorithms.getKeyNumber(key);
 
           // if the key that was pressed was a number..
-          if (numberKeys.containsKey(key)) {
+          if (number != -1) {
             if (e.isControlDown() || e.isMetaDown() || e.isAltDown()) {
-               toggleMini(numberKeys.get(key));
+               toggleMini(number);
             } else {
-               inputNumber(numberKeys.get(key));
+               inputNumber(number);
+            }
+            if (!repaintDirty()) {
+               latency.inputIgnored();
             }
-            repaint();
             return;
          }
 
@@ -342,6 +546,8 @@ public class GamePanel extends JPanel implements ActionListener {
             newGame();
          } else if (key == KeyEvent.VK_R) {
             restartGame();
+         } else if (key == KeyEvent.VK_H && e.isShiftDown()) {
+            showNextStep();
          } else if (key == KeyEvent.VK_H) {
             help();
          } else if (key == KeyEvent.VK_D) {
@@ -349,8 +555,10 @@ public class GamePanel extends JPanel implements ActionListener {
          } else if (key == KeyEvent.VK_S) {
             solveGame();
          } else if (key == KeyEvent.VK_C || key == KeyEvent.VK_ENTER) {
-            validateState = !validateState;
+            toggleValidation();
          } else if (key == KeyEvent.VK_ESCAPE) {
+            // this panel is hidden, so it won't be painted.
+            latency.inputIgnored();
             Sudoku.setCard("Card with Menu");
          } else if (key == KeyEvent.VK_UP && (squareY > 0 && squareY < 11)) {
             squareY += (squareY == 1) ? 8 : -1;
@@ -367,7 +575,10 @@ public class GamePanel extends JPanel implements ActionListener {
                inputNumber(0);
             }
          }
-         repaint();
+         markSelector();
+         if (!repaintDirty()) {
+            latency.inputIgnored();
+         }
       }
    }
 
@@ -386,6 +597,7 @@ public class GamePanel extends JPanel implements ActionListener {
        */
       @Override
       public void mouseClicked(MouseEvent e) {
+         latency.inputReceived(e);
          if (showFinishedDialog || showHelpDialog) {
             showFinishedDialog = false;
             showHelpDialog = false;
@@ -397,11 +609,16 @@ public class GamePanel extends JPanel implements ActionListener {
             int y = Algorithms.getSquare(e.getY());
 
             if (x != 0 && y != 0) {
+               markSelector();
                squareX = x;
                squareY = y;
+               markSelector();
+            }
+            if (repaintDirty()) {
+               return;
             }
-            repaint();
          }
+         latency.inputIgnored();
       }
    }
 }
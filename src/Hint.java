@@ -0,0 +1,180 @@
+/* File: Hint.java  -  April 2011 */
+package sudoku;
+
+/**
+ * The next logical step for a grid, found without running a full solve.
+ *
+ * Uses candidate bit masks for each row, column and 3 by 3 section to find the
+ * empty square with the fewest candidates, then checks which technique places
+ * a number:<ul>
+ * <li><strong>Naked single</strong> - a square with only one candidate.</li>
+ * <li><strong>Hidden single</strong> - a number that fits in only one square
+ *     of a row, column or 3 by 3 section.</li></ul>
+ *
+ * @author Rudi Theunissen
+ */
+public class Hint {
+
+   /** The techniques that a hint can be solved with. */
+   public enum Technique {
+      /** The square has exactly one candidate. */
+      NAKED_SINGLE,
+      /** The number can only go in this square within a unit. */
+      HIDDEN_SINGLE,
+      /** No single applies - the square with the fewest candidates. */
+      NEEDS_SEARCH,
+      /** The square has no candidates, so a number on the grid is wrong. */
+      NO_CANDIDATES
+   }
+
+   /** Mask with a bit set for each of the numbers 1 to 9. */
+   private static final int ALL_CANDIDATES = 0x3fe;
+
+   /** The array index of the square (0 to 80). */
+   private int index;
+   /** The number that belongs in the square, or 0 if it isn't known. */
+   private int value;
+   /** The amount of candidates the square has. */
+   private int candidates;
+   /** The technique that solves the square. */
+   private Technique technique;
+
+   /**
+    * Constructor - creates a hint.
+    *
+    * @param index the array index of the square.
+    * @param value the number for the square, or 0.
+    * @param candidates the amount of candidates the square has.
+    * @param technique the technique that solves the square.
+    */
+   private Hint(int index, int value, int candidates, Technique technique) {
+      this.index = index;
+      this.value = value;
+      this.candidates = candidates;
+      this.technique = technique;
+   }
+
+   /**
+    * Finds the next logical step for a grid.
+    *
+    * @param grid the 81 values of the grid, 0 for an empty square.
+    * @return the next step, or null if there are no empty squares.
+    */
+   public static Hint nextLogicalStep(int[] grid) {
+      int[] rows = new int[9];
+      int[] cols = new int[9];
+      int[] boxes = new int[9];
+
+      for (int i = 0; i < 81; i++) {
+         if (grid[i] != 0) {
+            int bit = 1 << grid[i];
+            rows[i / 9] |= bit;
+            cols[i % 9] |= bit;
+            boxes[Algorithms.getBox(i)] |= bit;
+         }
+      }
+
+      // find the square with the fewest candidates..
+      int[] masks = new int[81];
+      int best = -1;
+      int bestCount = 10;
+      for (int i = 0; i < 81; i++) {
+         if (grid[i] != 0) {
+            continue;
+         }
+         masks[i] = ALL_CANDIDATES & ~(rows[i / 9] | cols[i % 9]
+                 | boxes[Algorithms.getBox(i)]);
+         int count = Integer.bitCount(masks[i]);
+         if (count < bestCount) {
+            best = i;
+            bestCount = count;
+         }
+      }
+
+      if (best == -1) {
+         return null;
+      } else if (bestCount == 0) {
+         return new Hint(best, 0, 0, Technique.NO_CANDIDATES);
+      } else if (bestCount == 1) {
+         int value = Integer.numberOfTrailingZeros(masks[best]);
+         return new Hint(best, value, 1, Technique.NAKED_SINGLE);
+      }
+
+      // otherwise look for a number that fits in only one square of a unit.
+      Hint hidden = null;
+      for (int unit = 0; unit < Algorithms.UNIT_COUNT; unit++) {
+         for (int number = 1; number < 10; number++) {
+            int square = getOnlySquare(masks, unit, 1 << number);
+            if (square != -1) {
+               int count = Integer.bitCount(masks[square]);
+               if (hidden == null || count < hidden.candidates) {
+                  hidden = new Hint(square, number, count,
+                          Technique.HIDDEN_SINGLE);
+               }
+            }
+         }
+      }
+      if (hidden != null) {
+         return hidden;
+      }
+      return new Hint(best, 0, bestCount, Technique.NEEDS_SEARCH);
+   }
+
+   /**
+    * Returns the only square of a unit that has a particular candidate.
+    *
+    * @param masks the candidate masks of each square.
+    * @param unit the unit to search, see {@link Algorithms#getUnitSquare}.
+    * @param bit the candidate bit.
+    * @return the array index of the square, or -1 if there isn't exactly one.
+    */
+   private static int getOnlySquare(int[] masks, int unit, int bit) {
+      int found = -1;
+      for (int k = 0; k < 9; k++) {
+         int i = Algorithms.getUnitSquare(unit, k);
+         if ((masks[i] & bit) != 0) {
+            if (found != -1) {
+               return -1;
+            }
+            found = i;
+         }
+      }
+      return found;
+   }
+
+   /**
+    * Returns the array index of the square.
+    *
+    * @return the array index of the square (0 to 80).
+    */
+   public int getIndex() {
+      return index;
+   }
+
+   /**
+    * Returns the number that belongs in the square.
+    *
+    * @return the number, or 0 if the technique doesn't place one.
+    */
+   public int getValue() {
+      return value;
+   }
+
+   /**
+    * Returns the amount of candidates the square has.
+    *
+    * @return the amount of candidates the square has.
+    */
+   public int getCandidates() {
+      return candidates;
+   }
+
+   /**
+    * Returns the technique that solves the square.
+    *
+    * @return the technique that solves the square.
+    */
+   public Technique getTechnique() {
+      return technique;
+   }
+}
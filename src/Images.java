@@ -2,119 +2,196 @@
 package sudoku;
 
 import java.awt.Image;
-import java.awt.Toolkit;
-import java.net.URL;
-import java.util.ArrayList;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.Scanner;
+import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 
 /**
  * Utility class that loads and stores all the images that are used in the app.
  *
+ * All the images are loaded once, from a sprite sheet that is packed at build
+ * time by {@link SpriteSheetBuilder}, and are decoded eagerly - so the first
+ * paint never shows a half-loaded image. The single shared instance is
+ * accessed using {@link Images#getInstance()}.
+ *
  * @author Rudi Theunissen
  */
 public class Images {
 
+   /** The relative path to the image resources. */
+   public static final String IMAGE_DIRECTORY = "resources/images/";
+   /** Number image type - the white numbers that are entered on the grid. */
+   public static final int WHITE = 0;
+   /** Number image type - the small possibility numbers. */
+   public static final int MINI = 1;
+   /** Number image type - the green numbers shown when validation is on. */
+   public static final int GREEN = 2;
+   /** Number image type - the red numbers shown when validation is on. */
+   public static final int RED = 3;
+
    /** An array that contains all the number images - white, mini, green, red.*/
-   public Image[] numberImages;
+   private Image[] numberImages;
    /** Maps a filename to an image. */
-   public HashMap<String, Image> imageMap;
-   /** Maps a number type (white, mini, green red) to an array index value. */
-   public HashMap<String, Integer> numberImageMap;
+   private HashMap<String, Image> imageMap;
+   /** Maps a filename to an icon, so each icon is only created once. */
+   private HashMap<String, ImageIcon> iconMap;
+
+   /**
+    * Holds the shared instance, which is loaded the first time it's used.
+    */
+   private static class Holder {
+
+      /** The shared instance. */
+      private static final Images INSTANCE = new Images();
+   }
+
+   /**
+    * Private Constructor - loads and decodes all the images.
+    */
+   private Images() {
+      imageMap = new HashMap<String, Image>();
+      iconMap = new HashMap<String, ImageIcon>();
+      if (!loadSpriteSheet()) {
+         loadImageFiles();
+      }
+      loadNumberPictures();
+   }
+
+   /**
+    * Returns the shared instance, loading all the images the first time.
+    *
+    * @return the shared instance.
+    */
+   public static Images getInstance() {
+      return Holder.INSTANCE;
+   }
 
    /**
-    * Default Constructor - sets an instance up for image loading.
+    * Loads every image out of the sprite sheet.
     *
-    * @param loadGameImages whether or not to load the number images.
+    * @return false if there is no sprite sheet, such as when running from the
+    *         source directory without building.
     */
-   public Images(boolean loadGameImages) {
-      if (loadGameImages) {
-         loadNumberPictures();
+   private boolean loadSpriteSheet() {
+      InputStream indexStream = getResourceStream("sprites.txt");
+      if (indexStream == null) {
+         return false;
       }
-      loadImages();
+      BufferedImage sheet = readImage("sprites.png");
+      Scanner index = new Scanner(indexStream, "UTF-8");
+      try {
+         while (index.hasNext()) {
+            String name = index.next();
+            int x = index.nextInt();
+            int y = index.nextInt();
+            int width = index.nextInt();
+            int height = index.nextInt();
+            imageMap.put(name, sheet.getSubimage(x, y, width, height));
+         }
+      } finally {
+         index.close();
+      }
+      return true;
    }
 
    /**
-    * Loads all the non-number images into maps and arrays.
+    * Loads every image from its own GIF file.
     */
-   private void loadImages() {
+   private void loadImageFiles() {
       String[] names = new String[]{"sudoku-grid", "selector", "instructions",
-         "button-summary", "help-exceeded", "game-finished", "invalid-solve"};
-
-      ArrayList<Image> images = new ArrayList<Image>();
-      imageMap = new HashMap<String, Image>();
+         "button-summary", "help-exceeded", "game-finished", "invalid-solve",
+         "clear-confirm", "newGame-button", "newSolver-button", "help-button",
+         "solve-button", "validate-button", "clearminis-button",
+         "restart-button", "exitGame-button", "exitButton-button",
+         "game-button", "solver-button", "instr-button", "solver-solve-button",
+         "0-diff-button", "1-diff-button", "2-diff-button", "3-diff-button"};
 
-      for (int i = 0; i < names.length; i++) {
-         Image current = getResourceImage(names[i]);
-         do {
-            images.add(current);
-         } while (current == null);
-         imageMap.put(names[i], images.get(i));
+      for (String name : names) {
+         imageMap.put(name, readImage(name + ".gif"));
+      }
+      for (int i = 1; i < 10; i++) {
+         imageMap.put(i + "", readImage(i + ".gif"));
+         imageMap.put(i + "-mini", readImage(i + "-mini.gif"));
+         imageMap.put(i + "-green", readImage(i + "-green.gif"));
+         imageMap.put(i + "-red", readImage(i + "-red.gif"));
       }
    }
 
    /**
-    * Loads the number images into maps and arrays.
+    * Puts the number images into an array, so they can be looked up by index.
     */
    private void loadNumberPictures() {
-      numberImageMap = new HashMap<String, Integer>();
-      numberImageMap.put("white", 0);
-      numberImageMap.put("mini", 9);
-      numberImageMap.put("green", 18);
-      numberImageMap.put("red", 27);
-
-      // loads all the number images into the array.
       numberImages = new Image[36];
       for (int i = 1; i < 10; i++) {
-         numberImages[i - 1] = getResourceImage(i + "");
-         numberImages[i + 8] = getResourceImage(i + "-mini");
-         numberImages[i + 17] = getResourceImage(i + "-green");
-         numberImages[i + 26] = getResourceImage(i + "-red");
+         numberImages[i - 1] = getImage(i + "");
+         numberImages[i + 8] = getImage(i + "-mini");
+         numberImages[i + 17] = getImage(i + "-green");
+         numberImages[i + 26] = getImage(i + "-red");
       }
    }
 
    /**
-    * Loads and returns an {@link ImageIcon} resource.
+    * Opens an image resource as a stream.
     *
-    * Reduces code clutter when loading image icon resources.
-    *
-    * @param fileName The path of the image resource.
-    * @return ImageIcon for a JButton's constructor parameter.
+    * @param fileName name of the image resource.
+    * @return the stream, or null if there is no such resource.
     */
-   public ImageIcon getImageIcon(String fileName) {
-      String imageDirectory = Sudoku.IMAGE_DIRECTORY;
-      URL imgURL = getClass().getResource(imageDirectory + fileName + ".gif");
-      Image image = Toolkit.getDefaultToolkit().getImage(imgURL);
-      ImageIcon imageIcon = new ImageIcon(image);
-      return imageIcon;
+   private InputStream getResourceStream(String fileName) {
+      return getClass().getResourceAsStream(IMAGE_DIRECTORY + fileName);
    }
 
    /**
-    * Loads and returns an {@link Image} resource.
-    *
-    * Reduces code clutter when loading an image resource from a file.
+    * Reads and decodes an image resource.
     *
     * @param fileName name of the image resource.
-    * @return Image as resource.
+    * @return the decoded image.
+    * @throws IllegalStateException if the image is missing or can't be read.
     */
-   private Image getResourceImage(String fileName) {
-      String imageDirectory = Sudoku.IMAGE_DIRECTORY;
-      URL imgURL = getClass().getResource(imageDirectory + fileName + ".gif");
-      Image image = Toolkit.getDefaultToolkit().getImage(imgURL);
-      return image;
+   private BufferedImage readImage(String fileName) {
+      InputStream stream = getResourceStream(fileName);
+      if (stream == null) {
+         throw new IllegalStateException("Missing image: " + fileName);
+      }
+      try {
+         BufferedImage image = ImageIO.read(stream);
+         if (image == null) {
+            throw new IllegalStateException("Unreadable image: " + fileName);
+         }
+         return image;
+      } catch (IOException ex) {
+         throw new IllegalStateException("Unreadable image: " + fileName, ex);
+      }
    }
 
    /**
-    * Loads and returns a number {@link Image} resource.
+    * Returns an {@link ImageIcon} for an image, creating it only once.
     *
-    * Reduces code clutter when loading a number image resource from a class.
+    * @param fileName The name of the image.
+    * @return ImageIcon for a JButton's constructor parameter.
+    */
+   public synchronized ImageIcon getImageIcon(String fileName) {
+      ImageIcon imageIcon = iconMap.get(fileName);
+      if (imageIcon == null) {
+         imageIcon = new ImageIcon(getImage(fileName));
+         iconMap.put(fileName, imageIcon);
+      }
+      return imageIcon;
+   }
+
+   /**
+    * Returns a number {@link Image} by array index, without a map lookup.
     *
-    * @param type specifies what type of number image - white, mini, green, red.
-    * @param numberImage The position (from 0 - 80) in the game array.
-    * @return Image as resource.
+    * @param type the number image type - {@link Images#WHITE},
+    *             {@link Images#MINI}, {@link Images#GREEN}, {@link Images#RED}.
+    * @param number the number (1 to 9).
+    * @return the number image.
     */
-   public Image getNumberImage(String type, int numberImage) {
-      return numberImages[numberImage + numberImageMap.get(type) - 1];
+   public Image getNumberImage(int type, int number) {
+      return numberImages[type * 9 + number - 1];
    }
 
    /**
@@ -122,17 +199,13 @@ public class Images {
     *
     * @param type specifies which image is being requested.
     * @return Image as resource.
+    * @throws IllegalStateException if there is no such image.
     */
    public Image getImage(String type) {
-      return imageMap.get(type);
-   }
-
-   /**
-    * Returns the array that contains all the number images.
-
-    * @return the array that contains all the number images.
-    */
-   public Image[] getNumberImagesArray() {
-      return numberImages;
+      Image image = imageMap.get(type);
+      if (image == null) {
+         throw new IllegalStateException("Missing image: " + type);
+      }
+      return image;
    }
 }
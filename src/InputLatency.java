@@ -0,0 +1,292 @@
+/* File: InputLatency.java  -  April 2011 */
+package sudoku;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.event.InputEvent;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JComponent;
+
+/**
+ * Measures the time from a key press or mouse click to the end of the paint
+ * that shows it.
+ *
+ * A panel calls {@link InputLatency#inputReceived(InputEvent)} when an event
+ * arrives, and {@link InputLatency#painted()} at the end of
+ * <em>paintComponent</em>. Every event that was waiting for that paint is then
+ * recorded in a histogram. The time an event spent in the event queue is
+ * counted as well, using {@link InputEvent#getWhen()}.
+ * <br><br>
+ * The histogram has 16 buckets for each power of two microseconds, which keeps
+ * each bucket within about 6% of the times in it. Recording only writes to
+ * arrays that are created with the histogram, so nothing is allocated for
+ * each event.
+ * <br><br>
+ * The histogram can be shown over the panel with F12, and every histogram is
+ * written to <em>latency.txt</em> in the save directory when the app exits,
+ * see {@link InputLatency#dumpAll(File)}.
+ *
+ * @author Rudi Theunissen
+ */
+public final class InputLatency {
+
+   /** The amount of buckets below 16 microseconds, one for each microsecond. */
+   private static final int LINEAR_BUCKETS = 16;
+   /** The amount of buckets, enough for times up to about a minute. */
+   private static final int BUCKETS = 384;
+   /** The amount of events that can wait for a single paint. */
+   private static final int MAX_PENDING = 64;
+   /** Events that waited longer than this in the queue, in ms, are clamped. */
+   private static final long MAX_QUEUE_DELAY = 10000;
+
+   /** Bounds of the overlay that shows the histogram. */
+   private static final int OVERLAY_X = 6, OVERLAY_Y = 6,
+           OVERLAY_WIDTH = 170, OVERLAY_HEIGHT = 80;
+
+   /** Every histogram that has been created, dumped when the app exits. */
+   private static final List<InputLatency> ALL = new ArrayList<InputLatency>();
+
+   /** The name of the panel that is measured. */
+   private final String name;
+   /** The amount of events in each bucket. */
+   private final long[] buckets;
+   /** The times that the events waiting for a paint arrived, in nanoseconds. */
+   private final long[] pending;
+   /** The amount of events waiting for a paint. */
+   private int pendingCount;
+   /** The amount of events recorded. */
+   private long count;
+   /** The total latency of all recorded events, in microseconds. */
+   private long total;
+   /** The highest latency recorded, in microseconds. */
+   private long max;
+   /** True if the overlay should be painted. */
+   private boolean overlayShown;
+
+   /**
+    * Constructor - creates an empty histogram for a panel.
+    *
+    * @param name the name of the panel, used in the dump file.
+    */
+   public InputLatency(String name) {
+      this.name = name;
+      buckets = new long[BUCKETS];
+      pending = new long[MAX_PENDING];
+      synchronized (ALL) {
+         ALL.add(this);
+      }
+   }
+
+   /**
+    * Marks an event as waiting to be painted.
+    *
+    * @param e the key or mouse event.
+    */
+   public synchronized void inputReceived(InputEvent e) {
+      long waited = System.currentTimeMillis() - e.getWhen();
+      if (waited < 0 || waited > MAX_QUEUE_DELAY) {
+         waited = 0;
+      }
+      // if too many events are waiting, the oldest ones are kept.
+      if (pendingCount < MAX_PENDING) {
+         pending[pendingCount++] = System.nanoTime() - waited * 1000000L;
+      }
+   }
+
+   /**
+    * Forgets the last event, for events that didn't change anything and so
+    * won't be painted.
+    */
+   public synchronized void inputIgnored() {
+      if (pendingCount > 0) {
+         pendingCount--;
+      }
+   }
+
+   /**
+    * Records the latency of every event that was waiting for this paint.
+    */
+   public synchronized void painted() {
+      if (pendingCount == 0) {
+         return;
+      }
+      long now = System.nanoTime();
+      for (int i = 0; i < pendingCount; i++) {
+         long micros = (now - pending[i]) / 1000;
+         buckets[getBucket(micros)]++;
+         count++;
+         total += micros;
+         if (micros > max) {
+            max = micros;
+         }
+      }
+      pendingCount = 0;
+   }
+
+   /**
+    * Returns the bucket that a latency belongs to.
+    *
+    * @param micros the latency in microseconds.
+    * @return the index of the bucket.
+    */
+   private static int getBucket(long micros) {
+      if (micros < LINEAR_BUCKETS) {
+         return (int) Math.max(micros, 0);
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(micros);
+      int sub = (int) (micros >>> (exponent - 4)) & 15;
+      return Math.min((exponent - 3) * 16 + sub, BUCKETS - 1);
+   }
+
+   /**
+    * Returns the lowest latency that belongs to a bucket.
+    *
+    * @param bucket the index of the bucket.
+    * @return the lowest latency in microseconds.
+    */
+   private static long getLowerBound(int bucket) {
+      if (bucket < LINEAR_BUCKETS) {
+         return bucket;
+      }
+      int exponent = bucket / 16 + 3;
+      return (long) (16 + bucket % 16) << (exponent - 4);
+   }
+
+   /**
+    * Returns the lowest latency of the next bucket.
+    *
+    * @param bucket the index of the bucket.
+    * @return the lowest latency that is too high for the bucket.
+    */
+   private static long getUpperBound(int bucket) {
+      if (bucket < LINEAR_BUCKETS) {
+         return bucket + 1;
+      }
+      return getLowerBound(bucket) + (1L << (bucket / 16 - 1));
+   }
+
+   /**
+    * Returns a percentile of the recorded latencies.
+    *
+    * @param fraction the percentile, between 0 and 1.
+    * @return the upper bound of the bucket containing the percentile, in
+    *         microseconds, or 0 if nothing has been recorded.
+    */
+   public synchronized long getPercentile(double fraction) {
+      long target = (long) Math.ceil(fraction * count);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         seen += buckets[i];
+         if (seen > 0 && seen >= target) {
+            return Math.min(getUpperBound(i), max);
+         }
+      }
+      return 0;
+   }
+
+   /**
+    * Shows or hides the overlay.
+    *
+    * @param panel the panel that the overlay is painted on.
+    */
+   public void toggleOverlay(JComponent panel) {
+      overlayShown = !overlayShown;
+      panel.repaint(OVERLAY_X, OVERLAY_Y, OVERLAY_WIDTH, OVERLAY_HEIGHT);
+   }
+
+   /**
+    * Repaints the overlay if it is shown, so that it stays up to date.
+    *
+    * @param panel the panel that the overlay is painted on.
+    */
+   public void repaintOverlay(JComponent panel) {
+      if (overlayShown) {
+         panel.repaint(OVERLAY_X, OVERLAY_Y, OVERLAY_WIDTH, OVERLAY_HEIGHT);
+      }
+   }
+
+   /**
+    * Paints a summary of the histogram in the corner of the panel, if the
+    * overlay is shown.
+    *
+    * @param g Graphics parameter.
+    */
+   public void paintOverlay(Graphics g) {
+      if (!overlayShown) {
+         return;
+      }
+      g.setColor(new Color(0, 0, 0, 190));
+      g.fillRect(OVERLAY_X, OVERLAY_Y, OVERLAY_WIDTH, OVERLAY_HEIGHT);
+      g.setColor(Color.WHITE);
+      int x = OVERLAY_X + 8;
+      int y = OVERLAY_Y + 16;
+      synchronized (this) {
+         g.drawString(name + " input to paint, " + count + " events", x, y);
+         g.drawString(String.format("p50 %7.2f ms  p90 %7.2f ms",
+                 getPercentile(0.5) / 1e3, getPercentile(0.9) / 1e3), x, y + 20);
+         g.drawString(String.format("p99 %7.2f ms  max %6.2f ms",
+                 getPercentile(0.99) / 1e3, max / 1e3), x, y + 40);
+         g.drawString(String.format("mean %6.2f ms",
+                 (count == 0) ? 0 : total / 1e3 / count), x, y + 60);
+      }
+   }
+
+   /**
+    * Writes the summary and the non-empty buckets of the histogram.
+    *
+    * @param out the writer to write to.
+    */
+   private synchronized void dump(PrintWriter out) {
+      out.printf("[%s] events %d, mean %.3f ms, p50 %.3f ms, p90 %.3f ms, "
+              + "p99 %.3f ms, max %.3f ms%n", name, count,
+              (count == 0) ? 0 : total / 1e3 / count, getPercentile(0.5) / 1e3,
+              getPercentile(0.9) / 1e3, getPercentile(0.99) / 1e3, max / 1e3);
+      out.println("from_us\tto_us\tcount");
+      for (int i = 0; i < BUCKETS; i++) {
+         if (buckets[i] != 0) {
+            out.println(getLowerBound(i) + "\t" + getUpperBound(i) + "\t"
+                    + buckets[i]);
+         }
+      }
+      out.println();
+   }
+
+   /**
+    * Writes every histogram that has recorded an event to a file.
+    *
+    * @param file the file to write, replaced if it exists.
+    */
+   public static void dumpAll(File file) {
+      List<InputLatency> recorded = new ArrayList<InputLatency>();
+      synchronized (ALL) {
+         for (InputLatency latency : ALL) {
+            synchronized (latency) {
+               if (latency.count > 0) {
+                  recorded.add(latency);
+               }
+            }
+         }
+      }
+      if (recorded.isEmpty()) {
+         return;
+      }
+      file.getParentFile().mkdirs();
+      try {
+         PrintWriter out = new PrintWriter(new FileWriter(file));
+         try {
+            for (InputLatency latency : recorded) {
+               latency.dump(out);
+            }
+         } finally {
+            out.close();
+         }
+      } catch (IOException ex) {
+         System.err.println(ex);
+      }
+   }
+}
@@ -24,7 +24,7 @@ public class Instructions extends JPanel {
     */
    public Instructions(String page) {
       this.page = page;
-      images = new Images(false);
+      images = Images.getInstance();
       this.setPreferredSize(new Dimension(541, 410));
       addKeyListener(new KeyboardAdapter());
       addMouseListener(new MouseClickAdapter());
@@ -0,0 +1,437 @@
+/* File: Journal.java  -  April 2011 */
+package sudoku;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe autosave journal for the moves made in {@link GameNumbers}.
+ *
+ * Every move is packed into a single int record and handed to a background
+ * writer thread, which commits everything that has queued up since its last
+ * write with one write and one fsync (group commit). The caller never touches
+ * the disk, so move throughput does not depend on disk latency.
+ * <br><br>
+ * The journal is periodically compacted into a snapshot of the full game
+ * state. Snapshots and journals carry a generation number, so a journal that
+ * was left behind by a crash during compaction is ignored on replay.
+ *
+ * @author Rudi Theunissen
+ */
+public class Journal {
+
+   /** Record type - a number was added or removed, see addNumber. */
+   public static final int ADD_NUMBER = 1;
+   /** Record type - a possibility was toggled. */
+   public static final int TOGGLE_MINI = 2;
+   /** Record type - a possibility was added. */
+   public static final int ADD_MINI = 3;
+   /** Record type - a single square was solved by a hint. */
+   public static final int SOLVE_NUMBER = 4;
+   /** Record type - the game was restarted. */
+   public static final int RESTART = 5;
+   /** Record type - the whole grid was solved. */
+   public static final int SOLVE_ALL = 6;
+   /** Record type - all the possibilities were cleared. */
+   public static final int CLEAR_MINIS = 7;
+   /** Number of records after which the journal should be compacted. */
+   public static final int COMPACT_INTERVAL = 256;
+
+   /** Magic number at the start of the journal file. */
+   private static final int JOURNAL_MAGIC = 0x53444b4a;
+   /** Magic number at the start of the snapshot file. */
+   private static final int SNAPSHOT_MAGIC = 0x53444b53;
+   /** Size of the journal file header - magic and generation. */
+   private static final int HEADER_SIZE = 12;
+
+   /** The journal file, containing the records since the last snapshot. */
+   private File journalFile;
+   /** The snapshot file, containing the compacted game state. */
+   private File snapshotFile;
+   /** Open channel to the journal file, used by the writer thread only. */
+   private FileChannel channel;
+   /** Generation of the current snapshot and journal. */
+   private long generation;
+   /** Records that have not yet been handed to the writer thread. */
+   private int[] pending;
+   /** Amount of records in the pending array. */
+   private int pendingCount;
+   /** A snapshot that has not yet been written, or null. */
+   private byte[] pendingSnapshot;
+   /** Amount of records appended since the last snapshot. */
+   private int recordsSinceSnapshot;
+   /** True once the journal has been closed or has failed. */
+   private boolean closed;
+   /** The background thread that writes and syncs the records. */
+   private Thread writer;
+
+   /**
+    * Constructor - sets up a journal in the given directory.
+    *
+    * Nothing is written until {@link Journal#start()} is called, so the
+    * previous session can be replayed first.
+    *
+    * @param directory the directory the journal and snapshot are kept in.
+    */
+   public Journal(File directory) {
+      journalFile = new File(directory, "session.journal");
+      snapshotFile = new File(directory, "session.snapshot");
+      pending = new int[64];
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+         System.err.println("Could not create " + directory);
+         closed = true;
+      }
+   }
+
+   /**
+    * Reads the last snapshot that was written.
+    *
+    * @return the snapshot state, or null if there is no valid snapshot.
+    */
+   public byte[] readSnapshot() {
+      if (!snapshotFile.isFile()) {
+         return null;
+      }
+      try {
+         ByteBuffer buffer = ByteBuffer.wrap(
+                 Files.readAllBytes(snapshotFile.toPath()));
+         if (buffer.remaining() < 20 || buffer.getInt() != SNAPSHOT_MAGIC) {
+            return null;
+         }
+         long snapshotGeneration = buffer.getLong();
+         int length = buffer.getInt();
+         if (length < 0 || length > buffer.remaining() - 8) {
+            return null;
+         }
+         byte[] state = new byte[length];
+         buffer.get(state);
+
+         CRC32 crc = new CRC32();
+         crc.update(state);
+         if (buffer.getLong() != crc.getValue()) {
+            return null;
+         }
+         generation = snapshotGeneration;
+         return state;
+      } catch (IOException ex) {
+         System.err.println(ex);
+         return null;
+      }
+   }
+
+   /**
+    * Reads the records that were written since the last snapshot.
+    *
+    * Must be called after {@link Journal#readSnapshot()}. Records from another
+    * generation, and any record that was torn by a crash, are dropped.
+    *
+    * @return the valid records, in the order they were appended.
+    */
+   public int[] readRecords() {
+      if (!journalFile.isFile()) {
+         return new int[0];
+      }
+      try {
+         ByteBuffer buffer = ByteBuffer.wrap(
+                 Files.readAllBytes(journalFile.toPath()));
+         if (buffer.remaining() < HEADER_SIZE
+                 || buffer.getInt() != JOURNAL_MAGIC
+                 || buffer.getLong() != generation) {
+            return new int[0];
+         }
+         int[] records = new int[buffer.remaining() / 4];
+         int count = 0;
+         while (buffer.remaining() >= 4) {
+            int record = buffer.getInt();
+            if (!isValid(record)) {
+               break;
+            }
+            records[count++] = record;
+         }
+         int[] valid = new int[count];
+         System.arraycopy(records, 0, valid, 0, count);
+         return valid;
+      } catch (IOException ex) {
+         System.err.println(ex);
+         return new int[0];
+      }
+   }
+
+   /**
+    * Starts the writer thread, after which records may be appended.
+    */
+   public synchronized void start() {
+      if (closed || writer != null) {
+         return;
+      }
+      writer = new Thread("Sudoku journal writer") {
+         @Override
+         public void run() {
+            writeLoop();
+         }
+      };
+      writer.setDaemon(true);
+      writer.start();
+   }
+
+   /**
+    * Appends a record for a single move. Never blocks on the disk.
+    *
+    * @param type the record type, such as {@link Journal#ADD_NUMBER}.
+    * @param index the array index of the square (0 to 80).
+    * @param value the number involved in the move.
+    * @return true if the journal is due to be compacted into a snapshot.
+    */
+   public synchronized boolean append(int type, int index, int value) {
+      if (closed) {
+         return false;
+      }
+      if (pendingCount == pending.length) {
+         int[] larger = new int[pending.length * 2];
+         System.arraycopy(pending, 0, larger, 0, pendingCount);
+         pending = larger;
+      }
+      pending[pendingCount++] = pack(type, index, value);
+      notifyAll();
+      return ++recordsSinceSnapshot >= COMPACT_INTERVAL;
+   }
+
+   /**
+    * Replaces everything that was journaled so far with a snapshot.
+    *
+    * @param state the full game state, see {@link GameNumbers#captureState()}.
+    */
+   public synchronized void snapshot(byte[] state) {
+      if (closed) {
+         return;
+      }
+      // the snapshot covers every record that is still waiting to be written.
+      pendingCount = 0;
+      pendingSnapshot = state;
+      recordsSinceSnapshot = 0;
+      notifyAll();
+   }
+
+   /**
+    * Writes anything that is still pending and stops the writer thread.
+    */
+   public void close() {
+      Thread thread;
+      synchronized (this) {
+         closed = true;
+         notifyAll();
+         thread = writer;
+      }
+      if (thread != null) {
+         try {
+            thread.join(2000);
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * Waits for pending records, then writes and syncs them as one batch.
+    */
+   private void writeLoop() {
+      int[] batch = new int[64];
+      ByteBuffer buffer = ByteBuffer.allocate(batch.length * 4);
+
+      try {
+         openJournal();
+         while (true) {
+            int count;
+            byte[] state;
+            synchronized (this) {
+               while (pendingCount == 0 && pendingSnapshot == null && !closed) {
+                  wait();
+               }
+               if (pendingCount == 0 && pendingSnapshot == null) {
+                  break;
+               }
+               // swap buffers, so appends can continue while this one writes.
+               int[] swap = pending;
+               pending = batch;
+               batch = swap;
+               count = pendingCount;
+               pendingCount = 0;
+               state = pendingSnapshot;
+               pendingSnapshot = null;
+            }
+            if (state != null) {
+               compact(state);
+            }
+            if (count > 0) {
+               if (buffer.capacity() < count * 4) {
+                  buffer = ByteBuffer.allocate(batch.length * 4);
+               }
+               buffer.clear();
+               for (int i = 0; i < count; i++) {
+                  buffer.putInt(batch[i]);
+               }
+               buffer.flip();
+               while (buffer.hasRemaining()) {
+                  channel.write(buffer);
+               }
+               channel.force(false);
+            }
+         }
+      } catch (IOException ex) {
+         System.err.println(ex);
+      } catch (InterruptedException ex) {
+         System.err.println("Journal writer was interrupted.");
+      } finally {
+         synchronized (this) {
+            closed = true;
+         }
+         closeChannel();
+      }
+   }
+
+   /**
+    * Opens the journal for appending, keeping the records of its generation.
+    */
+   private void openJournal() throws IOException {
+      channel = new RandomAccessFile(journalFile, "rw").getChannel();
+      int[] existing = readRecords();
+      if (existing.length == 0) {
+         resetJournal();
+      } else {
+         channel.position(HEADER_SIZE + existing.length * 4L);
+         channel.truncate(channel.position());
+      }
+   }
+
+   /**
+    * Writes a new snapshot generation and starts an empty journal for it.
+    *
+    * The snapshot is written to a temporary file and moved into place, so a
+    * crash leaves either the old or the new snapshot, never a torn one.
+    *
+    * @param state the state to be written.
+    */
+   private void compact(byte[] state) throws IOException {
+      generation++;
+
+      CRC32 crc = new CRC32();
+      crc.update(state);
+      ByteBuffer buffer = ByteBuffer.allocate(state.length + 24);
+      buffer.putInt(SNAPSHOT_MAGIC);
+      buffer.putLong(generation);
+      buffer.putInt(state.length);
+      buffer.put(state);
+      buffer.putLong(crc.getValue());
+      buffer.flip();
+
+      File temporary = new File(snapshotFile.getPath() + ".tmp");
+      FileChannel out = new RandomAccessFile(temporary, "rw").getChannel();
+      try {
+         out.truncate(0);
+         while (buffer.hasRemaining()) {
+            out.write(buffer);
+         }
+         out.force(true);
+      } finally {
+         out.close();
+      }
+      Files.move(temporary.toPath(), snapshotFile.toPath(),
+              StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+      resetJournal();
+   }
+
+   /**
+    * Truncates the journal and writes the header of the current generation.
+    */
+   private void resetJournal() throws IOException {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(JOURNAL_MAGIC);
+      header.putLong(generation);
+      header.flip();
+
+      channel.truncate(0);
+      channel.position(0);
+      while (header.hasRemaining()) {
+         channel.write(header);
+      }
+      channel.force(false);
+   }
+
+   /**
+    * Closes the journal channel, reporting but otherwise ignoring failures.
+    */
+   private void closeChannel() {
+      if (channel != null) {
+         try {
+            channel.close();
+         } catch (IOException ex) {
+            System.err.println(ex);
+         }
+      }
+   }
+
+   /**
+    * Packs a move into a record: type, index, value and a check byte.
+    *
+    * @param type the record type.
+    * @param index the array index of the square.
+    * @param value the number involved in the move.
+    * @return the packed record.
+    */
+   private static int pack(int type, int index, int value) {
+      int check = (type ^ index ^ value ^ 0x5a) & 0xff;
+      return (type << 24) | (index << 16) | (value << 8) | check;
+   }
+
+   /**
+    * Checks that a record was written completely and is within range.
+    *
+    * @param record the packed record.
+    * @return true if the record can be replayed.
+    */
+   private static boolean isValid(int record) {
+      int type = getType(record);
+      int index = getIndex(record);
+      int value = getValue(record);
+      return type >= ADD_NUMBER && type <= CLEAR_MINIS
+              && index < 81 && value < 10
+              && (record & 0xff) == ((type ^ index ^ value ^ 0x5a) & 0xff);
+   }
+
+   /**
+    * Returns the type of a record.
+    *
+    * @param record the packed record.
+    * @return the record type.
+    */
+   public static int getType(int record) {
+      return record >>> 24;
+   }
+
+   /**
+    * Returns the array index of a record.
+    *
+    * @param record the packed record.
+    * @return the array index of the square (0 to 80).
+    */
+   public static int getIndex(int record) {
+      return (record >>> 16) & 0xff;
+   }
+
+   /**
+    * Returns the number of a record.
+    *
+    * @param record the packed record.
+    * @return the number involved in the move.
+    */
+   public static int getValue(int record) {
+      return (record >>> 8) & 0xff;
+   }
+}
@@ -0,0 +1,135 @@
+/* File: LongPairSet.java  -  April 2011 */
+package sudoku;
+
+/**
+ * A set of 128 bit values, each stored as a pair of longs.
+ *
+ * The pairs are kept side by side in a single long array, using open
+ * addressing with linear probing, so the set needs 16 bytes for each slot and
+ * creates no objects as values are added. The array doubles once it is three
+ * quarters full. The pair (0, 0) marks an empty slot, so it is remembered
+ * with a flag of its own.
+ * <br><br>
+ * A set is not thread safe.
+ *
+ * @author Rudi Theunissen
+ */
+public final class LongPairSet {
+
+   /** The pairs, two longs to a slot. */
+   private long[] slots;
+   /** The amount of slots minus one, the slots being a power of two. */
+   private int mask;
+   /** The amount of pairs in the set. */
+   private long size;
+   /** True if (0, 0) is in the set. */
+   private boolean hasZero;
+
+   /**
+    * Constructor - creates a set big enough for a number of pairs before it
+    * has to grow.
+    *
+    * @param expected the expected amount of pairs.
+    */
+   public LongPairSet(int expected) {
+      int capacity = 16;
+      while (capacity * 3L / 4 < expected) {
+         capacity <<= 1;
+      }
+      slots = new long[capacity * 2];
+      mask = capacity - 1;
+   }
+
+   /**
+    * Adds a pair to the set.
+    *
+    * @param high the high long of the pair.
+    * @param low the low long of the pair.
+    * @return true if the pair wasn't already in the set.
+    */
+   public boolean add(long high, long low) {
+      if (high == 0 && low == 0) {
+         boolean added = !hasZero;
+         hasZero = true;
+         size += added ? 1 : 0;
+         return added;
+      }
+      int slot = find(slots, mask, high, low);
+      if (slots[2 * slot] == high && slots[2 * slot + 1] == low) {
+         return false;
+      }
+      slots[2 * slot] = high;
+      slots[2 * slot + 1] = low;
+      if (++size > (mask + 1L) * 3 / 4) {
+         grow();
+      }
+      return true;
+   }
+
+   /**
+    * Returns true if a pair is in the set.
+    *
+    * @param high the high long of the pair.
+    * @param low the low long of the pair.
+    * @return true if the pair is in the set.
+    */
+   public boolean contains(long high, long low) {
+      if (high == 0 && low == 0) {
+         return hasZero;
+      }
+      int slot = find(slots, mask, high, low);
+      return slots[2 * slot] == high && slots[2 * slot + 1] == low;
+   }
+
+   /**
+    * Returns the amount of pairs in the set.
+    *
+    * @return the amount of pairs.
+    */
+   public long size() {
+      return size;
+   }
+
+   /**
+    * Finds the slot of a pair, or the empty slot where it would go.
+    *
+    * @param slots the slots to search.
+    * @param mask the amount of slots minus one.
+    * @param high the high long of the pair.
+    * @param low the low long of the pair.
+    * @return the slot.
+    */
+   private static int find(long[] slots, int mask, long high, long low) {
+      long h = (high ^ (low * 0x9e3779b97f4a7c15L));
+      int slot = (int) (h ^ (h >>> 32)) & mask;
+      while ((slots[2 * slot] != 0 || slots[2 * slot + 1] != 0)
+              && (slots[2 * slot] != high || slots[2 * slot + 1] != low)) {
+         slot = (slot + 1) & mask;
+      }
+      return slot;
+   }
+
+   /**
+    * Doubles the amount of slots, moving every pair to its new slot.
+    *
+    * @throws IllegalStateException if the set can't grow any more.
+    */
+   private void grow() {
+      if (slots.length >= (1 << 30)) {
+         throw new IllegalStateException("The set is full.");
+      }
+      long[] grown = new long[slots.length * 2];
+      int grownMask = mask * 2 + 1;
+      for (int s = 0; s <= mask; s++) {
+         long high = slots[2 * s];
+         long low = slots[2 * s + 1];
+         if (high != 0 || low != 0) {
+            int slot = find(grown, grownMask, high, low);
+            grown[2 * slot] = high;
+            grown[2 * slot + 1] = low;
+         }
+      }
+      slots = grown;
+      mask = grownMask;
+   }
+}
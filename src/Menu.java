@@ -62,6 +62,7 @@ public class Menu extends JPanel implements ActionListener {
    public void paintComponent(Graphics g) {
       requestFocusInWindow();
       g.drawLine(510, 0, 510, 410);
+      StartupTimeline.firstFrame();
    }
 
    /**
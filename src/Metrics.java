@@ -0,0 +1,415 @@
+/* File: Metrics.java  -  April 2011 */
+package sudoku;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A registry of counters, gauges and timers of what the app is doing, such as
+ * how many games were started and how long the solver took.
+ *
+ * A class creates its metrics once, in static fields, with
+ * {@link Metrics#counter(String)}, {@link Metrics#timer(String)} and
+ * {@link Metrics#gauge(String, Metrics.Gauge)}, and records into them as it
+ * runs. Names are dotted, the first part being the subsystem, such as
+ * <em>game.newGame</em>. Recording is lock free: every count is a
+ * {@link LongAdder}, which spreads updates from different threads over
+ * separate cells, so recording on the event dispatch thread never waits for a
+ * background thread, and costs a few nanoseconds.
+ * <br><br>
+ * A timer keeps a histogram with 16 buckets for each power of two
+ * microseconds, as the input latency histograms of the UI do, which keeps
+ * each bucket within about 6% of the times in it, so its percentiles can be
+ * read at any time.
+ * <br><br>
+ * The registry only needs java.base. A {@link Metrics.Listener} is told about
+ * every metric, such as the one in the UI that exposes them as MBeans.
+ *
+ * @author Rudi Theunissen
+ */
+public final class Metrics {
+
+   /** The amount of buckets below 16 microseconds, one for each microsecond. */
+   private static final int LINEAR_BUCKETS = 16;
+   /** The amount of buckets, enough for times up to about a minute. */
+   private static final int BUCKETS = 384;
+
+   /** Every metric that has been created, in order. */
+   private static final List<Metric> ALL = new ArrayList<Metric>();
+   /** Told about every metric, or empty. */
+   private static final List<Listener> LISTENERS = new ArrayList<Listener>();
+
+   /**
+    * Private Constructor - the registry is static.
+    */
+   private Metrics() {
+   }
+
+   /**
+    * Listens for the metrics that are created.
+    */
+   public interface Listener {
+
+      /**
+       * Called once for each metric, on the thread that created it.
+       *
+       * @param metric the metric.
+       */
+      void metricAdded(Metric metric);
+   }
+
+   /**
+    * Reads the value of a gauge when it is asked for.
+    */
+   public interface Gauge {
+
+      /**
+       * Returns the current value, called from any thread.
+       *
+       * @return the value.
+       */
+      long getValue();
+   }
+
+   /**
+    * A named metric.
+    */
+   public abstract static class Metric {
+
+      /** The name of the metric. */
+      private final String name;
+
+      /**
+       * Constructor - names the metric.
+       *
+       * @param name the name, such as <em>game.newGame</em>.
+       */
+      Metric(String name) {
+         this.name = name;
+      }
+
+      /**
+       * Returns the name of the metric.
+       *
+       * @return the name.
+       */
+      public String getName() {
+         return name;
+      }
+   }
+
+   /**
+    * Counts events.
+    */
+   public static final class Counter extends Metric {
+
+      /** The count. */
+      private final LongAdder count = new LongAdder();
+
+      /**
+       * Constructor - creates a counter at 0.
+       *
+       * @param name the name of the counter.
+       */
+      private Counter(String name) {
+         super(name);
+      }
+
+      /**
+       * Adds 1 to the count.
+       */
+      public void increment() {
+         count.increment();
+      }
+
+      /**
+       * Adds to the count.
+       *
+       * @param amount the amount to add.
+       */
+      public void add(long amount) {
+         count.add(amount);
+      }
+
+      /**
+       * Returns the count.
+       *
+       * @return the count.
+       */
+      public long getCount() {
+         return count.sum();
+      }
+   }
+
+   /**
+    * A value that is read from the app when it is asked for, such as the
+    * amount of puzzles in the bank.
+    */
+   public static final class GaugeMetric extends Metric {
+
+      /** Reads the value. */
+      private final Gauge gauge;
+
+      /**
+       * Constructor - creates a gauge.
+       *
+       * @param name the name of the gauge.
+       * @param gauge reads the value.
+       */
+      private GaugeMetric(String name, Gauge gauge) {
+         super(name);
+         this.gauge = gauge;
+      }
+
+      /**
+       * Returns the current value.
+       *
+       * @return the value.
+       */
+      public long getValue() {
+         return gauge.getValue();
+      }
+   }
+
+   /**
+    * Times an operation, keeping a histogram of the times.
+    */
+   public static final class Timer extends Metric {
+
+      /** The amount of times in each bucket. */
+      private final LongAdder[] buckets = new LongAdder[BUCKETS];
+      /** The amount of times recorded. */
+      private final LongAdder count = new LongAdder();
+      /** The total of the times recorded, in nanoseconds. */
+      private final LongAdder total = new LongAdder();
+      /** The highest time recorded, in nanoseconds. */
+      private final LongAccumulator max = new LongAccumulator(
+              new LongBinaryOperator() {
+                 public long applyAsLong(long left, long right) {
+                    return Math.max(left, right);
+                 }
+              }, 0);
+
+      /**
+       * Constructor - creates an empty timer.
+       *
+       * @param name the name of the timer.
+       */
+      private Timer(String name) {
+         super(name);
+         for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+         }
+      }
+
+      /**
+       * Records the time since a start time.
+       *
+       * @param begin the start time, from {@link System#nanoTime()}.
+       */
+      public void recordSince(long begin) {
+         record(System.nanoTime() - begin);
+      }
+
+      /**
+       * Records a time.
+       *
+       * @param nanos the time in nanoseconds.
+       */
+      public void record(long nanos) {
+         nanos = Math.max(nanos, 0);
+         buckets[getBucket(nanos / 1000)].increment();
+         count.increment();
+         total.add(nanos);
+         max.accumulate(nanos);
+      }
+
+      /**
+       * Returns the amount of times recorded.
+       *
+       * @return the amount of times.
+       */
+      public long getCount() {
+         return count.sum();
+      }
+
+      /**
+       * Returns the total of the times recorded.
+       *
+       * @return the total in nanoseconds.
+       */
+      public long getTotalNanos() {
+         return total.sum();
+      }
+
+      /**
+       * Returns the highest time recorded.
+       *
+       * @return the highest time in nanoseconds.
+       */
+      public long getMaxNanos() {
+         return max.get();
+      }
+
+      /**
+       * Returns a percentile of the times recorded. Times that are recorded
+       * while the histogram is read may or may not be counted.
+       *
+       * @param fraction the percentile, between 0 and 1.
+       * @return the upper bound of the bucket containing the percentile, in
+       *         microseconds, or 0 if nothing has been recorded.
+       */
+      public long getPercentile(double fraction) {
+         long[] counts = getBuckets();
+         long recorded = 0;
+         for (long c : counts) {
+            recorded += c;
+         }
+         long target = (long) Math.ceil(fraction * recorded);
+         long seen = 0;
+         for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen > 0 && seen >= target) {
+               return Math.min(getUpperBound(i), (getMaxNanos() + 999) / 1000);
+            }
+         }
+         return 0;
+      }
+
+      /**
+       * Returns the amount of times in each bucket of the histogram, see
+       * {@link Metrics#getLowerBound(int)}.
+       *
+       * @return the counts of the buckets.
+       */
+      public long[] getBuckets() {
+         long[] counts = new long[BUCKETS];
+         for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+         }
+         return counts;
+      }
+   }
+
+   /**
+    * Creates a counter.
+    *
+    * @param name the name of the counter.
+    * @return the counter.
+    */
+   public static Counter counter(String name) {
+      return add(new Counter(name));
+   }
+
+   /**
+    * Creates a timer.
+    *
+    * @param name the name of the timer.
+    * @return the timer.
+    */
+   public static Timer timer(String name) {
+      return add(new Timer(name));
+   }
+
+   /**
+    * Creates a gauge.
+    *
+    * @param name the name of the gauge.
+    * @param gauge reads the value.
+    * @return the gauge.
+    */
+   public static GaugeMetric gauge(String name, Gauge gauge) {
+      return add(new GaugeMetric(name, gauge));
+   }
+
+   /**
+    * Adds a listener, and tells it about the metrics created so far.
+    *
+    * @param listener the listener.
+    */
+   public static void addListener(Listener listener) {
+      List<Metric> metrics;
+      synchronized (ALL) {
+         LISTENERS.add(listener);
+         metrics = new ArrayList<Metric>(ALL);
+      }
+      for (Metric metric : metrics) {
+         listener.metricAdded(metric);
+      }
+   }
+
+   /**
+    * Returns every metric created so far.
+    *
+    * @return the metrics, in the order they were created.
+    */
+   public static List<Metric> getAll() {
+      synchronized (ALL) {
+         return new ArrayList<Metric>(ALL);
+      }
+   }
+
+   /**
+    * Registers a metric, and tells the listeners about it.
+    *
+    * @param <M> the type of the metric.
+    * @param metric the metric.
+    * @return the metric.
+    */
+   private static <M extends Metric> M add(M metric) {
+      List<Listener> listeners;
+      synchronized (ALL) {
+         ALL.add(metric);
+         listeners = new ArrayList<Listener>(LISTENERS);
+      }
+      for (Listener listener : listeners) {
+         listener.metricAdded(metric);
+      }
+      return metric;
+   }
+
+   /**
+    * Returns the bucket that a time belongs to.
+    *
+    * @param micros the time in microseconds.
+    * @return the index of the bucket.
+    */
+   private static int getBucket(long micros) {
+      if (micros < LINEAR_BUCKETS) {
+         return (int) Math.max(micros, 0);
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(micros);
+      int sub = (int) (micros >>> (exponent - 4)) & 15;
+      return Math.min((exponent - 3) * 16 + sub, BUCKETS - 1);
+   }
+
+   /**
+    * Returns the lowest time that belongs to a bucket.
+    *
+    * @param bucket the index of the bucket.
+    * @return the lowest time in microseconds.
+    */
+   public static long getLowerBound(int bucket) {
+      if (bucket < LINEAR_BUCKETS) {
+         return bucket;
+      }
+      int exponent = bucket / 16 + 3;
+      return (long) (16 + bucket % 16) << (exponent - 4);
+   }
+
+   /**
+    * Returns the lowest time of the next bucket.
+    *
+    * @param bucket the index of the bucket.
+    * @return the lowest time that is too high for the bucket, in microseconds.
+    */
+   public static long getUpperBound(int bucket) {
+      if (bucket < LINEAR_BUCKETS) {
+         return bucket + 1;
+      }
+      return getLowerBound(bucket) + (1L << (bucket / 16 - 1));
+   }
+}
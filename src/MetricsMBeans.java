@@ -0,0 +1,217 @@
+/* File: MetricsMBeans.java  -  April 2011 */
+package sudoku;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exposes every {@link Metrics} metric as an MXBean, so that the app can be
+ * watched with JConsole, VisualVM or any other JMX client.
+ *
+ * Each metric is registered with the platform MBean server as
+ * <em>sudoku:type=Timer,name=game.newGame</em> and so on, as soon as it is
+ * created. The attributes are only read when a client asks for them, so the
+ * MXBeans cost nothing while nobody is watching. A timer shows its count,
+ * mean, percentiles and maximum in milliseconds, and its histogram as one
+ * line per non-empty bucket.
+ * <br><br>
+ * This uses java.management, so it is part of the UI rather than the core.
+ *
+ * @author Rudi Theunissen
+ */
+public final class MetricsMBeans implements Metrics.Listener {
+
+   /** The domain of the object names. */
+   public static final String DOMAIN = "sudoku";
+
+   /** The server the MXBeans are registered with. */
+   private final MBeanServer server;
+
+   /**
+    * The attributes of a counter.
+    */
+   public interface CounterMXBean {
+
+      /**
+       * Returns the count.
+       *
+       * @return the count.
+       */
+      long getCount();
+   }
+
+   /**
+    * The attributes of a gauge.
+    */
+   public interface GaugeMXBean {
+
+      /**
+       * Returns the current value.
+       *
+       * @return the value.
+       */
+      long getValue();
+   }
+
+   /**
+    * The attributes of a timer.
+    */
+   public interface TimerMXBean {
+
+      /**
+       * Returns the amount of times recorded.
+       *
+       * @return the amount of times.
+       */
+      long getCount();
+
+      /**
+       * Returns the mean time.
+       *
+       * @return the mean in milliseconds.
+       */
+      double getMeanMillis();
+
+      /**
+       * Returns the median time.
+       *
+       * @return the 50th percentile in milliseconds.
+       */
+      double getP50Millis();
+
+      /**
+       * Returns the 90th percentile of the times.
+       *
+       * @return the 90th percentile in milliseconds.
+       */
+      double getP90Millis();
+
+      /**
+       * Returns the 99th percentile of the times.
+       *
+       * @return the 99th percentile in milliseconds.
+       */
+      double getP99Millis();
+
+      /**
+       * Returns the highest time.
+       *
+       * @return the highest time in milliseconds.
+       */
+      double getMaxMillis();
+
+      /**
+       * Returns the non-empty buckets of the histogram.
+       *
+       * @return a line for each bucket - its lowest and highest time in
+       *         microseconds and its count, separated by tabs.
+       */
+      String[] getHistogram();
+   }
+
+   /**
+    * Private Constructor - uses the platform MBean server.
+    */
+   private MetricsMBeans() {
+      server = ManagementFactory.getPlatformMBeanServer();
+   }
+
+   /**
+    * Registers an MXBean for every metric, now and as they are created.
+    */
+   public static void register() {
+      Metrics.addListener(new MetricsMBeans());
+   }
+
+   /**
+    * Registers the MXBean of a metric.
+    *
+    * @param metric the metric.
+    */
+   public void metricAdded(Metrics.Metric metric) {
+      Object bean;
+      String type;
+      if (metric instanceof Metrics.Timer) {
+         bean = createTimer((Metrics.Timer) metric);
+         type = "Timer";
+      } else if (metric instanceof Metrics.Counter) {
+         final Metrics.Counter counter = (Metrics.Counter) metric;
+         bean = new CounterMXBean() {
+            public long getCount() {
+               return counter.getCount();
+            }
+         };
+         type = "Counter";
+      } else {
+         final Metrics.GaugeMetric gauge = (Metrics.GaugeMetric) metric;
+         bean = new GaugeMXBean() {
+            public long getValue() {
+               return gauge.getValue();
+            }
+         };
+         type = "Gauge";
+      }
+      try {
+         ObjectName name = new ObjectName(DOMAIN + ":type=" + type + ",name="
+                 + ObjectName.quote(metric.getName()));
+         if (!server.isRegistered(name)) {
+            server.registerMBean(bean, name);
+         }
+      } catch (JMException ex) {
+         System.err.println(ex);
+      }
+   }
+
+   /**
+    * Creates the MXBean of a timer.
+    *
+    * @param timer the timer.
+    * @return the MXBean.
+    */
+   private static TimerMXBean createTimer(final Metrics.Timer timer) {
+      return new TimerMXBean() {
+         public long getCount() {
+            return timer.getCount();
+         }
+
+         public double getMeanMillis() {
+            long count = timer.getCount();
+            return (count == 0) ? 0 : timer.getTotalNanos() / 1e6 / count;
+         }
+
+         public double getP50Millis() {
+            return timer.getPercentile(0.5) / 1e3;
+         }
+
+         public double getP90Millis() {
+            return timer.getPercentile(0.9) / 1e3;
+         }
+
+         public double getP99Millis() {
+            return timer.getPercentile(0.99) / 1e3;
+         }
+
+         public double getMaxMillis() {
+            return timer.getMaxNanos() / 1e6;
+         }
+
+         public String[] getHistogram() {
+            long[] buckets = timer.getBuckets();
+            int used = 0;
+            for (long count : buckets) {
+               used += (count != 0) ? 1 : 0;
+            }
+            String[] lines = new String[used];
+            for (int i = 0, l = 0; i < buckets.length; i++) {
+               if (buckets[i] != 0) {
+                  lines[l++] = Metrics.getLowerBound(i) + "\t"
+                          + Metrics.getUpperBound(i) + "\t" + buckets[i];
+               }
+            }
+            return lines;
+         }
+      };
+   }
+}
@@ -0,0 +1,180 @@
+/* File: PaintBenchmark.java  -  April 2011 */
+package sudoku;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import javax.swing.ImageIcon;
+
+/**
+ * Headless benchmark that measures how many grid frames can be painted per
+ * second, painting the original GIF images the way the panels did before
+ * {@link BoardRenderer} versus using a {@link BoardRenderer}.
+ *
+ * Run with <em>ant bench-paint</em>, or from the project directory with an
+ * optional number of frames as the only argument - the GIFs are read from
+ * <em>resources/images</em>, since the app itself only bundles the sprite
+ * sheet.
+ *
+ * @author Rudi Theunissen
+ */
+public class PaintBenchmark {
+
+   /** The game whose grid is painted. */
+   private GameNumbers numbers;
+   /** The original grid image, used by the direct painting path. */
+   private Image gridImage;
+   /** The original number images by colour and number, for the direct path. */
+   private Image[][] numberImages;
+   /** The renderer used by the cached painting path. */
+   private BoardRenderer renderer;
+
+   /**
+    * Constructor - sets up a game with numbers and possibilities on the grid.
+    */
+   public PaintBenchmark() {
+      numbers = new GameNumbers();
+      numbers.newGame(1);
+      for (int i = 0; i < 81; i++) {
+         if (numbers.getCurrentNumber(i) == 0) {
+            for (int mini = 1 + i % 3; mini < 10; mini += 2) {
+               numbers.toggleMini(mini, Algorithms.getRow(i),
+                       Algorithms.getCol(i));
+            }
+         }
+      }
+
+      gridImage = loadImage("sudoku-grid");
+      numberImages = new Image[][] {
+         loadNumberImages(""), loadNumberImages("-mini"),
+         loadNumberImages("-green"), loadNumberImages("-red")
+      };
+      renderer = new BoardRenderer(Images.getInstance());
+   }
+
+   /**
+    * Loads one of the original GIF images with the toolkit, as the app did
+    * before the sprite sheet, and waits for it to be fully loaded.
+    *
+    * @param name the name of the image, without the extension.
+    * @return the loaded image.
+    * @throws IllegalStateException if the image could not be loaded.
+    */
+   private static Image loadImage(String name) {
+      File file = new File(Images.IMAGE_DIRECTORY + name + ".gif");
+      if (!file.isFile()) {
+         throw new IllegalStateException("missing " + file
+                 + " - run from the project directory");
+      }
+      Image image = Toolkit.getDefaultToolkit().getImage(file.getPath());
+      // an ImageIcon waits for the image with a media tracker.
+      return new ImageIcon(image).getImage();
+   }
+
+   /**
+    * Loads the original images of the numbers 1 to 9 of one colour.
+    *
+    * @param suffix the suffix of the colour's file names, eg. "-mini".
+    * @return the images, indexed by number - 1.
+    */
+   private static Image[] loadNumberImages(String suffix) {
+      Image[] images = new Image[9];
+      for (int i = 0; i < 9; i++) {
+         images[i] = loadImage((i + 1) + suffix);
+      }
+      return images;
+   }
+
+   /**
+    * Runs the benchmark and prints the frames per second of each path.
+    *
+    * @param args optionally, the number of frames to paint per path.
+    */
+   public static void main(String[] args) {
+      System.setProperty("java.awt.headless", "true");
+      int frames = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+
+      PaintBenchmark benchmark = new PaintBenchmark();
+      BufferedImage frame = new BufferedImage(411, 410,
+              BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = frame.createGraphics();
+
+      // warm up both paths before measuring..
+      benchmark.measure(g, false, frames / 4);
+      benchmark.measure(g, true, frames / 4);
+
+      double direct = benchmark.measure(g, false, frames);
+      double cached = benchmark.measure(g, true, frames);
+      g.dispose();
+
+      System.out.printf("original GIFs:  %10.1f frames/s%n", direct);
+      System.out.printf("board renderer: %10.1f frames/s%n", cached);
+      System.out.printf("speedup:        %10.2fx%n", cached / direct);
+   }
+
+   /**
+    * Paints a number of frames and returns the rate they were painted at.
+    *
+    * @param g the graphics to paint with.
+    * @param useRenderer true to paint using the renderer.
+    * @param frames the number of frames to paint.
+    * @return frames per second.
+    */
+   private double measure(Graphics2D g, boolean useRenderer, int frames) {
+      long start = System.nanoTime();
+      for (int f = 0; f < frames; f++) {
+         if (useRenderer) {
+            paintCached(g);
+         } else {
+            paintDirect(g);
+         }
+      }
+      return frames / ((System.nanoTime() - start) / 1e9);
+   }
+
+   /**
+    * Paints the grid the way the panels did before {@link BoardRenderer} -
+    * each original GIF drawn on its own.
+    *
+    * @param g the graphics to paint with.
+    */
+   private void paintDirect(Graphics2D g) {
+      g.drawImage(gridImage, 0, 0, null);
+      for (int i = 0; i < 81; i++) {
+         int x = Algorithms.getBase(Algorithms.getCol(i));
+         int y = Algorithms.getBase(Algorithms.getRow(i));
+         int number = numbers.getCurrentNumber(i);
+
+         if (number == 0) {
+            for (int mini : numbers.getMiniNumbers(i)) {
+               if (mini != 0) {
+                  g.drawImage(numberImages[Images.MINI][mini - 1],
+                          Algorithms.getMiniSquareLocationX(mini, x),
+                          Algorithms.getMiniSquareLocationY(mini, y), null);
+               }
+            }
+            continue;
+         }
+         g.drawImage(numberImages[Images.WHITE][number - 1], x, y, null);
+      }
+   }
+
+   /**
+    * Paints the grid using the {@link BoardRenderer}.
+    *
+    * @param g the graphics to paint with.
+    */
+   private void paintCached(Graphics2D g) {
+      renderer.paintGrid(g);
+      for (int i = 0; i < 81; i++) {
+         int x = Algorithms.getBase(Algorithms.getCol(i));
+         int y = Algorithms.getBase(Algorithms.getRow(i));
+         int number = numbers.getCurrentNumber(i);
+
+         renderer.paintSquare(g, x, y, number, Images.WHITE,
+                 (number == 0) ? numbers.getMiniMask(i) : 0);
+      }
+   }
+}
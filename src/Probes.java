@@ -0,0 +1,106 @@
+/* File: Probes.java  -  April 2011 */
+package sudoku;
+
+/**
+ * Hooks in the core that a profiler can use to see what it is doing - solver
+ * runs, puzzle bank loads and record reads.
+ *
+ * The core only needs java.base, so it can't create JDK Flight Recorder
+ * events itself. Instead it asks the {@link Probes.Sink} that the app has set
+ * for a token when an operation starts, and hands the token back with the
+ * details when it ends - the UI's sink, <em>FlightEvents</em>, returns a
+ * begun event as the token, and commits it at the end. With no sink an
+ * operation only reads a volatile field; with a sink it also pays for
+ * whatever the sink does to start the operation, even when the sink then
+ * returns null.
+ *
+ * @author Rudi Theunissen
+ */
+public final class Probes {
+
+   /** The sink of the app, or null. */
+   private static volatile Sink sink;
+
+   /**
+    * Private Constructor - the hooks are static.
+    */
+   private Probes() {
+   }
+
+   /**
+    * Receives the operations of the core. Every method can be called from any
+    * thread.
+    */
+   public interface Sink {
+
+      /**
+       * Called when a solver run starts.
+       *
+       * @return a token for {@link #solveFinished}, or null to skip the run.
+       */
+      Object solveStarted();
+
+      /**
+       * Called when a solver run ends.
+       *
+       * @param solve the token of the run.
+       * @param nodes the amount of numbers tried.
+       * @param depth the most squares that were filled in at once.
+       * @param solutions the amount of solutions found.
+       * @param outcome <em>solved</em>, <em>multiple solutions</em>, <em>no
+       *        solution</em> or <em>cancelled</em>.
+       */
+      void solveFinished(Object solve, long nodes, int depth, int solutions,
+              String outcome);
+
+      /**
+       * Called when a puzzle bank, store or file starts loading.
+       *
+       * @return a token for {@link #loadFinished}, or null to skip the load.
+       */
+      Object loadStarted();
+
+      /**
+       * Called when a load ends.
+       *
+       * @param load the token of the load.
+       * @param source what was loaded, such as <em>bank</em> or a file name.
+       * @param puzzles the amount of puzzles loaded.
+       */
+      void loadFinished(Object load, String source, long puzzles);
+
+      /**
+       * Called when a puzzle record starts being read.
+       *
+       * @return a token for {@link #readFinished}, or null to skip the read.
+       */
+      Object readStarted();
+
+      /**
+       * Called when a record has been read.
+       *
+       * @param read the token of the read.
+       * @param source <em>bank</em> or <em>store</em>.
+       * @param record the line number or record number.
+       */
+      void readFinished(Object read, String source, long record);
+   }
+
+   /**
+    * Sets the sink of the app.
+    *
+    * @param sink the sink, or null for none.
+    */
+   public static void setSink(Sink sink) {
+      Probes.sink = sink;
+   }
+
+   /**
+    * Returns the sink of the app.
+    *
+    * @return the sink, or null if there is none.
+    */
+   public static Sink getSink() {
+      return sink;
+   }
+}
@@ -0,0 +1,178 @@
+/* File: PuzzleBank.java  -  April 2011 */
+package sudoku;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * The bank of puzzles and their solutions, read from the .sud (txt) files.
+ *
+ * The bank is read once and shared by every {@link GameNumbers}, using
+ * {@link PuzzleBank#getInstance()}. It is immutable, so it can be loaded on a
+ * background thread and read from any thread.
+ *
+ * @author Rudi Theunissen
+ */
+public final class PuzzleBank {
+
+   /** The relative path to the puzzle resources. */
+   public static final String PUZZLE_DIRECTORY = "resources/puzzles/";
+
+   /** All the lines of the puzzles text file. */
+   private final List<String> puzzleLines;
+   /** All the lines of the solutions text file. */
+   private final List<String> solutionLines;
+   /** The line number of the first puzzle of each difficulty. */
+   private final int[] sectionStarts;
+   /** The amount of puzzles of each difficulty. */
+   private final int[] sectionSizes;
+
+   /** Times the loading of the bank. */
+   private static final Metrics.Timer LOAD = Metrics.timer("bank.load");
+
+   /**
+    * Holds the shared instance, which is loaded the first time it's used.
+    */
+   private static class Holder {
+
+      /** The shared instance. */
+      private static final PuzzleBank INSTANCE = new PuzzleBank();
+   }
+
+   /**
+    * Private Constructor - scans the entire puzzle and solution files, and the
+    * index of the sections, written by {@link PuzzleRater}.
+    */
+   private PuzzleBank() {
+      long begin = System.nanoTime();
+      Probes.Sink probe = Probes.getSink();
+      Object event = (probe != null) ? probe.loadStarted() : null;
+      ArrayList<String> puzzles = new ArrayList<String>();
+      ArrayList<String> solutions = new ArrayList<String>();
+      Scanner puzzleScan = getPuzzleScanner("puzzles.sud");
+      Scanner solutionScan = getPuzzleScanner("solutions.sud");
+
+      while (puzzleScan.hasNextLine()) {
+         puzzles.add(puzzleScan.nextLine());
+         solutions.add(solutionScan.nextLine());
+      }
+      puzzleScan.close();
+      solutionScan.close();
+
+      puzzleLines = Collections.unmodifiableList(puzzles);
+      solutionLines = Collections.unmodifiableList(solutions);
+
+      ArrayList<int[]> sections = new ArrayList<int[]>();
+      Scanner indexScan = getPuzzleScanner("puzzles.idx");
+      while (indexScan.hasNextLine()) {
+         String line = indexScan.nextLine().trim();
+         if (line.isEmpty() || line.startsWith("#")) {
+            continue;
+         }
+         String[] fields = line.split("\\s+");
+         sections.add(new int[]{Integer.parseInt(fields[1]),
+                    Integer.parseInt(fields[2])});
+      }
+      indexScan.close();
+
+      sectionStarts = new int[sections.size()];
+      sectionSizes = new int[sections.size()];
+      for (int i = 0; i < sections.size(); i++) {
+         sectionStarts[i] = sections.get(i)[0];
+         sectionSizes[i] = sections.get(i)[1];
+      }
+      LOAD.recordSince(begin);
+      if (event != null) {
+         probe.loadFinished(event, "bank", getPuzzleCount());
+      }
+      Metrics.gauge("bank.puzzles", new Metrics.Gauge() {
+         public long getValue() {
+            return getPuzzleCount();
+         }
+      });
+   }
+
+   /**
+    * Returns the amount of puzzles in every section.
+    *
+    * @return the amount of puzzles.
+    */
+   public int getPuzzleCount() {
+      int puzzles = 0;
+      for (int size : sectionSizes) {
+         puzzles += size;
+      }
+      return puzzles;
+   }
+
+   /**
+    * Returns the shared instance, reading the files the first time.
+    *
+    * @return the shared instance.
+    */
+   public static PuzzleBank getInstance() {
+      return Holder.INSTANCE;
+   }
+
+   /**
+    * Returns the amount of difficulties in the bank.
+    *
+    * @return the amount of difficulties.
+    */
+   public int getDifficultyCount() {
+      return sectionSizes.length;
+   }
+
+   /**
+    * Returns the line number of the first puzzle of a difficulty.
+    *
+    * @param difficulty the difficulty, starting at 0.
+    * @return the line number, starting at 1.
+    */
+   public int getSectionStart(int difficulty) {
+      return sectionStarts[difficulty];
+   }
+
+   /**
+    * Returns the amount of puzzles of a difficulty.
+    *
+    * @param difficulty the difficulty, starting at 0.
+    * @return the amount of puzzles.
+    */
+   public int getSectionSize(int difficulty) {
+      return sectionSizes[difficulty];
+   }
+
+   /**
+    * Returns a line of the puzzles file.
+    *
+    * @param lineNumber the line number, starting at 1.
+    * @return the line of the puzzles file.
+    */
+   public String getPuzzleLine(int lineNumber) {
+      return puzzleLines.get(lineNumber - 1);
+   }
+
+   /**
+    * Returns a line of the solutions file.
+    *
+    * @param lineNumber the line number, starting at 1.
+    * @return the line of the solutions file.
+    */
+   public String getSolutionLine(int lineNumber) {
+      return solutionLines.get(lineNumber - 1);
+   }
+
+   /**
+    * Used to set up a Scanner that uses a file as an input stream.
+    *
+    * @param fileName Location of the file that is to be scanned.
+    * @return Scanner that is ready to read data from a file.
+    */
+   private Scanner getPuzzleScanner(String fileName) {
+      return new Scanner(getClass().getResourceAsStream(PUZZLE_DIRECTORY
+              + fileName));
+   }
+}
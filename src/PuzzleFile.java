@@ -0,0 +1,168 @@
+/* File: PuzzleFile.java  -  April 2011 */
+package sudoku;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the puzzles of a .sud (txt) file, section by section.
+ *
+ * A section starts with a heading line such as <em>Beginner Puzzles: 30</em>,
+ * and each puzzle is a line that starts with 81 digits, 0 or '.' for an empty
+ * square. Every other line is skipped, and puzzles before the first heading
+ * are put in a section called <em>All</em>.
+ *
+ * @author Rudi Theunissen
+ */
+public final class PuzzleFile {
+
+   /** The text that marks a section heading. */
+   private static final String HEADING = " Puzzles:";
+
+   /** The sections of the file, in order. */
+   private final List<Section> sections;
+
+   /**
+    * A section of a puzzle file, usually one difficulty.
+    */
+   public static final class Section {
+
+      /** The name of the section, such as <em>Beginner</em>. */
+      private final String name;
+      /** The puzzles of the section. */
+      private final List<int[]> puzzles = new ArrayList<int[]>();
+      /** The line number of each puzzle, starting at 1. */
+      private final List<Integer> lineNumbers = new ArrayList<Integer>();
+
+      /**
+       * Constructor - creates an empty section.
+       *
+       * @param name the name of the section.
+       */
+      private Section(String name) {
+         this.name = name;
+      }
+
+      /**
+       * Returns the name of the section.
+       *
+       * @return the name of the section.
+       */
+      public String getName() {
+         return name;
+      }
+
+      /**
+       * Returns the puzzles of the section, which must not be changed.
+       *
+       * @return the puzzles, 81 values each and 0 for an empty square.
+       */
+      public List<int[]> getPuzzles() {
+         return Collections.unmodifiableList(puzzles);
+      }
+
+      /**
+       * Returns the line number of a puzzle in the file.
+       *
+       * @param i the position of the puzzle in the section.
+       * @return the line number, starting at 1.
+       */
+      public int getLineNumber(int i) {
+         return lineNumbers.get(i);
+      }
+   }
+
+   /**
+    * Private Constructor - reads the file.
+    *
+    * @param in the file contents, which are closed once read.
+    * @throws IOException if the file couldn't be read.
+    */
+   private PuzzleFile(InputStream in) throws IOException {
+      sections = new ArrayList<Section>();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+              "US-ASCII"));
+      try {
+         Section section = null;
+         int lineNumber = 0;
+         String line;
+         while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            int heading = line.indexOf(HEADING);
+            int[] grid = parseGrid(line);
+            if (heading > 0) {
+               section = new Section(line.substring(0, heading).trim());
+               sections.add(section);
+            } else if (grid != null) {
+               if (section == null) {
+                  section = new Section("All");
+                  sections.add(section);
+               }
+               section.puzzles.add(grid);
+               section.lineNumbers.add(lineNumber);
+            }
+         }
+      } finally {
+         reader.close();
+      }
+   }
+
+   /**
+    * Reads a puzzle file.
+    *
+    * @param in the file contents, which are closed once read.
+    * @return the puzzle file.
+    * @throws IOException if the file couldn't be read.
+    */
+   public static PuzzleFile read(InputStream in) throws IOException {
+      return new PuzzleFile(in);
+   }
+
+   /**
+    * Reads the puzzles of the bundled puzzle bank.
+    *
+    * @return the puzzle file.
+    * @throws IOException if the file couldn't be read.
+    */
+   public static PuzzleFile readBank() throws IOException {
+      return read(PuzzleFile.class.getResourceAsStream(
+              PuzzleBank.PUZZLE_DIRECTORY + "puzzles.sud"));
+   }
+
+   /**
+    * Returns the sections of the file, in order.
+    *
+    * @return the sections of the file.
+    */
+   public List<Section> getSections() {
+      return Collections.unmodifiableList(sections);
+   }
+
+   /**
+    * Reads a grid from a line that starts with 81 digits, 0 or '.' for an empty
+    * square.
+    *
+    * @param line the line to read.
+    * @return the 81 values of the grid, or null if the line isn't a grid.
+    */
+   public static int[] parseGrid(String line) {
+      if (line.length() < 81) {
+         return null;
+      }
+      int[] grid = new int[81];
+      for (int i = 0; i < 81; i++) {
+         char c = line.charAt(i);
+         if (c >= '0' && c <= '9') {
+            grid[i] = c - '0';
+         } else if (c != '.') {
+            return null;
+         }
+      }
+      return grid;
+   }
+}
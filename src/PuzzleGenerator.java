@@ -0,0 +1,201 @@
+/* File: PuzzleGenerator.java  -  April 2011 */
+package sudoku;
+
+import java.util.Random;
+
+/**
+ * Generates random, valid Sudoku puzzles.
+ *
+ * A full solution grid is filled in by a randomised backtracking search, and
+ * clues are then removed in a random order for as long as the puzzle keeps a
+ * single solution, checked using {@link Solver#countSolutions(int[], int)}.
+ * <br><br>
+ * The same seed always generates the same puzzles. A generator is not thread
+ * safe - each thread should use its own.
+ *
+ * @author Rudi Theunissen
+ */
+public class PuzzleGenerator {
+
+   /** The amount of clues that are left when generating each difficulty, 0
+    *  for a minimal puzzle. */
+   private static final int[] TARGET_CLUES = {38, 32, 26, 0};
+
+   /** Random number generator, seeded so that runs can be repeated. */
+   private Random random;
+   /** Instance of {@link Solver}, used to check that puzzles are unique. */
+   private Solver solver;
+
+   /**
+    * Constructor - creates a generator with a fixed seed.
+    *
+    * @param seed the seed of the random number generator.
+    */
+   public PuzzleGenerator(long seed) {
+      random = new Random(seed);
+      solver = new Solver();
+   }
+
+   /**
+    * Generates a random, full solution grid.
+    *
+    * @return the 81 values of the grid.
+    */
+   public int[] newSolution() {
+      int[] grid = new int[81];
+      fill(grid, 0);
+      return grid;
+   }
+
+   /**
+    * Fills the squares from an index onwards, trying the numbers that fit
+    * each square in a random order.
+    *
+    * @param grid the grid to fill.
+    * @param index the first square to fill.
+    * @return true if the rest of the grid could be filled.
+    */
+   private boolean fill(int[] grid, int index) {
+      if (index == 81) {
+         return true;
+      }
+      int used = 0;
+      for (int k = 0; k < Algorithms.PEER_COUNT; k++) {
+         used |= 1 << grid[Algorithms.getPeer(index, k)];
+      }
+      int[] order = shuffledNumbers();
+      for (int n : order) {
+         if ((used & (1 << n)) == 0) {
+            grid[index] = n;
+            if (fill(grid, index + 1)) {
+               return true;
+            }
+         }
+      }
+      grid[index] = 0;
+      return false;
+   }
+
+   /**
+    * Creates a puzzle with a single solution, by removing clues from a
+    * solution in a random order until only the given amount are left, or no
+    * more can be removed.
+    *
+    * @param solution the full solution grid.
+    * @param clues the amount of clues to leave on the grid.
+    * @return the puzzle, 0 for an empty square.
+    */
+   public int[] removeClues(int[] solution, int clues) {
+      int[] puzzle = solution.clone();
+      int count = 81;
+      for (int index : shuffledSquares()) {
+         if (count <= clues) {
+            break;
+         }
+         int value = puzzle[index];
+         puzzle[index] = 0;
+         if (solver.countSolutions(puzzle, 2) == 1) {
+            count--;
+         } else {
+            puzzle[index] = value;
+         }
+      }
+      return puzzle;
+   }
+
+   /**
+    * Creates a minimal puzzle - one that has a single solution, but where
+    * removing any of its clues would give it more than one.
+    *
+    * @param solution the full solution grid.
+    * @return the minimal puzzle.
+    */
+   public int[] minimalPuzzle(int[] solution) {
+      return removeClues(solution, 0);
+   }
+
+   /**
+    * Generates a puzzle of a difficulty, as rated by
+    * {@link PuzzleRater#getDifficulty(int[])}.
+    *
+    * Solutions are generated and clues removed down to
+    * {@link #getTargetClues(int)} until a puzzle of the difficulty comes up.
+    *
+    * @param difficulty the difficulty, 0 to 3.
+    * @param solution filled with the solution of the puzzle.
+    * @return the puzzle, 0 for an empty square.
+    */
+   public int[] newPuzzle(int difficulty, int[] solution) {
+      while (true) {
+         int[] grid = newSolution();
+         int[] puzzle = removeClues(grid, getTargetClues(difficulty));
+         if (PuzzleRater.getDifficulty(puzzle) == difficulty) {
+            System.arraycopy(grid, 0, solution, 0, 81);
+            return puzzle;
+         }
+      }
+   }
+
+   /**
+    * Returns the amount of clues to leave when generating a difficulty, which
+    * most often gives a puzzle of that difficulty.
+    *
+    * @param difficulty the difficulty, 0 to 3.
+    * @return the amount of clues, 0 for a minimal puzzle.
+    */
+   public static int getTargetClues(int difficulty) {
+      return TARGET_CLUES[difficulty];
+   }
+
+   /**
+    * Returns a random permutation of the numbers 1 to 9.
+    *
+    * @return the shuffled numbers.
+    */
+   private int[] shuffledNumbers() {
+      int[] numbers = new int[9];
+      for (int i = 0; i < 9; i++) {
+         numbers[i] = i + 1;
+      }
+      shuffle(numbers);
+      return numbers;
+   }
+
+   /**
+    * Returns a random permutation of the 81 array indexes of the grid.
+    *
+    * @return the shuffled indexes.
+    */
+   public int[] shuffledSquares() {
+      int[] squares = new int[81];
+      for (int i = 0; i < 81; i++) {
+         squares[i] = i;
+      }
+      shuffle(squares);
+      return squares;
+   }
+
+   /**
+    * Shuffles an array in place, using the Fisher-Yates shuffle.
+    *
+    * @param values the array to shuffle.
+    */
+   private void shuffle(int[] values) {
+      for (int i = values.length - 1; i > 0; i--) {
+         int j = random.nextInt(i + 1);
+         int swap = values[i];
+         values[i] = values[j];
+         values[j] = swap;
+      }
+   }
+
+   /**
+    * Returns the random number generator, so that callers can make further
+    * random choices that are repeatable with the same seed.
+    *
+    * @return the random number generator.
+    */
+   public Random getRandom() {
+      return random;
+   }
+}
@@ -0,0 +1,487 @@
+/* File: PuzzleImporter.java  -  April 2011 */
+package sudoku;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Merges puzzle collections into a puzzle bank or {@link PuzzleStore},
+ * leaving out the puzzles that are already there up to symmetry.
+ *
+ * Files can hold puzzles in any mix of these layouts:<ul>
+ * <li>one puzzle to a line, 81 digits with 0 or '.' for an empty square -
+ *     which covers .sdm files and the .sud files of the bank.</li>
+ * <li>grids of 9 lines of 9 squares, where spaces and the characters
+ *     <em>|+-=</em> are ignored, so that drawn grids can be read.</li></ul>
+ * Lines of prose, such as headings, are skipped. A line that looks like part
+ * of a puzzle but can't be read, a grid that stops short, and a puzzle that
+ * repeats a number or doesn't have exactly one solution are reported with
+ * their file and line number, and the import carries on.
+ * <br><br>
+ * Each file is read a line at a time and cut into chunks of about
+ * {@link PuzzleImporter#CHUNK_LINES} lines, always between puzzles, which are
+ * parsed, rated and put in {@link CanonicalForm} in parallel, one thread for
+ * each core. Only a few chunks are in flight at once, so files of any size
+ * can be imported. The results are then taken in the order of the file: the
+ * 128 bit fingerprint of each canonical form is looked up in a
+ * {@link LongPairSet} - a puzzle whose fingerprint was already seen is a
+ * relabeled, reordered or transposed copy, and is dropped - and the rest are
+ * written to a temporary store for their difficulty. These are joined into
+ * the output at the end, and only the fingerprints are kept in memory.
+ * <br><br>
+ * Usage: <em>PuzzleImporter &lt;output&gt; &lt;puzzle files&gt;</em> - the
+ * bundled puzzle bank is imported first. An output ending in <em>.store</em>
+ * is written as a {@link PuzzleStore}, anything else as a directory with the
+ * puzzles, solutions and index files of a bank. Run by the
+ * <em>import-puzzles</em> target in build.xml.
+ *
+ * @author Rudi Theunissen
+ */
+public class PuzzleImporter {
+
+   /** The amount of lines in a chunk, unless a grid runs over. */
+   public static final int CHUNK_LINES = 2048;
+   /** The fewest clues that a puzzle with one solution can have. */
+   private static final int MIN_CLUES = 17;
+   /** A line with 81 squares. */
+   private static final int LINE = 0;
+   /** A line with the 9 squares of a grid row. */
+   private static final int ROW = 1;
+   /** A divider line, such as one between the bands of a drawn grid. */
+   private static final int SEPARATOR = 2;
+   /** A blank line, or a line of prose. */
+   private static final int TEXT = 3;
+   /** A line that looks like part of a puzzle but can't be read. */
+   private static final int MALFORMED = 4;
+
+   /** The fingerprints of the puzzles seen so far. */
+   private final LongPairSet seen = new LongPairSet(1 << 20);
+   /** The temporary stores of each difficulty. */
+   private final PuzzleStore.Writer[] sections;
+   /** The temporary files of each difficulty. */
+   private final File[] sectionFiles;
+   /** Parses and rates the chunks. */
+   private final ExecutorService pool;
+   /** The amount of threads of the pool. */
+   private final int threads;
+   /** The canonical form of each thread. */
+   private final ThreadLocal<CanonicalForm> canonicalForms =
+           new ThreadLocal<CanonicalForm>() {
+              /**
+               * Creates the canonical form of a thread the first time it
+               * is used.
+               *
+               * @return a new canonical form.
+               */
+              @Override
+              protected CanonicalForm initialValue() {
+                 return new CanonicalForm();
+              }
+           };
+   /** The amount of puzzles read. */
+   private long read;
+   /** The amount of puzzles dropped as duplicates. */
+   private long duplicates;
+   /** The amount of records that were reported and left out. */
+   private long errors;
+
+   /**
+    * A puzzle, or a record that couldn't be read, from a chunk.
+    */
+   private static final class Record {
+
+      /** The line number that the record starts on. */
+      private int line;
+      /** The puzzle, or null if the record was left out. */
+      private int[] puzzle;
+      /** The solution of the puzzle. */
+      private int[] solution;
+      /** The difficulty of the puzzle. */
+      private int difficulty;
+      /** The fingerprint of the canonical form of the puzzle. */
+      private long[] fingerprint;
+      /** Why the record was left out, or null if it wasn't. */
+      private String error;
+   }
+
+   /**
+    * Constructor - creates the temporary stores and the threads.
+    *
+    * @param directory the directory of the temporary stores.
+    * @param threads the amount of threads that parse and rate puzzles.
+    * @throws IOException if a temporary store couldn't be created.
+    */
+   public PuzzleImporter(File directory, int threads) throws IOException {
+      sections = new PuzzleStore.Writer[PuzzleRater.SECTIONS.length];
+      sectionFiles = new File[sections.length];
+      for (int d = 0; d < sections.length; d++) {
+         sectionFiles[d] = File.createTempFile("sudoku-import-", ".store",
+                 directory);
+         sectionFiles[d].deleteOnExit();
+         sections[d] = new PuzzleStore.Writer(sectionFiles[d], true);
+      }
+      this.threads = threads;
+      pool = Executors.newFixedThreadPool(threads);
+   }
+
+   /**
+    * Runs the importer.
+    *
+    * @param args the output, and the puzzle files to import.
+    * @throws IOException if a file couldn't be read or written.
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1) {
+         System.err.println("Usage: PuzzleImporter <output> <puzzle files>");
+         System.exit(1);
+      }
+      long begin = System.nanoTime();
+      File output = new File(args[0]);
+      File directory = output.getAbsoluteFile().getParentFile();
+      directory.mkdirs();
+      PuzzleImporter importer = new PuzzleImporter(directory,
+              Runtime.getRuntime().availableProcessors());
+      long stored;
+      try {
+         importer.importFile("puzzles.sud", PuzzleFile.class
+                 .getResourceAsStream(PuzzleBank.PUZZLE_DIRECTORY
+                 + "puzzles.sud"));
+         for (int i = 1; i < args.length; i++) {
+            importer.importFile(args[i], new FileInputStream(args[i]));
+         }
+         stored = importer.finish(output);
+      } finally {
+         importer.pool.shutdown();
+      }
+      System.out.printf("read %d puzzles, dropped %d duplicates, reported %d,"
+              + " stored %d in %.1f s%n", importer.read, importer.duplicates,
+              importer.errors, stored, (System.nanoTime() - begin) / 1e9);
+   }
+
+   /**
+    * Imports every puzzle of a file.
+    *
+    * @param name the name of the file, used in reports.
+    * @param in the file contents, which are closed once read.
+    * @throws IOException if the file couldn't be read, or a puzzle couldn't
+    *         be written.
+    */
+   public void importFile(String name, InputStream in) throws IOException {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+              "US-ASCII"));
+      ArrayDeque<Future<List<Record>>> pending =
+              new ArrayDeque<Future<List<Record>>>();
+      try {
+         List<String> chunk = new ArrayList<String>();
+         List<Integer> types = new ArrayList<Integer>();
+         int chunkStart = 1;
+         int lineNumber = 0;
+         int rows = 0;
+         String line;
+         while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            int type = classify(line);
+            chunk.add(line);
+            types.add(type);
+            rows = (type == ROW) ? rows + 1 : (type == SEPARATOR) ? rows : 0;
+
+            // a chunk is only cut between puzzles.
+            if (chunk.size() >= CHUNK_LINES && rows % 9 == 0) {
+               pending.add(submit(chunk, types, chunkStart));
+               chunk = new ArrayList<String>();
+               types = new ArrayList<Integer>();
+               chunkStart = lineNumber + 1;
+               if (pending.size() > 2 * threads) {
+                  store(name, pending.poll());
+               }
+            }
+         }
+         if (!chunk.isEmpty()) {
+            pending.add(submit(chunk, types, chunkStart));
+         }
+         while (!pending.isEmpty()) {
+            store(name, pending.poll());
+         }
+      } finally {
+         reader.close();
+         for (Future<List<Record>> future : pending) {
+            future.cancel(true);
+         }
+      }
+   }
+
+   /**
+    * Starts parsing and rating a chunk on the pool.
+    *
+    * @param chunk the lines of the chunk.
+    * @param types the kind of each line, as worked out while reading.
+    * @param firstLine the line number of the first line.
+    * @return the records of the chunk, once they are ready.
+    */
+   private Future<List<Record>> submit(final List<String> chunk,
+           final List<Integer> types, final int firstLine) {
+      return pool.submit(new Callable<List<Record>>() {
+         public List<Record> call() {
+            List<Record> records = parse(chunk, types, firstLine);
+            for (Record record : records) {
+               if (record.error == null) {
+                  check(record);
+               }
+            }
+            return records;
+         }
+      });
+   }
+
+   /**
+    * Dedupes and stores the records of a chunk, and reports the ones that
+    * were left out.
+    *
+    * @param name the name of the file.
+    * @param future the records of the chunk.
+    * @throws IOException if a puzzle couldn't be written.
+    */
+   private void store(String name, Future<List<Record>> future)
+           throws IOException {
+      List<Record> records;
+      try {
+         records = future.get();
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new IOException(ex);
+      } catch (ExecutionException ex) {
+         throw new IOException(ex.getCause());
+      }
+      for (Record record : records) {
+         read++;
+         if (record.error != null) {
+            errors++;
+            System.out.println(name + ":" + record.line + ": "
+                    + record.error);
+         } else if (!seen.add(record.fingerprint[0], record.fingerprint[1])) {
+            duplicates++;
+         } else {
+            sections[record.difficulty].add(record.puzzle, record.solution);
+         }
+      }
+   }
+
+   /**
+    * Parses the records of a chunk.
+    *
+    * @param lines the lines of the chunk.
+    * @param types the kind of each line, from {@link #classify(String)}.
+    * @param firstLine the line number of the first line.
+    * @return the records, in the order of the chunk.
+    */
+   private static List<Record> parse(List<String> lines, List<Integer> types,
+           int firstLine) {
+      List<Record> records = new ArrayList<Record>();
+      int[] grid = new int[81];
+      int rows = 0;
+      int gridLine = 0;
+      for (int i = 0; i <= lines.size(); i++) {
+         // a blank line after the last one ends a grid that is still open.
+         String line = (i < lines.size()) ? lines.get(i) : "";
+         int type = (i < lines.size()) ? types.get(i) : TEXT;
+         if (type != ROW && type != SEPARATOR && rows > 0) {
+            records.add(error(gridLine, "the grid has only " + rows + " rows"));
+            rows = 0;
+         }
+         if (type == LINE) {
+            Record record = new Record();
+            record.line = firstLine + i;
+            record.puzzle = PuzzleFile.parseGrid(line);
+            records.add(record);
+         } else if (type == ROW) {
+            gridLine = (rows == 0) ? firstLine + i : gridLine;
+            readSquares(line, grid, rows * 9);
+            if (++rows == 9) {
+               Record record = new Record();
+               record.line = gridLine;
+               record.puzzle = grid.clone();
+               records.add(record);
+               rows = 0;
+            }
+         } else if (type == MALFORMED) {
+            records.add(error(firstLine + i, describe(line)));
+         }
+      }
+      return records;
+   }
+
+   /**
+    * Checks, rates and fingerprints a puzzle, or marks it as left out.
+    *
+    * @param record the record of the puzzle.
+    */
+   private void check(Record record) {
+      int clues = 0;
+      for (int value : record.puzzle) {
+         clues += (value != 0) ? 1 : 0;
+      }
+      if (clues < MIN_CLUES) {
+         // nearly empty grids are also the slowest to put in canonical form.
+         record.error = "only " + clues + " clues, so not one solution";
+         return;
+      }
+      record.solution = new int[81];
+      record.difficulty = PuzzleRater.getDifficulty(record.puzzle,
+              record.solution);
+      if (record.difficulty < 0) {
+         record.error = "a number is repeated, or not exactly one solution";
+         return;
+      }
+      int[] canonical = new int[81];
+      canonicalForms.get().canonicalize(record.puzzle, canonical);
+      record.fingerprint = new long[2];
+      CanonicalForm.fingerprint(canonical, record.fingerprint);
+   }
+
+   /**
+    * Works out what kind of line a line is.
+    *
+    * @param line the line.
+    * @return {@link #LINE}, {@link #ROW}, {@link #SEPARATOR}, {@link #TEXT} or
+    *         {@link #MALFORMED}.
+    */
+   private static int classify(String line) {
+      if (PuzzleFile.parseGrid(line) != null) {
+         return LINE;
+      }
+      int squares = 0;
+      int others = 0;
+      for (int i = 0; i < line.length(); i++) {
+         char c = line.charAt(i);
+         if ((c >= '0' && c <= '9') || c == '.') {
+            squares++;
+         } else if ("|+-= \t".indexOf(c) < 0) {
+            others++;
+         }
+      }
+      if (others == 0) {
+         if (squares == 0) {
+            return line.trim().isEmpty() ? TEXT : SEPARATOR;
+         }
+         return (squares == 9) ? ROW : MALFORMED;
+      }
+      // mostly squares, with a few wrong characters.
+      return (squares >= 2 * others && squares >= 9) ? MALFORMED : TEXT;
+   }
+
+   /**
+    * Reads the 9 squares of a grid row.
+    *
+    * @param line the line of the row.
+    * @param grid the grid to fill.
+    * @param start the array index of the first square of the row.
+    */
+   private static void readSquares(String line, int[] grid, int start) {
+      for (int i = 0; i < line.length(); i++) {
+         char c = line.charAt(i);
+         if (c >= '0' && c <= '9') {
+            grid[start++] = c - '0';
+         } else if (c == '.') {
+            grid[start++] = 0;
+         }
+      }
+   }
+
+   /**
+    * Describes what is wrong with a malformed line.
+    *
+    * @param line the line.
+    * @return the description.
+    */
+   private static String describe(String line) {
+      int squares = 0;
+      for (int i = 0; i < line.length(); i++) {
+         char c = line.charAt(i);
+         if ((c >= '0' && c <= '9') || c == '.') {
+            squares++;
+         } else if ("|+-= \t".indexOf(c) < 0) {
+            return "unexpected '" + c + "' in column " + (i + 1);
+         }
+      }
+      return "expected 81 or 9 squares, found " + squares;
+   }
+
+   /**
+    * Creates a record that was left out.
+    *
+    * @param line the line number of the record.
+    * @param error why the record was left out.
+    * @return the record.
+    */
+   private static Record error(int line, String error) {
+      Record record = new Record();
+      record.line = line;
+      record.error = error;
+      return record;
+   }
+
+   /**
+    * Joins the temporary stores into the output, one section for each
+    * difficulty, and deletes them.
+    *
+    * @param output the output - a store file if it ends in <em>.store</em>,
+    *        otherwise the directory of a bank.
+    * @return the amount of puzzles stored.
+    * @throws IOException if a store or bank couldn't be read or written.
+    */
+   public long finish(File output) throws IOException {
+      boolean toStore = output.getName().endsWith(".store");
+      PuzzleStore.Writer store = toStore
+              ? new PuzzleStore.Writer(output, true) : null;
+      PuzzleRater.BankWriter bank = toStore ? null
+              : new PuzzleRater.BankWriter(output);
+      int[] puzzle = new int[81];
+      int[] solution = new int[81];
+      long stored = 0;
+      try {
+         for (int d = 0; d < sections.length; d++) {
+            sections[d].close();
+            PuzzleStore section = PuzzleStore.open(sectionFiles[d]);
+            String name = PuzzleRater.SECTIONS[d];
+            if (toStore) {
+               store.startSection(name);
+            } else {
+               bank.startSection(name, section.size());
+            }
+            for (long r = 0; r < section.size(); r++) {
+               section.readPuzzle(r, puzzle);
+               section.readSolution(r, solution);
+               if (toStore) {
+                  store.add(puzzle, solution);
+               } else {
+                  bank.add(puzzle, solution);
+               }
+            }
+            stored += section.size();
+            System.out.printf("%-11s %d puzzles%n", name, section.size());
+         }
+      } finally {
+         if (toStore) {
+            store.close();
+         } else {
+            bank.close();
+         }
+         for (File file : sectionFiles) {
+            file.delete();
+         }
+      }
+      return stored;
+   }
+}
@@ -0,0 +1,408 @@
+/* File: PuzzleRater.java  -  April 2011 */
+package sudoku;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rates every puzzle of the bank and rewrites it into difficulty sections of
+ * any size, with a generated index.
+ *
+ * Each puzzle is rated by the logical techniques it needs - found by playing
+ * it out with {@link Hint#nextLogicalStep(int[])} - and by the search effort
+ * of the {@link Solver}, the amount of numbers it tries. Puzzles are then put
+ * into the sections:<ul>
+ * <li><strong>Beginner</strong> - solved with naked singles only.</li>
+ * <li><strong>Average</strong> - also needs hidden singles.</li>
+ * <li><strong>Difficult</strong> - needs a search, of fewer numbers than the
+ *     threshold.</li>
+ * <li><strong>Ridiculous</strong> - needs a search of at least the threshold.
+ *     </li></ul>
+ *
+ * Puzzles that repeat a number, or don't have exactly one solution, are left
+ * out. The solutions file is written from the solver, and
+ * <em>puzzles.idx</em> lists the first line and size of each section, which
+ * {@link PuzzleBank} reads. Puzzles are rated in parallel, one thread for
+ * each core.
+ * <br><br>
+ * Usage: <em>PuzzleRater &lt;output dir&gt; [threshold] [puzzle files]</em>
+ * - reads the bundled puzzle bank unless files are given. Run by the
+ * <em>rate-puzzles</em> target in build.xml.
+ *
+ * @author Rudi Theunissen
+ */
+public class PuzzleRater {
+
+   /** The names of the sections, in order of difficulty. */
+   static final String[] SECTIONS = {"Beginner", "Average",
+      "Difficult", "Ridiculous"};
+   /** The default search effort of the Ridiculous section. */
+   private static final long DEFAULT_THRESHOLD = 20000;
+   /** The line ending of the puzzle files. */
+   private static final String NEWLINE = "\r\n";
+
+   /**
+    * The rating of a single puzzle.
+    */
+   private static class Rating {
+
+      /** The puzzle. */
+      private int[] puzzle;
+      /** The solution, if the puzzle has exactly one. */
+      private int[] solution;
+      /** Where the puzzle came from, used when it's left out. */
+      private String source;
+      /** Why the puzzle was left out, or null if it wasn't. */
+      private String rejected;
+      /** 0 for naked singles only, 1 if hidden singles are needed, 2 if a
+       *  search is needed. */
+      private int techniques;
+      /** The amount of numbers the solver tried. */
+      private long nodes;
+   }
+
+   /**
+    * Runs the rater.
+    *
+    * @param args the output directory, and optionally the threshold and the
+    *        puzzle files to read.
+    * @throws Exception if a file couldn't be read or written.
+    */
+   public static void main(String[] args) throws Exception {
+      if (args.length < 1) {
+         System.err.println(
+                 "Usage: PuzzleRater <output dir> [threshold] [puzzle files]");
+         System.exit(1);
+      }
+      File output = new File(args[0]);
+      long threshold = (args.length > 1) ? Long.parseLong(args[1])
+              : DEFAULT_THRESHOLD;
+
+      List<PuzzleFile> files = new ArrayList<PuzzleFile>();
+      List<String> names = new ArrayList<String>();
+      if (args.length > 2) {
+         for (int i = 2; i < args.length; i++) {
+            files.add(PuzzleFile.read(new FileInputStream(args[i])));
+            names.add(args[i]);
+         }
+      } else {
+         files.add(PuzzleFile.readBank());
+         names.add("puzzles.sud");
+      }
+
+      long begin = System.nanoTime();
+      List<Rating> ratings = rateAll(files, names);
+      System.out.printf("rated %d puzzles in %.1f s%n", ratings.size(),
+              (System.nanoTime() - begin) / 1e9);
+
+      List<List<Rating>> sections = new ArrayList<List<Rating>>();
+      for (int s = 0; s < SECTIONS.length; s++) {
+         sections.add(new ArrayList<Rating>());
+      }
+      for (Rating rating : ratings) {
+         if (rating.rejected != null) {
+            System.out.println("left out " + rating.source + ": "
+                    + rating.rejected);
+         } else {
+            sections.get(getSection(rating, threshold)).add(rating);
+         }
+      }
+      for (int s = 0; s < SECTIONS.length; s++) {
+         System.out.printf("%-11s %d puzzles%n", SECTIONS[s],
+                 sections.get(s).size());
+         if (sections.get(s).isEmpty()) {
+            System.err.println("The " + SECTIONS[s] + " section is empty.");
+            System.exit(1);
+         }
+      }
+      write(output, sections);
+   }
+
+   /**
+    * Rates every puzzle in parallel.
+    *
+    * @param files the puzzle files.
+    * @param names the names of the files.
+    * @return the ratings, in the order of the files.
+    * @throws InterruptedException if the rating was interrupted.
+    * @throws ExecutionException if a puzzle couldn't be rated.
+    */
+   private static List<Rating> rateAll(List<PuzzleFile> files,
+           List<String> names) throws InterruptedException, ExecutionException {
+      ExecutorService pool = Executors.newFixedThreadPool(
+              Runtime.getRuntime().availableProcessors());
+      List<Future<Rating>> pending = new ArrayList<Future<Rating>>();
+      for (int f = 0; f < files.size(); f++) {
+         for (PuzzleFile.Section section : files.get(f).getSections()) {
+            List<int[]> puzzles = section.getPuzzles();
+            for (int i = 0; i < puzzles.size(); i++) {
+               final int[] puzzle = puzzles.get(i);
+               final String source = names.get(f) + ":"
+                       + section.getLineNumber(i);
+               pending.add(pool.submit(new Callable<Rating>() {
+                  public Rating call() {
+                     return rate(puzzle, source);
+                  }
+               }));
+            }
+         }
+      }
+      pool.shutdown();
+
+      List<Rating> ratings = new ArrayList<Rating>();
+      for (Future<Rating> rating : pending) {
+         ratings.add(rating.get());
+      }
+      return ratings;
+   }
+
+   /**
+    * Rates a single puzzle with the default threshold.
+    *
+    * @param puzzle the puzzle, 0 for an empty square.
+    * @return the index of the section the puzzle belongs in, or -1 if it
+    *         would be left out.
+    */
+   public static int getDifficulty(int[] puzzle) {
+      return getDifficulty(puzzle, null);
+   }
+
+   /**
+    * Rates a single puzzle with the default threshold, and keeps its solution.
+    *
+    * @param puzzle the puzzle, 0 for an empty square.
+    * @param solution filled with the solution of the puzzle if it isn't left
+    *        out, or null.
+    * @return the index of the section the puzzle belongs in, or -1 if it
+    *         would be left out.
+    */
+   public static int getDifficulty(int[] puzzle, int[] solution) {
+      Rating rating = rate(puzzle, null);
+      if (rating.rejected != null) {
+         return -1;
+      }
+      if (solution != null) {
+         System.arraycopy(rating.solution, 0, solution, 0, 81);
+      }
+      return getSection(rating, DEFAULT_THRESHOLD);
+   }
+
+   /**
+    * Rates a single puzzle.
+    *
+    * @param puzzle the puzzle.
+    * @param source where the puzzle came from.
+    * @return the rating.
+    */
+   private static Rating rate(int[] puzzle, String source) {
+      Rating rating = new Rating();
+      rating.puzzle = puzzle;
+      rating.source = source;
+
+      ArrayList<Integer> clues = new ArrayList<Integer>();
+      for (int i = 0; i < 81; i++) {
+         if (puzzle[i] != 0) {
+            clues.add(i);
+         }
+      }
+      rating.rejected = Algorithms.getInvalidReason(puzzle, clues);
+      if (rating.rejected != null) {
+         return rating;
+      }
+      Solver solver = new Solver();
+      int solutions = solver.countSolutions(puzzle, 2);
+      rating.nodes = solver.getNodeCount();
+      if (solutions != 1) {
+         rating.rejected = (solutions == 0) ? "no solution"
+                 : "more than one solution";
+         return rating;
+      }
+      rating.solution = solver.getSolvedArray().clone();
+
+      int[] grid = puzzle.clone();
+      Hint hint;
+      while ((hint = Hint.nextLogicalStep(grid)) != null) {
+         if (hint.getTechnique() == Hint.Technique.HIDDEN_SINGLE) {
+            rating.techniques = Math.max(rating.techniques, 1);
+         } else if (hint.getTechnique() != Hint.Technique.NAKED_SINGLE) {
+            rating.techniques = 2;
+            break;
+         }
+         grid[hint.getIndex()] = hint.getValue();
+      }
+      return rating;
+   }
+
+   /**
+    * Returns the section that a puzzle belongs in.
+    *
+    * @param rating the rating of the puzzle.
+    * @param threshold the search effort of the Ridiculous section.
+    * @return the index of the section.
+    */
+   private static int getSection(Rating rating, long threshold) {
+      if (rating.techniques < 2) {
+         return rating.techniques;
+      }
+      return (rating.nodes < threshold) ? 2 : 3;
+   }
+
+   /**
+    * Writes the puzzles, solutions and index files, with the puzzles of each
+    * section ordered from easiest to hardest.
+    *
+    * @param output the output directory.
+    * @param sections the puzzles of each section.
+    * @throws IOException if a file couldn't be written.
+    */
+   private static void write(File output, List<List<Rating>> sections)
+           throws IOException {
+      BankWriter writer = new BankWriter(output);
+      try {
+         for (int s = 0; s < SECTIONS.length; s++) {
+            List<Rating> section = sections.get(s);
+            Collections.sort(section, new Comparator<Rating>() {
+               public int compare(Rating a, Rating b) {
+                  if (a.techniques != b.techniques) {
+                     return a.techniques - b.techniques;
+                  }
+                  return Long.compare(a.nodes, b.nodes);
+               }
+            });
+            writer.startSection(SECTIONS[s], section.size());
+            for (Rating rating : section) {
+               writer.add(rating.puzzle, rating.solution);
+            }
+         }
+      } finally {
+         writer.close();
+      }
+      System.out.println("wrote the bank to " + output);
+   }
+
+   /**
+    * Writes a puzzle bank - the puzzles, solutions and index files that
+    * {@link PuzzleBank} reads - one section and puzzle at a time.
+    */
+   public static final class BankWriter {
+
+      /** The puzzles file. */
+      private final PrintWriter puzzles;
+      /** The solutions file. */
+      private final PrintWriter solutions;
+      /** The index file. */
+      private final PrintWriter index;
+      /** The line number of the last line written. */
+      private int line;
+
+      /**
+       * Constructor - creates the files and writes their headers.
+       *
+       * @param output the output directory.
+       * @throws IOException if a file couldn't be created.
+       */
+      public BankWriter(File output) throws IOException {
+         output.mkdirs();
+         puzzles = open(new File(output, "puzzles.sud"));
+         solutions = open(new File(output, "solutions.sud"));
+         index = open(new File(output, "puzzles.idx"));
+         String rule = "______________________________________________________"
+                 + "________________";
+         puzzles.print("PUZZLES FOR SUDOKU" + NEWLINE
+                 + "Note: Generated by PuzzleRater - the first line and size"
+                 + " of each section" + NEWLINE
+                 + "      are listed in puzzles.idx." + NEWLINE + rule + NEWLINE);
+         solutions.print("SOLUTIONS FOR PUZZLES" + NEWLINE
+                 + "Note: Generated by PuzzleRater - each solution is on the"
+                 + " same line as its" + NEWLINE
+                 + "      puzzle in puzzles.sud." + NEWLINE + rule + NEWLINE);
+         index.print("# Generated by PuzzleRater - section, first line and"
+                 + " amount of puzzles." + NEWLINE);
+         line = 4;
+      }
+
+      /**
+       * Starts a section, which must be followed by exactly its amount of
+       * puzzles.
+       *
+       * @param name the name of the section, such as <em>Beginner</em>.
+       * @param size the amount of puzzles in the section.
+       */
+      public void startSection(String name, long size) {
+         String divider = "======================================"
+                 + "================================";
+         puzzles.print(NEWLINE + name + " Puzzles: " + size + NEWLINE
+                 + divider + NEWLINE);
+         solutions.print(NEWLINE + name + " Puzzle Solutions: " + size
+                 + NEWLINE + divider + NEWLINE);
+         line += 3;
+         index.print(name + " " + (line + 1) + " " + size + NEWLINE);
+      }
+
+      /**
+       * Adds a puzzle and its solution to the current section.
+       *
+       * @param puzzle the 81 values of the puzzle, 0 for an empty square.
+       * @param solution the 81 values of the solution.
+       */
+      public void add(int[] puzzle, int[] solution) {
+         puzzles.print(toLine(puzzle) + NEWLINE);
+         solutions.print(toLine(solution) + NEWLINE);
+         line++;
+      }
+
+      /**
+       * Closes the files.
+       *
+       * @throws IOException if a file couldn't be written.
+       */
+      public void close() throws IOException {
+         puzzles.close();
+         solutions.close();
+         index.close();
+         if (puzzles.checkError() || solutions.checkError()
+                 || index.checkError()) {
+            throw new IOException("The bank couldn't be written.");
+         }
+      }
+   }
+
+   /**
+    * Opens a file for writing.
+    *
+    * @param file the file.
+    * @return a writer for the file.
+    * @throws IOException if the file couldn't be opened.
+    */
+   private static PrintWriter open(File file) throws IOException {
+      return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),
+              "US-ASCII"));
+   }
+
+   /**
+    * Writes a grid as a line of 81 digits.
+    *
+    * @param grid the grid.
+    * @return the line.
+    */
+   private static String toLine(int[] grid) {
+      StringBuilder line = new StringBuilder(81);
+      for (int value : grid) {
+         line.append((char) ('0' + value));
+      }
+      return line.toString();
+   }
+}
@@ -0,0 +1,292 @@
+/* File: PuzzleReducer.java  -  April 2011 */
+package sudoku;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reduces a puzzle to a minimal puzzle - one with the same single solution,
+ * where removing any of its clues would give it more than one.
+ *
+ * The clues are tried in a random order, and each is removed if the puzzle
+ * still has a single solution without it, as
+ * {@link PuzzleGenerator#minimalPuzzle(int[])} does for a full grid. Rather
+ * than checking one clue at a time, the next few clues are checked at once,
+ * one on each thread: the first check removes the next clue, the second the
+ * next two, and so on. Removing clues can only add solutions, so the longest
+ * run of clues that can be removed together is removed, and the clue after it
+ * is kept for good. The other checks are cancelled as soon as an earlier one
+ * fails. Each check stops at a second solution, see
+ * {@link Solver#countSolutions(int[], int)}. The result is the same as
+ * removing the clues one at a time in that order.
+ * <br><br>
+ * Different orders can give different minimal puzzles, so a puzzle can be
+ * reduced to several, which are often harder than the puzzle they came from.
+ * <br><br>
+ * Usage: <em>PuzzleReducer &lt;output&gt; &lt;variants&gt; &lt;puzzle
+ * files&gt;</em> - writes the minimal puzzles of every puzzle in the files,
+ * one to a line, which the {@link PuzzleImporter} can rate and merge into the
+ * bank. Run by the <em>reduce-puzzles</em> target in build.xml.
+ *
+ * @author Rudi Theunissen
+ */
+public class PuzzleReducer {
+
+   /** Checks the runs of clues. */
+   private final ExecutorService pool;
+   /** The amount of threads of the pool, and of clues checked at once. */
+   private final int threads;
+
+   /**
+    * Constructor - creates the threads, which are daemons so that they never
+    * keep the app open.
+    *
+    * @param threads the amount of threads that check clues.
+    */
+   public PuzzleReducer(int threads) {
+      this.threads = threads;
+      pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+         public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "Sudoku reducer");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   /**
+    * Runs the reducer.
+    *
+    * @param args the output, the amount of minimal puzzles to find for each
+    *        puzzle, and the puzzle files.
+    * @throws IOException if a file couldn't be read or written.
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 3) {
+         System.err.println("Usage: PuzzleReducer <output> <variants>"
+                 + " <puzzle files>");
+         System.exit(1);
+      }
+      long begin = System.nanoTime();
+      int variants = Integer.parseInt(args[1]);
+      PuzzleReducer reducer = new PuzzleReducer(
+              Runtime.getRuntime().availableProcessors());
+      Random random = new Random(2011);
+      int[] before = new int[5];
+      int[] after = new int[5];
+      long clues = 0;
+      long written = 0;
+      long skipped = 0;
+      PrintWriter out = new PrintWriter(args[0], "US-ASCII");
+      try {
+         for (int f = 2; f < args.length; f++) {
+            InputStream in = new FileInputStream(args[f]);
+            PuzzleFile file;
+            try {
+               file = PuzzleFile.read(in);
+            } finally {
+               in.close();
+            }
+            for (PuzzleFile.Section section : file.getSections()) {
+               for (int[] puzzle : section.getPuzzles()) {
+                  List<int[]> reduced = reducer.reduce(puzzle,
+                          Constraints.CLASSIC, variants, random);
+                  if (reduced.isEmpty()) {
+                     skipped++;
+                     continue;
+                  }
+                  before[PuzzleRater.getDifficulty(puzzle) + 1]++;
+                  for (int[] minimal : reduced) {
+                     after[PuzzleRater.getDifficulty(minimal) + 1]++;
+                     clues += countClues(minimal);
+                     out.println(toLine(minimal));
+                     written++;
+                  }
+               }
+            }
+         }
+      } finally {
+         out.close();
+      }
+      System.out.printf("wrote %d minimal puzzles, %.1f clues on average;"
+              + " skipped %d without a single solution, in %.1f s%n",
+              written, (double) clues / Math.max(1, written), skipped,
+              (System.nanoTime() - begin) / 1e9);
+      for (int d = 0; d < PuzzleRater.SECTIONS.length; d++) {
+         System.out.printf("%-11s %6d before %6d after%n",
+                 PuzzleRater.SECTIONS[d], before[d + 1], after[d + 1]);
+      }
+   }
+
+   /**
+    * Reduces a puzzle to several different minimal puzzles.
+    *
+    * @param puzzle the 81 values of the puzzle, 0 for an empty square.
+    * @param constraints the rules of the puzzle.
+    * @param variants the most minimal puzzles to find - up to four times as
+    *        many orders are tried to find different ones.
+    * @param random chooses the orders of the clues.
+    * @return the minimal puzzles, or an empty list if the puzzle doesn't have
+    *         exactly one solution.
+    */
+   public List<int[]> reduce(int[] puzzle, Constraints constraints,
+           int variants, Random random) {
+      List<int[]> reduced = new ArrayList<int[]>();
+      if (!isUnique(puzzle, constraints, new Solver())) {
+         return reduced;
+      }
+      for (int attempt = 0; attempt < 4 * variants
+              && reduced.size() < variants; attempt++) {
+         int[] minimal = reduce(puzzle, constraints, random);
+         boolean found = false;
+         for (int[] other : reduced) {
+            found |= Arrays.equals(other, minimal);
+         }
+         if (!found) {
+            reduced.add(minimal);
+         }
+      }
+      return reduced;
+   }
+
+   /**
+    * Reduces a puzzle with a single solution to a minimal puzzle.
+    *
+    * @param puzzle the 81 values of the puzzle, 0 for an empty square.
+    * @param constraints the rules of the puzzle.
+    * @param random chooses the order of the clues.
+    * @return the minimal puzzle.
+    */
+   public int[] reduce(int[] puzzle, Constraints constraints, Random random) {
+      int[] clues = new int[countClues(puzzle)];
+      for (int i = 0, c = 0; i < 81; i++) {
+         if (puzzle[i] != 0) {
+            clues[c++] = i;
+         }
+      }
+      for (int i = clues.length - 1; i > 0; i--) {
+         int j = random.nextInt(i + 1);
+         int swap = clues[i];
+         clues[i] = clues[j];
+         clues[j] = swap;
+      }
+
+      int[] reduced = puzzle.clone();
+      int next = 0;
+      while (next < clues.length) {
+         int run = Math.min(threads, clues.length - next);
+         int removed = checkRuns(reduced, constraints, clues, next, run);
+         for (int c = next; c < next + removed; c++) {
+            reduced[clues[c]] = 0;
+         }
+         // the clue after the run can't be removed, now or later.
+         next += Math.min(removed + 1, run);
+      }
+      return reduced;
+   }
+
+   /**
+    * Checks runs of the next clues in parallel.
+    *
+    * @param puzzle the puzzle so far.
+    * @param constraints the rules of the puzzle.
+    * @param clues the clues, in the order they are tried.
+    * @param next the index of the first clue of the runs.
+    * @param runs the amount of runs, the longest being that many clues.
+    * @return the length of the longest run of clues that can be removed
+    *         together, all runs up to it being removable too.
+    */
+   private int checkRuns(int[] puzzle, final Constraints constraints,
+           int[] clues, int next, int runs) {
+      List<Future<Boolean>> checks = new ArrayList<Future<Boolean>>();
+      final Solver[] solvers = new Solver[runs];
+      for (int r = 0; r < runs; r++) {
+         final int[] grid = puzzle.clone();
+         for (int c = next; c <= next + r; c++) {
+            grid[clues[c]] = 0;
+         }
+         solvers[r] = new Solver();
+         final Solver solver = solvers[r];
+         checks.add(pool.submit(new Callable<Boolean>() {
+            public Boolean call() {
+               return isUnique(grid, constraints, solver);
+            }
+         }));
+      }
+
+      int removed = 0;
+      try {
+         while (removed < runs && checks.get(removed).get()) {
+            removed++;
+         }
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException(ex);
+      } catch (ExecutionException ex) {
+         throw new IllegalStateException(ex.getCause());
+      } finally {
+         // the longer runs can't be removed either.
+         for (int r = removed; r < runs; r++) {
+            solvers[r].cancel();
+            checks.get(r).cancel(false);
+         }
+      }
+      return removed;
+   }
+
+   /**
+    * Returns true if a grid has exactly one solution.
+    *
+    * @param grid the grid.
+    * @param constraints the rules of the grid.
+    * @param solver the solver to count the solutions with.
+    * @return true if the grid has one solution.
+    */
+   private static boolean isUnique(int[] grid, Constraints constraints,
+           Solver solver) {
+      solver.setConstraints(constraints);
+      return solver.checkValidSolveRequest(grid)
+              && solver.countSolutions(grid, 2) == 1
+              && !solver.isCancelled();
+   }
+
+   /**
+    * Returns the amount of clues of a puzzle.
+    *
+    * @param puzzle the puzzle.
+    * @return the amount of squares that aren't empty.
+    */
+   private static int countClues(int[] puzzle) {
+      int clues = 0;
+      for (int value : puzzle) {
+         clues += (value != 0) ? 1 : 0;
+      }
+      return clues;
+   }
+
+   /**
+    * Writes a grid as a line of 81 digits.
+    *
+    * @param grid the grid.
+    * @return the line.
+    */
+   private static String toLine(int[] grid) {
+      StringBuilder line = new StringBuilder(81);
+      for (int value : grid) {
+         line.append(value);
+      }
+      return line.toString();
+   }
+}
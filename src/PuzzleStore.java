@@ -0,0 +1,612 @@
+/* File: PuzzleStore.java  -  April 2011 */
+package sudoku;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A bank of puzzles that is kept outside of the heap, so that it can hold
+ * millions of puzzles without using more heap or making more garbage.
+ *
+ * Each puzzle is a fixed-width record of 41 bytes - a nibble for each square,
+ * two squares to a byte - followed by its solution in another 41 bytes if the
+ * store has solutions. A store file is memory mapped, in segments of up to
+ * {@link PuzzleStore#SEGMENT_BYTES}, and a store made from a
+ * {@link PuzzleFile} is kept in direct buffers. Puzzles are read into arrays
+ * that the caller provides, by record number, and can be read from any
+ * thread.
+ * <br><br>
+ * A store file starts with a header of {@link PuzzleStore#HEADER_SIZE} bytes -
+ * a magic number, the version, the flags, the amount of sections and the
+ * amount of records - then has the records, and ends with the first record,
+ * size and name of each section. Store files are written with a
+ * {@link PuzzleStore.Writer}.
+ * <br><br>
+ * Usage: <em>PuzzleStore &lt;output&gt; [puzzle files | -generate count
+ * [seed]]</em> - converts the bundled puzzle bank, or the given files, or a
+ * number of generated puzzles, to a store file. Run by the
+ * <em>store-puzzles</em> target in build.xml.
+ *
+ * @author Rudi Theunissen
+ */
+public final class PuzzleStore {
+
+   /** The bytes of a header. */
+   public static final int HEADER_SIZE = 24;
+   /** The most bytes that are mapped as one segment. */
+   public static final int SEGMENT_BYTES = 1 << 30;
+
+   /** The magic number of a store file, "SDKP". */
+   private static final int MAGIC = 0x53444b50;
+   /** The version of the store format. */
+   private static final int VERSION = 1;
+   /** The flag of a store that has solutions. */
+   private static final int HAS_SOLUTIONS = 1;
+   /** The bytes of a packed grid. */
+   private static final int GRID_BYTES = 41;
+   /** The amount of puzzles generated by each task of <em>-generate</em>. */
+   private static final int GENERATE_BATCH = 16;
+   /** Times the opening of a store. */
+   private static final Metrics.Timer OPEN = Metrics.timer("store.open");
+
+   /** The segments of records. */
+   private final ByteBuffer[] segments;
+   /** The amount of records in each segment, except maybe the last. */
+   private final int segmentRecords;
+   /** The bytes of each record. */
+   private final int recordBytes;
+   /** The amount of records. */
+   private final long size;
+   /** True if each record has a solution. */
+   private final boolean solutions;
+   /** The name of each section. */
+   private final String[] sectionNames;
+   /** The first record of each section. */
+   private final long[] sectionStarts;
+   /** The amount of records in each section. */
+   private final long[] sectionSizes;
+
+   /**
+    * Private Constructor - creates a store over its segments.
+    *
+    * @param segments the segments of records.
+    * @param size the amount of records.
+    * @param solutions true if each record has a solution.
+    * @param names the name of each section.
+    * @param starts the first record of each section.
+    * @param sizes the amount of records in each section.
+    */
+   private PuzzleStore(ByteBuffer[] segments, long size, boolean solutions,
+           String[] names, long[] starts, long[] sizes) {
+      this.segments = segments;
+      this.size = size;
+      this.solutions = solutions;
+      this.recordBytes = getRecordBytes(solutions);
+      this.segmentRecords = SEGMENT_BYTES / recordBytes;
+      this.sectionNames = names;
+      this.sectionStarts = starts;
+      this.sectionSizes = sizes;
+   }
+
+   /**
+    * Opens a store file, mapping it into memory.
+    *
+    * @param file the store file.
+    * @return the store.
+    * @throws IOException if the file couldn't be read, or isn't a store.
+    */
+   public static PuzzleStore open(File file) throws IOException {
+      long begin = System.nanoTime();
+      Probes.Sink probe = Probes.getSink();
+      Object event = (probe != null) ? probe.loadStarted() : null;
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         FileChannel channel = raf.getChannel();
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+         channel.read(header, 0);
+         header.flip();
+         if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+                 || header.getInt() != VERSION) {
+            throw new IOException(file + " isn't a puzzle store.");
+         }
+         boolean solutions = (header.getInt() & HAS_SOLUTIONS) != 0;
+         int sections = header.getInt();
+         long size = header.getLong();
+
+         int recordBytes = getRecordBytes(solutions);
+         long perSegment = SEGMENT_BYTES / recordBytes;
+         ByteBuffer[] segments = new ByteBuffer[
+                 (int) ((size + perSegment - 1) / perSegment)];
+         for (int s = 0; s < segments.length; s++) {
+            long records = Math.min(perSegment, size - s * perSegment);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + s * perSegment * recordBytes,
+                    records * recordBytes);
+         }
+
+         long tableStart = HEADER_SIZE + size * recordBytes;
+         ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY,
+                 tableStart, channel.size() - tableStart);
+         String[] names = new String[sections];
+         long[] starts = new long[sections];
+         long[] sizes = new long[sections];
+         for (int s = 0; s < sections; s++) {
+            starts[s] = table.getLong();
+            sizes[s] = table.getLong();
+            byte[] name = new byte[table.getShort()];
+            table.get(name);
+            names[s] = new String(name, "US-ASCII");
+         }
+         OPEN.recordSince(begin);
+         if (event != null) {
+            probe.loadFinished(event, file.getName(), size);
+         }
+         return new PuzzleStore(segments, size, solutions, names, starts,
+                 sizes);
+      } finally {
+         // the mappings stay valid once the file is closed.
+         raf.close();
+      }
+   }
+
+   /**
+    * Copies the puzzles of a puzzle file into a store in direct buffers,
+    * without solutions.
+    *
+    * @param file the puzzle file.
+    * @return the store.
+    */
+   public static PuzzleStore copyOf(PuzzleFile file) {
+      List<PuzzleFile.Section> sections = file.getSections();
+      String[] names = new String[sections.size()];
+      long[] starts = new long[sections.size()];
+      long[] sizes = new long[sections.size()];
+      long size = 0;
+      for (int s = 0; s < names.length; s++) {
+         names[s] = sections.get(s).getName();
+         starts[s] = size;
+         sizes[s] = sections.get(s).getPuzzles().size();
+         size += sizes[s];
+      }
+
+      int perSegment = SEGMENT_BYTES / GRID_BYTES;
+      ByteBuffer[] segments = new ByteBuffer[
+              (int) ((size + perSegment - 1) / perSegment)];
+      for (int s = 0; s < segments.length; s++) {
+         segments[s] = ByteBuffer.allocateDirect(
+                 (int) Math.min(perSegment, size - (long) s * perSegment)
+                 * GRID_BYTES);
+      }
+      long record = 0;
+      for (PuzzleFile.Section section : sections) {
+         for (int[] puzzle : section.getPuzzles()) {
+            ByteBuffer segment = segments[(int) (record / perSegment)];
+            segment.position((int) (record % perSegment) * GRID_BYTES);
+            pack(puzzle, segment);
+            record++;
+         }
+      }
+      return new PuzzleStore(segments, size, false, names, starts, sizes);
+   }
+
+   /**
+    * Reads a puzzle.
+    *
+    * @param record the record number, from 0.
+    * @param grid filled with the 81 values of the puzzle, 0 for an empty
+    *        square.
+    */
+   public void readPuzzle(long record, int[] grid) {
+      unpack(record, 0, grid);
+   }
+
+   /**
+    * Reads the solution of a puzzle.
+    *
+    * @param record the record number, from 0.
+    * @param grid filled with the 81 values of the solution.
+    * @throws IllegalStateException if the store has no solutions.
+    */
+   public void readSolution(long record, int[] grid) {
+      if (!solutions) {
+         throw new IllegalStateException("The store has no solutions.");
+      }
+      unpack(record, GRID_BYTES, grid);
+   }
+
+   /**
+    * Returns the amount of puzzles.
+    *
+    * @return the amount of records.
+    */
+   public long size() {
+      return size;
+   }
+
+   /**
+    * Returns true if each puzzle has its solution.
+    *
+    * @return true if {@link #readSolution(long, int[])} can be used.
+    */
+   public boolean hasSolutions() {
+      return solutions;
+   }
+
+   /**
+    * Returns the amount of sections, usually one for each difficulty.
+    *
+    * @return the amount of sections.
+    */
+   public int getSectionCount() {
+      return sectionNames.length;
+   }
+
+   /**
+    * Returns the name of a section.
+    *
+    * @param section the section.
+    * @return the name, such as <em>Beginner</em>.
+    */
+   public String getSectionName(int section) {
+      return sectionNames[section];
+   }
+
+   /**
+    * Returns the first record of a section.
+    *
+    * @param section the section.
+    * @return the record number.
+    */
+   public long getSectionStart(int section) {
+      return sectionStarts[section];
+   }
+
+   /**
+    * Returns the amount of records in a section.
+    *
+    * @param section the section.
+    * @return the amount of records.
+    */
+   public long getSectionSize(int section) {
+      return sectionSizes[section];
+   }
+
+   /**
+    * Unpacks a grid of a record.
+    *
+    * @param record the record number.
+    * @param offset the offset of the grid in the record.
+    * @param grid filled with the 81 values.
+    */
+   private void unpack(long record, int offset, int[] grid) {
+      if (record < 0 || record >= size) {
+         throw new IndexOutOfBoundsException("Record " + record + " of "
+                 + size);
+      }
+      ByteBuffer segment = segments[(int) (record / segmentRecords)];
+      int base = (int) (record % segmentRecords) * recordBytes + offset;
+      for (int b = 0; b < 40; b++) {
+         int pair = segment.get(base + b);
+         grid[2 * b] = pair & 0xf;
+         grid[2 * b + 1] = (pair >> 4) & 0xf;
+      }
+      grid[80] = segment.get(base + 40) & 0xf;
+   }
+
+   /**
+    * Packs a grid at the position of a buffer.
+    *
+    * @param grid the 81 values.
+    * @param buffer the buffer, whose position moves past the grid.
+    */
+   private static void pack(int[] grid, ByteBuffer buffer) {
+      for (int b = 0; b < 40; b++) {
+         buffer.put((byte) (grid[2 * b] | (grid[2 * b + 1] << 4)));
+      }
+      buffer.put((byte) grid[80]);
+   }
+
+   /**
+    * Returns the bytes of each record.
+    *
+    * @param solutions true if each record has a solution.
+    * @return the bytes of each record.
+    */
+   private static int getRecordBytes(boolean solutions) {
+      return solutions ? 2 * GRID_BYTES : GRID_BYTES;
+   }
+
+   /**
+    * Writes a store file, one record at a time, so that its puzzles never have
+    * to be held in memory at once.
+    */
+   public static final class Writer {
+
+      /** The file being written. */
+      private final RandomAccessFile file;
+      /** The channel of the file. */
+      private final FileChannel channel;
+      /** Records waiting to be written. */
+      private final ByteBuffer buffer;
+      /** True if each record has a solution. */
+      private final boolean solutions;
+      /** The name of each section. */
+      private final List<String> names = new ArrayList<String>();
+      /** The first record of each section. */
+      private final List<Long> starts = new ArrayList<Long>();
+      /** The amount of records written. */
+      private long size;
+
+      /**
+       * Constructor - creates or replaces a store file.
+       *
+       * @param output the store file.
+       * @param solutions true if each record has a solution.
+       * @throws IOException if the file couldn't be created.
+       */
+      public Writer(File output, boolean solutions) throws IOException {
+         this.solutions = solutions;
+         file = new RandomAccessFile(output, "rw");
+         file.setLength(0);
+         channel = file.getChannel();
+         channel.position(HEADER_SIZE);
+         buffer = ByteBuffer.allocateDirect(1 << 16);
+      }
+
+      /**
+       * Starts a section, which holds every record added until the next
+       * section is started.
+       *
+       * @param name the name of the section, such as <em>Beginner</em>.
+       */
+      public void startSection(String name) {
+         names.add(name);
+         starts.add(size);
+      }
+
+      /**
+       * Adds a record. Records added before the first section are put in a
+       * section called <em>All</em>.
+       *
+       * @param puzzle the 81 values of the puzzle, 0 for an empty square.
+       * @param solution the 81 values of the solution, or null if the store
+       *        has no solutions.
+       * @throws IOException if the record couldn't be written.
+       */
+      public void add(int[] puzzle, int[] solution) throws IOException {
+         if (names.isEmpty()) {
+            startSection("All");
+         }
+         if (buffer.remaining() < getRecordBytes(solutions)) {
+            flush();
+         }
+         pack(puzzle, buffer);
+         if (solutions) {
+            pack(solution, buffer);
+         }
+         size++;
+      }
+
+      /**
+       * Returns the amount of records added so far.
+       *
+       * @return the amount of records.
+       */
+      public long size() {
+         return size;
+      }
+
+      /**
+       * Writes the sections and the header, and closes the file.
+       *
+       * @throws IOException if the file couldn't be written.
+       */
+      public void close() throws IOException {
+         try {
+            flush();
+            for (int s = 0; s < names.size(); s++) {
+               long end = (s + 1 < names.size()) ? starts.get(s + 1) : size;
+               byte[] name = names.get(s).getBytes("US-ASCII");
+               buffer.putLong(starts.get(s));
+               buffer.putLong(end - starts.get(s));
+               buffer.putShort((short) name.length);
+               buffer.put(name);
+               if (buffer.remaining() < 1024) {
+                  flush();
+               }
+            }
+            flush();
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(solutions ? HAS_SOLUTIONS : 0);
+            buffer.putInt(names.size());
+            buffer.putLong(size);
+            buffer.flip();
+            channel.write(buffer, 0);
+         } finally {
+            file.close();
+         }
+      }
+
+      /**
+       * Writes the buffered bytes to the end of the file.
+       *
+       * @throws IOException if the bytes couldn't be written.
+       */
+      private void flush() throws IOException {
+         buffer.flip();
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+         buffer.clear();
+      }
+   }
+
+   /**
+    * Converts puzzles to a store file.
+    *
+    * @param args the output file, and optionally the puzzle files to read, or
+    *        <em>-generate</em>, the amount of puzzles and the seed.
+    * @throws IOException if a file couldn't be read or written.
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1) {
+         System.err.println("Usage: PuzzleStore <output> "
+                 + "[puzzle files | -generate count [seed]]");
+         System.exit(1);
+      }
+      long begin = System.nanoTime();
+      Writer writer = new Writer(new File(args[0]), true);
+      try {
+         if (args.length > 2 && "-generate".equals(args[1])) {
+            long seed = (args.length > 3) ? Long.parseLong(args[3]) : 2011;
+            generate(writer, Integer.parseInt(args[2]), seed);
+         } else if (args.length > 1) {
+            for (int i = 1; i < args.length; i++) {
+               convert(writer, PuzzleFile.read(new FileInputStream(args[i])));
+            }
+         } else {
+            convert(writer, PuzzleFile.readBank());
+         }
+      } finally {
+         writer.close();
+      }
+      System.out.printf("stored %d puzzles in %.1f s%n", writer.size(),
+              (System.nanoTime() - begin) / 1e9);
+   }
+
+   /**
+    * Stores the puzzles of a file that have exactly one solution, solving
+    * each one.
+    *
+    * @param writer the store being written.
+    * @param file the puzzle file.
+    * @throws IOException if the store couldn't be written.
+    */
+   private static void convert(Writer writer, PuzzleFile file)
+           throws IOException {
+      Solver solver = new Solver();
+      for (PuzzleFile.Section section : file.getSections()) {
+         writer.startSection(section.getName());
+         List<int[]> puzzles = section.getPuzzles();
+         for (int i = 0; i < puzzles.size(); i++) {
+            int[] puzzle = puzzles.get(i);
+            if (solver.checkValidSolveRequest(puzzle)
+                    && solver.countSolutions(puzzle, 2) == 1) {
+               writer.add(puzzle, solver.getSolvedArray());
+            } else {
+               System.out.println("left out line " + section.getLineNumber(i)
+                       + ": not exactly one solution");
+            }
+         }
+      }
+   }
+
+   /**
+    * Stores generated puzzles, the same amount of each difficulty.
+    *
+    * Generating a puzzle of a difficulty can take many tries, so the puzzles
+    * are generated in batches of {@link PuzzleStore#GENERATE_BATCH} on every
+    * core, each batch with a generator of its own. The seed of each batch is
+    * drawn from the given seed up front, and the batches are stored in order,
+    * so a seed always gives the same store however many cores there are.
+    *
+    * @param writer the store being written.
+    * @param count the amount of puzzles.
+    * @param seed the seed of the generators.
+    * @throws IOException if the store couldn't be written.
+    */
+   private static void generate(Writer writer, int count, long seed)
+           throws IOException {
+      int threads = Runtime.getRuntime().availableProcessors();
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      ArrayDeque<Future<List<int[][]>>> pending =
+              new ArrayDeque<Future<List<int[][]>>>();
+      Random seeds = new Random(seed);
+      String[] names = PuzzleRater.SECTIONS;
+      try {
+         for (int d = 0; d < names.length; d++) {
+            writer.startSection(names[d]);
+            int puzzles = (count - d + names.length - 1) / names.length;
+            for (int i = 0; i < puzzles; i += GENERATE_BATCH) {
+               pending.add(submit(pool, d, Math.min(GENERATE_BATCH,
+                       puzzles - i), seeds.nextLong()));
+               if (pending.size() > 2 * threads) {
+                  store(writer, pending.poll());
+               }
+            }
+            // a section's puzzles are all stored before the next starts.
+            while (!pending.isEmpty()) {
+               store(writer, pending.poll());
+            }
+         }
+      } finally {
+         for (Future<List<int[][]>> future : pending) {
+            future.cancel(true);
+         }
+         pool.shutdown();
+      }
+   }
+
+   /**
+    * Starts generating a batch of puzzles on the pool.
+    *
+    * @param pool the pool.
+    * @param difficulty the difficulty of the puzzles.
+    * @param puzzles the amount of puzzles.
+    * @param seed the seed of the batch's generator.
+    * @return each puzzle and its solution, once they are ready.
+    */
+   private static Future<List<int[][]>> submit(ExecutorService pool,
+           final int difficulty, final int puzzles, final long seed) {
+      return pool.submit(new Callable<List<int[][]>>() {
+         public List<int[][]> call() {
+            PuzzleGenerator generator = new PuzzleGenerator(seed);
+            List<int[][]> batch = new ArrayList<int[][]>(puzzles);
+            for (int i = 0; i < puzzles; i++) {
+               int[] solution = new int[81];
+               batch.add(new int[][]{generator.newPuzzle(difficulty,
+                       solution), solution});
+            }
+            return batch;
+         }
+      });
+   }
+
+   /**
+    * Stores a batch of generated puzzles.
+    *
+    * @param writer the store being written.
+    * @param future the puzzles and their solutions.
+    * @throws IOException if a puzzle couldn't be written.
+    */
+   private static void store(Writer writer, Future<List<int[][]>> future)
+           throws IOException {
+      List<int[][]> batch;
+      try {
+         batch = future.get();
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new IOException(ex);
+      } catch (ExecutionException ex) {
+         throw new IOException(ex.getCause());
+      }
+      for (int[][] generated : batch) {
+         writer.add(generated[0], generated[1]);
+      }
+   }
+}
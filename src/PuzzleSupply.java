@@ -0,0 +1,179 @@
+/* File: PuzzleSupply.java  -  April 2011 */
+package sudoku;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Keeps a small queue of freshly generated puzzles for each difficulty, so
+ * that a new game doesn't have to repeat the puzzles of the bank.
+ *
+ * Background threads generate puzzles with a {@link PuzzleGenerator}, leaving
+ * more clues for the easier difficulties (see
+ * {@link PuzzleGenerator#getTargetClues(int)}), and rate each one with
+ * {@link PuzzleRater#getDifficulty(int[])} to find the queue it belongs in.
+ * Each thread works on the emptiest queue that isn't full, and waits once
+ * every queue is full until a puzzle is taken. The threads are daemons with
+ * the lowest priority, so they never keep the app open or slow down the UI.
+ * <br><br>
+ * {@link PuzzleSupply#take(int)} never waits - when a queue is empty, the
+ * caller falls back to the {@link PuzzleBank}.
+ *
+ * @author Rudi Theunissen
+ */
+public final class PuzzleSupply {
+
+   /** The most puzzles that are kept for each difficulty. */
+   public static final int CAPACITY = 8;
+   /** The amount of difficulties. */
+   private static final int DIFFICULTIES = 4;
+
+   /** The generated puzzle and solution pairs of each difficulty. */
+   private final List<ArrayBlockingQueue<int[][]>> queues;
+   /** Waited on by the generating threads while every queue is full. */
+   private final Object space = new Object();
+   /** The amount of generating threads. */
+   private final int threads;
+   /** Whether the generating threads have been started. */
+   private boolean started;
+
+   /**
+    * Holds the shared instance, which is created the first time it's used.
+    */
+   private static class Holder {
+
+      /** The shared instance. */
+      private static final PuzzleSupply INSTANCE = new PuzzleSupply(
+              Math.min(2, Math.max(1,
+              Runtime.getRuntime().availableProcessors() - 1)));
+   }
+
+   /**
+    * Private Constructor - creates the queues. Nothing is generated until
+    * {@link PuzzleSupply#start()} is called.
+    *
+    * @param threads the amount of generating threads.
+    */
+   private PuzzleSupply(int threads) {
+      this.threads = threads;
+      queues = new ArrayList<ArrayBlockingQueue<int[][]>>(DIFFICULTIES);
+      for (int d = 0; d < DIFFICULTIES; d++) {
+         queues.add(new ArrayBlockingQueue<int[][]>(CAPACITY));
+      }
+      Metrics.gauge("supply.ready", new Metrics.Gauge() {
+         public long getValue() {
+            long ready = 0;
+            for (ArrayBlockingQueue<int[][]> queue : queues) {
+               ready += queue.size();
+            }
+            return ready;
+         }
+      });
+   }
+
+   /**
+    * Starts the generating threads, at the lowest priority, if they haven't
+    * been started yet. Until then {@link PuzzleSupply#take(int)} finds no
+    * puzzles, so this can be left until the app has finished loading.
+    */
+   public synchronized void start() {
+      if (started) {
+         return;
+      }
+      started = true;
+      for (int t = 0; t < threads; t++) {
+         final long seed = System.nanoTime() + t;
+         Thread thread = new Thread(new Runnable() {
+            public void run() {
+               generate(new PuzzleGenerator(seed));
+            }
+         }, "Sudoku generator " + t);
+         thread.setDaemon(true);
+         thread.setPriority(Thread.MIN_PRIORITY);
+         thread.start();
+      }
+   }
+
+   /**
+    * Returns the shared instance, which doesn't generate until it's started.
+    *
+    * @return the shared instance.
+    */
+   public static PuzzleSupply getInstance() {
+      return Holder.INSTANCE;
+   }
+
+   /**
+    * Takes a generated puzzle without waiting.
+    *
+    * @param difficulty the difficulty of the puzzle, 0 to 3.
+    * @return the puzzle and its solution, 81 values each, or null if none is
+    *         ready yet.
+    */
+   public int[][] take(int difficulty) {
+      int[][] generated = queues.get(difficulty).poll();
+      if (generated != null) {
+         synchronized (space) {
+            space.notifyAll();
+         }
+      }
+      return generated;
+   }
+
+   /**
+    * Returns the amount of puzzles that are ready for a difficulty.
+    *
+    * @param difficulty the difficulty, 0 to 3.
+    * @return the amount of puzzles in its queue.
+    */
+   public int getReadyCount(int difficulty) {
+      return queues.get(difficulty).size();
+   }
+
+   /**
+    * Generates puzzles for as long as the app runs.
+    *
+    * @param generator the generator of this thread.
+    */
+   private void generate(PuzzleGenerator generator) {
+      try {
+         while (true) {
+            int target = waitForSpace();
+            int[] solution = generator.newSolution();
+            int[] puzzle = generator.removeClues(solution,
+                    PuzzleGenerator.getTargetClues(target));
+            int difficulty = PuzzleRater.getDifficulty(puzzle);
+            if (difficulty >= 0 && difficulty < queues.size()) {
+               // dropped if that queue filled up in the meantime.
+               queues.get(difficulty).offer(new int[][]{puzzle, solution});
+            }
+         }
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Waits until a queue isn't full.
+    *
+    * @return the difficulty with the fewest puzzles ready.
+    * @throws InterruptedException if the thread was interrupted.
+    */
+   private int waitForSpace() throws InterruptedException {
+      synchronized (space) {
+         while (true) {
+            int emptiest = 0;
+            for (int d = 1; d < queues.size(); d++) {
+               if (queues.get(d).size() < queues.get(emptiest).size()) {
+                  emptiest = d;
+               }
+            }
+            if (queues.get(emptiest).remainingCapacity() > 0) {
+               return emptiest;
+            }
+            space.wait();
+         }
+      }
+   }
+}
@@ -0,0 +1,612 @@
+/* File: SearchTrace.java  -  April 2011 */
+package sudoku;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records every step of the {@link Solver}'s search to a file, so that where
+ * a search spends its time can be looked at afterwards.
+ *
+ * Tracing is turned on by running with <em>-Dsudoku.trace=file</em>. It is
+ * read into {@link SearchTrace#ENABLED} once, and the solver only touches its
+ * trace behind that constant, so the JIT compiler removes the tracing from
+ * the search when it is off. When it is on, each solver gets a trace with a
+ * buffer of {@link SearchTrace#RECORD_BYTES} byte records, of
+ * <em>-Dsudoku.trace.records=n</em> records, allocated up front. A record
+ * holds its type, the square, the number and the depth - the amount of
+ * squares the search had filled in - a byte each. The buffer is written to
+ * the file when it fills up and when a solve ends, so a solve is in the file
+ * by the time it returns.
+ * <br><br>
+ * The file starts with a magic number and the version, followed by chunks
+ * from any of the solvers - the id of the solver, the amount of records and
+ * the records. A solve is a {@link SearchTrace#START}, then a
+ * {@link SearchTrace#BRANCH} for each empty square the search picks, with its
+ * amount of candidates in place of the number, an {@link SearchTrace#ASSIGN}
+ * and a {@link SearchTrace#BACKTRACK} around the search of each candidate, a
+ * {@link SearchTrace#SOLUTION} for each full grid and an
+ * {@link SearchTrace#END}, with the outcome in place of the number.
+ * <br><br>
+ * Usage: <em>SearchTrace &lt;trace&gt; [puzzle files]</em> - rebuilds the
+ * search trees of a trace and prints their statistics: the size of the
+ * subtree under each assign, the wasted assigns, whose subtree had no
+ * solution, and for each square how often it was branched on and how much
+ * wasted search its wrong numbers caused. Given puzzle files, and run with
+ * the trace as <em>-Dsudoku.trace</em>, it solves their puzzles first. Run by
+ * the <em>trace-solver</em> target in build.xml.
+ *
+ * @author Rudi Theunissen
+ */
+public final class SearchTrace {
+
+   /** The file the traces are written to, or null if tracing is off. */
+   public static final String PATH = System.getProperty("sudoku.trace");
+   /** True if the solvers trace their searches. */
+   public static final boolean ENABLED = PATH != null;
+
+   /** The start of a solve. */
+   public static final int START = 0;
+   /** The search picked an empty square. */
+   public static final int BRANCH = 1;
+   /** The search put a number in a square. */
+   public static final int ASSIGN = 2;
+   /** The search took a number back out of a square. */
+   public static final int BACKTRACK = 3;
+   /** The search found a full grid. */
+   public static final int SOLUTION = 4;
+   /** The end of a solve. */
+   public static final int END = 5;
+
+   /** The outcome of a solve that found no solution. */
+   public static final int NO_SOLUTION = 0;
+   /** The outcome of a solve that found one solution. */
+   public static final int SOLVED = 1;
+   /** The outcome of a solve that found more than one solution. */
+   public static final int MULTIPLE_SOLUTIONS = 2;
+   /** The outcome of a solve that was cancelled. */
+   public static final int CANCELLED = 3;
+
+   /** The bytes of a record. */
+   public static final int RECORD_BYTES = 4;
+
+   /** The magic number of a trace file, "SDKT". */
+   private static final int MAGIC = 0x53444b54;
+   /** The version of the trace format. */
+   private static final int VERSION = 1;
+   /** The names of the record types. */
+   private static final String[] TYPES = {"start", "branch", "assign",
+      "backtrack", "solution", "end"};
+   /** The names of the outcomes. */
+   private static final String[] OUTCOMES = {"no solution", "solved",
+      "multiple solutions", "cancelled"};
+   /** The amount of squares shown by the report. */
+   private static final int SQUARES_SHOWN = 20;
+
+   /** The records of each buffer. */
+   private static final int BUFFER_RECORDS = Integer.getInteger(
+           "sudoku.trace.records", 1 << 16);
+   /** The next id of a trace. */
+   private static final AtomicInteger nextId = new AtomicInteger();
+   /** The header of a chunk, reused for each chunk. */
+   private static final ByteBuffer chunk = ByteBuffer.allocate(8);
+   /** The trace file, once it has been opened. */
+   private static FileChannel channel;
+   /** True once the trace file couldn't be written. */
+   private static boolean failed;
+
+   /** The id of this trace's chunks. */
+   private final int id;
+   /** The records waiting to be written. */
+   private final ByteBuffer buffer;
+
+   /**
+    * Constructor - allocates the buffer. Only called if tracing is on.
+    */
+   public SearchTrace() {
+      id = nextId.getAndIncrement();
+      buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES);
+   }
+
+   /**
+    * Records the start of a solve.
+    */
+   public void start() {
+      record(START, 0, 0, 0);
+   }
+
+   /**
+    * Records that the search picked an empty square.
+    *
+    * @param index the array index of the square.
+    * @param candidates the amount of numbers that can go in it.
+    * @param depth the amount of squares filled in by the search.
+    */
+   public void branch(int index, int candidates, int depth) {
+      record(BRANCH, index, candidates, depth);
+   }
+
+   /**
+    * Records that the search put a number in a square.
+    *
+    * @param index the array index of the square.
+    * @param value the number.
+    * @param depth the amount of squares filled in by the search, before this.
+    */
+   public void assign(int index, int value, int depth) {
+      record(ASSIGN, index, value, depth);
+   }
+
+   /**
+    * Records that the search took a number back out of a square.
+    *
+    * @param index the array index of the square.
+    * @param value the number.
+    * @param depth the amount of squares filled in by the search, after this.
+    */
+   public void backtrack(int index, int value, int depth) {
+      record(BACKTRACK, index, value, depth);
+   }
+
+   /**
+    * Records that the search found a full grid.
+    *
+    * @param depth the amount of squares filled in by the search.
+    */
+   public void solution(int depth) {
+      record(SOLUTION, 0, 0, depth);
+   }
+
+   /**
+    * Records the end of a solve, and writes the buffer to the file.
+    *
+    * @param found the amount of solutions found.
+    * @param cancelled true if the solve was cancelled.
+    */
+   public void end(int found, boolean cancelled) {
+      record(END, 0, cancelled ? CANCELLED : Math.min(found,
+              MULTIPLE_SOLUTIONS), 0);
+      flush();
+   }
+
+   /**
+    * Adds a record to the buffer, writing the buffer first if it is full.
+    *
+    * @param type the type of the record.
+    * @param index the square.
+    * @param value the number.
+    * @param depth the depth.
+    */
+   private void record(int type, int index, int value, int depth) {
+      if (!buffer.hasRemaining()) {
+         flush();
+      }
+      buffer.putInt(type << 24 | index << 16 | value << 8 | depth);
+   }
+
+   /**
+    * Writes the buffer to the file as a chunk.
+    */
+   private void flush() {
+      buffer.flip();
+      if (buffer.hasRemaining()) {
+         write(id, buffer);
+      }
+      buffer.clear();
+   }
+
+   /**
+    * Writes a chunk of records to the file, opening it first if needed. The
+    * solvers of every thread share the file, so only one chunk is written at
+    * a time.
+    *
+    * @param id the id of the trace.
+    * @param records the records.
+    */
+   private static synchronized void write(int id, ByteBuffer records) {
+      if (failed) {
+         return;
+      }
+      try {
+         if (channel == null) {
+            RandomAccessFile file = new RandomAccessFile(PATH, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+            chunk.clear();
+            chunk.putInt(MAGIC).putInt(VERSION).flip();
+            while (chunk.hasRemaining()) {
+               channel.write(chunk);
+            }
+         }
+         chunk.clear();
+         chunk.putInt(id).putInt(records.remaining() / RECORD_BYTES).flip();
+         ByteBuffer[] buffers = {chunk, records};
+         while (records.hasRemaining()) {
+            channel.write(buffers);
+         }
+      } catch (IOException ex) {
+         System.err.println(ex);
+         failed = true;
+      }
+   }
+
+   /**
+    * Solves the puzzles of some files with tracing on, if given, and prints
+    * the statistics of a trace.
+    *
+    * @param args the trace, and optionally puzzle files to solve first.
+    * @throws IOException if a file couldn't be read.
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1) {
+         System.err.println("Usage: SearchTrace <trace> [puzzle files]");
+         System.exit(1);
+      }
+      if (args.length > 1) {
+         if (!args[0].equals(PATH)) {
+            System.err.println("Run with -Dsudoku.trace=" + args[0]
+                    + " to trace the solves");
+            System.exit(1);
+         }
+         Solver solver = new Solver();
+         int solved = 0;
+         for (int f = 1; f < args.length; f++) {
+            InputStream in = new FileInputStream(args[f]);
+            PuzzleFile file;
+            try {
+               file = PuzzleFile.read(in);
+            } finally {
+               in.close();
+            }
+            for (PuzzleFile.Section section : file.getSections()) {
+               for (int[] puzzle : section.getPuzzles()) {
+                  solver.countSolutions(puzzle, 2);
+                  solved++;
+               }
+            }
+         }
+         System.out.println("traced " + solved + " solves to " + PATH);
+      }
+      Statistics statistics = new Statistics();
+      InputStream in = new FileInputStream(args[0]);
+      try {
+         statistics.read(in);
+      } finally {
+         in.close();
+      }
+      statistics.print(SQUARES_SHOWN);
+   }
+
+   /**
+    * The search trees of a trace, rebuilt from its records.
+    *
+    * The records of each solver are followed with a stack of the assigns
+    * that are open. When an assign is backtracked its subtree is complete:
+    * its size is the amount of assigns made since, itself included, and it
+    * was wasted if no solution was found since. The wasted search is put down
+    * to the outermost wasted assigns - the wrong numbers - by keeping the
+    * wasted subtrees under each open assign until it is backtracked, and
+    * passing them on to their squares only if it wasn't wasted itself. A
+    * cancelled solve counts its unfinished subtrees as wasted.
+    */
+   static final class Statistics {
+
+      /** The amount of buckets of the subtree sizes, by powers of two. */
+      private static final int SIZE_BUCKETS = 64;
+
+      /** The walk of each solver's records, by the id of its trace. */
+      private final Map<Integer, Walk> walks = new HashMap<Integer, Walk>();
+      /** The amount of solves of each outcome. */
+      private final long[] outcomes = new long[OUTCOMES.length];
+      /** The amount of records. */
+      private long records;
+      /** The amount of solutions. */
+      private long solutions;
+      /** The amount of records that didn't fit the search. */
+      private long errors;
+      /** True if the file ended in the middle of a chunk. */
+      private boolean truncated;
+
+      /** The times each square was branched on. */
+      private final long[] branches = new long[81];
+      /** The total candidates of each square when it was branched on. */
+      private final long[] candidates = new long[81];
+      /** The times each square had no candidates. */
+      private final long[] deadEnds = new long[81];
+      /** The assigns of each square. */
+      private final long[] assigns = new long[81];
+      /** The wasted assigns of each square. */
+      private final long[] wasted = new long[81];
+      /** The total subtree sizes of each square's assigns. */
+      private final long[] subtrees = new long[81];
+      /** The wasted search caused by each square's wrong numbers. */
+      private final long[] caused = new long[81];
+
+      /** The assigns at each depth. */
+      private final long[] depthAssigns = new long[82];
+      /** The wasted assigns at each depth. */
+      private final long[] depthWasted = new long[82];
+      /** The total subtree sizes at each depth. */
+      private final long[] depthSubtrees = new long[82];
+
+      /** The amount of subtrees of each size bucket. */
+      private final long[] sizes = new long[SIZE_BUCKETS];
+      /** The amount of wasted subtrees of each size bucket. */
+      private final long[] wastedSizes = new long[SIZE_BUCKETS];
+
+      /**
+       * The open assigns of one solver.
+       */
+      private static final class Walk {
+
+         /** The amount of open assigns. */
+         int open;
+         /** The assigns made by the current solve. */
+         long assigns;
+         /** The solutions found by the current solve. */
+         long solutions;
+         /** The square of each open assign. */
+         final int[] squares = new int[82];
+         /** The assigns made before each open assign. */
+         final long[] assignsBefore = new long[82];
+         /** The solutions found before each open assign. */
+         final long[] solutionsBefore = new long[82];
+         /** The amount of wasted subtrees kept under each open assign. */
+         final int[] kept = new int[83];
+         /** The squares of the wasted subtrees kept. */
+         final int[][] keptSquares = new int[83][9];
+         /** The sizes of the wasted subtrees kept. */
+         final long[][] keptSizes = new long[83][9];
+      }
+
+      /**
+       * Reads the records of a trace.
+       *
+       * @param in the trace.
+       * @throws IOException if the trace couldn't be read, or isn't a trace.
+       */
+      void read(InputStream in) throws IOException {
+         DataInputStream data = new DataInputStream(
+                 new BufferedInputStream(in, 1 << 16));
+         if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not a search trace");
+         }
+         while (true) {
+            int id;
+            try {
+               id = data.readInt();
+            } catch (EOFException ex) {
+               return;
+            }
+            try {
+               Walk walk = walks.get(id);
+               if (walk == null) {
+                  walk = new Walk();
+                  walks.put(id, walk);
+               }
+               for (int count = data.readInt(); count > 0; count--) {
+                  add(walk, data.readInt());
+               }
+            } catch (EOFException ex) {
+               truncated = true;
+               return;
+            }
+         }
+      }
+
+      /**
+       * Adds a record to the walk of its solver.
+       *
+       * @param walk the walk.
+       * @param record the record.
+       */
+      private void add(Walk walk, int record) {
+         int type = record >>> 24;
+         int square = (record >>> 16) & 0xff;
+         int value = (record >>> 8) & 0xff;
+         int depth = record & 0xff;
+         records++;
+         if (type > END || square > 80 || depth > 81) {
+            errors++;
+            return;
+         }
+         switch (type) {
+         case START:
+            if (walk.open != 0) {
+               errors++;
+            }
+            walk.open = 0;
+            walk.assigns = 0;
+            walk.solutions = 0;
+            walk.kept[0] = 0;
+            break;
+         case BRANCH:
+            branches[square]++;
+            candidates[square] += value;
+            if (value == 0) {
+               deadEnds[square]++;
+            }
+            break;
+         case ASSIGN:
+            if (walk.open > 81) {
+               errors++;
+               break;
+            }
+            walk.squares[walk.open] = square;
+            walk.assignsBefore[walk.open] = walk.assigns;
+            walk.solutionsBefore[walk.open] = walk.solutions;
+            walk.open++;
+            walk.kept[walk.open] = 0;
+            walk.assigns++;
+            assigns[square]++;
+            depthAssigns[depth]++;
+            break;
+         case BACKTRACK:
+            if (walk.open == 0 || walk.squares[walk.open - 1] != square) {
+               errors++;
+               break;
+            }
+            backtrack(walk, depth);
+            break;
+         case SOLUTION:
+            walk.solutions++;
+            solutions++;
+            break;
+         default:
+            if (walk.open != 0 || value >= OUTCOMES.length) {
+               errors++;
+               walk.open = 0;
+               break;
+            }
+            outcomes[value]++;
+            for (int k = 0; k < walk.kept[0]; k++) {
+               caused[walk.keptSquares[0][k]] += walk.keptSizes[0][k];
+            }
+            walk.kept[0] = 0;
+            break;
+         }
+      }
+
+      /**
+       * Closes the innermost open assign of a walk.
+       *
+       * @param walk the walk.
+       * @param depth the depth of the assign.
+       */
+      private void backtrack(Walk walk, int depth) {
+         int top = walk.open--;
+         int square = walk.squares[walk.open];
+         long size = walk.assigns - walk.assignsBefore[walk.open];
+         boolean waste = walk.solutions == walk.solutionsBefore[walk.open];
+         int bucket = 63 - Long.numberOfLeadingZeros(size);
+         subtrees[square] += size;
+         depthSubtrees[depth] += size;
+         sizes[bucket]++;
+         if (waste) {
+            wasted[square]++;
+            depthWasted[depth]++;
+            wastedSizes[bucket]++;
+            // keep it under its parent, which takes it over if also wasted.
+            int k = walk.kept[walk.open]++;
+            if (k < 9) {
+               walk.keptSquares[walk.open][k] = square;
+               walk.keptSizes[walk.open][k] = size;
+            } else {
+               errors++;
+            }
+         } else {
+            for (int k = 0; k < walk.kept[top]; k++) {
+               caused[walk.keptSquares[top][k]] += walk.keptSizes[top][k];
+            }
+         }
+      }
+
+      /**
+       * Prints the statistics.
+       *
+       * @param shown the amount of squares to show.
+       */
+      void print(int shown) {
+         long solves = 0;
+         for (long count : outcomes) {
+            solves += count;
+         }
+         long total = 0;
+         long waste = 0;
+         for (int i = 0; i < 81; i++) {
+            total += assigns[i];
+            waste += wasted[i];
+         }
+         System.out.printf("%d records, %d solves by %d solvers", records,
+                 solves, walks.size());
+         for (int o = 0; o < OUTCOMES.length; o++) {
+            System.out.printf(", %d %s", outcomes[o], OUTCOMES[o]);
+         }
+         System.out.printf("%n%d assigns, %d solutions, %d wasted assigns"
+                 + " (%.1f%%)%n", total, solutions, waste,
+                 getPercent(waste, total));
+         if (errors != 0 || truncated) {
+            System.out.printf("%d records didn't fit the search%s%n", errors,
+                    truncated ? ", and the trace ends in a chunk" : "");
+         }
+
+         List<Integer> squares = new ArrayList<Integer>();
+         for (int i = 0; i < 81; i++) {
+            if (branches[i] != 0) {
+               squares.add(i);
+            }
+         }
+         Collections.sort(squares, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+               return Long.compare(caused[b], caused[a]);
+            }
+         });
+         System.out.printf("%n%-7s %9s %6s %9s %10s %10s %8s %12s %7s%n",
+                 "square", "branches", "cands", "dead ends", "assigns",
+                 "wasted", "subtree", "waste caused", "share");
+         for (int i : squares.subList(0, Math.min(shown, squares.size()))) {
+            System.out.printf("r%dc%d    %9d %6.2f %9d %10d %10d %8.1f %12d"
+                    + " %6.1f%%%n", i / 9 + 1, i % 9 + 1, branches[i],
+                    (double) candidates[i] / branches[i], deadEnds[i],
+                    assigns[i], wasted[i], getMean(subtrees[i], assigns[i]),
+                    caused[i], getPercent(caused[i], waste));
+         }
+
+         System.out.printf("%n%-7s %10s %8s %8s%n", "depth", "assigns",
+                 "wasted", "subtree");
+         for (int d = 0; d < depthAssigns.length; d++) {
+            if (depthAssigns[d] != 0) {
+               System.out.printf("%-7d %10d %7.1f%% %8.1f%n", d,
+                       depthAssigns[d], getPercent(depthWasted[d],
+                       depthAssigns[d]), getMean(depthSubtrees[d],
+                       depthAssigns[d]));
+            }
+         }
+
+         System.out.printf("%n%-21s %10s %10s%n", "subtree size", "subtrees",
+                 "wasted");
+         for (int b = 0; b < SIZE_BUCKETS; b++) {
+            if (sizes[b] != 0) {
+               System.out.printf("%-21s %10d %10d%n", (1L << b) + "-"
+                       + ((1L << b) * 2 - 1), sizes[b], wastedSizes[b]);
+            }
+         }
+      }
+
+      /**
+       * Returns a part as a percentage of a whole.
+       *
+       * @param part the part.
+       * @param whole the whole.
+       * @return the percentage, 0 if the whole is 0.
+       */
+      private static double getPercent(long part, long whole) {
+         return (whole == 0) ? 0 : 100.0 * part / whole;
+      }
+
+      /**
+       * Returns a mean.
+       *
+       * @param total the total.
+       * @param count the amount.
+       * @return the mean, 0 if the amount is 0.
+       */
+      private static double getMean(long total, long count) {
+         return (count == 0) ? 0 : (double) total / count;
+      }
+   }
+}
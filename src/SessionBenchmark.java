@@ -0,0 +1,90 @@
+/* File: SessionBenchmark.java  -  April 2011 */
+package sudoku;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark that opens a large number of sessions in a {@link SessionHost},
+ * prints the heap they use, then plays random moves in random sessions from
+ * several threads and prints the moves per second.
+ * <br><br>
+ * Usage: <em>SessionBenchmark [sessions] [threads] [seconds]</em>. Run by the
+ * <em>bench-sessions</em> target in build.xml, which limits the heap to show
+ * that a million sessions fit.
+ *
+ * @author Rudi Theunissen
+ */
+public class SessionBenchmark {
+
+   /**
+    * Runs the benchmark.
+    *
+    * @param args optionally, the amount of sessions, threads and seconds.
+    * @throws InterruptedException if the benchmark was interrupted.
+    */
+   public static void main(String[] args) throws InterruptedException {
+      final int sessions = (args.length > 0) ? Integer.parseInt(args[0])
+              : 1000000;
+      int threads = (args.length > 1) ? Integer.parseInt(args[1])
+              : Runtime.getRuntime().availableProcessors();
+      final long seconds = (args.length > 2) ? Long.parseLong(args[2]) : 5;
+
+      PuzzleBank bank = PuzzleBank.getInstance();
+      final long[] handles = new long[sessions];
+      long before = usedHeap();
+      final SessionHost host = new SessionHost(bank, sessions);
+      Random random = new Random(2011);
+      long begin = System.nanoTime();
+      for (int i = 0; i < sessions; i++) {
+         handles[i] = host.open(random.nextInt(bank.getDifficultyCount()),
+                 random);
+      }
+      System.out.printf("opened %d sessions in %.1f s%n", sessions,
+              (System.nanoTime() - begin) / 1e9);
+      long used = usedHeap() - before;
+      System.out.printf("heap used by the sessions: %.1f MB (%d bytes each)%n",
+              used / 1e6, used / sessions);
+
+      final AtomicLong moves = new AtomicLong();
+      final long end = System.nanoTime() + seconds * 1000000000L;
+      Thread[] players = new Thread[threads];
+      for (int t = 0; t < threads; t++) {
+         final long seed = t;
+         players[t] = new Thread(new Runnable() {
+            public void run() {
+               Random random = new Random(seed);
+               long played = 0;
+               while ((played & 1023) != 0 || System.nanoTime() < end) {
+                  long session = handles[random.nextInt(sessions)];
+                  int index = random.nextInt(81);
+                  if ((played & 1) == 0) {
+                     host.addNumber(session, index, 1 + random.nextInt(9));
+                  } else {
+                     host.toggleMini(session, index, 1 + random.nextInt(9));
+                  }
+                  played++;
+               }
+               moves.addAndGet(played);
+            }
+         });
+         players[t].start();
+      }
+      for (Thread player : players) {
+         player.join();
+      }
+      System.out.printf("%d threads played %.0f moves/s%n", threads,
+              moves.get() / (double) seconds);
+   }
+
+   /**
+    * Returns the heap in use after a garbage collection.
+    *
+    * @return the bytes in use.
+    */
+   private static long usedHeap() {
+      Runtime runtime = Runtime.getRuntime();
+      System.gc();
+      return runtime.totalMemory() - runtime.freeMemory();
+   }
+}
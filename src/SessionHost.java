@@ -0,0 +1,579 @@
+/* File: SessionHost.java  -  April 2011 */
+package sudoku;
+
+import java.util.Random;
+
+/**
+ * Hosts many concurrent games, each in a few bits of shared primitive arrays
+ * rather than in a {@link GameNumbers} of its own.
+ *
+ * Every session refers to its puzzle by its line in the shared, immutable
+ * {@link PuzzleBank}, so the given numbers and the solution are never copied.
+ * What the player has changed is packed into long arrays:<ul>
+ * <li>the number in each square, a nibble each - 16 squares to a long, 6 longs
+ *     a session.</li>
+ * <li>the possibilities of each square, as 9 bits - 7 squares to a long, 12
+ *     longs a session.</li></ul>
+ * With the puzzle line, hint count and state that is about 155 bytes a
+ * session, so a million sessions fit in a heap of a few hundred megabytes.
+ * The arrays are allocated in pages of {@link SessionHost#PAGE_SIZE} sessions
+ * as they are first needed.
+ * <br><br>
+ * Sessions can be played from any thread. Each session is guarded by one of
+ * {@link SessionHost#STRIPES} locks, picked by its slot, so moves in different
+ * sessions rarely wait for each other. A closed session's slot is reused by a
+ * later one, so a session is identified by a long handle that holds both its
+ * slot and the generation of the slot, which goes up every time the slot is
+ * closed - a handle of a closed session is refused rather than playing the
+ * game of whoever has the slot now. Squares and numbers out of range are
+ * refused too, so that no session can change the packed state of another.
+ *
+ * @author Rudi Theunissen
+ */
+public final class SessionHost {
+
+   /** The amount of sessions in each page of the arrays. */
+   public static final int PAGE_SIZE = 1 << 12;
+   /** The amount of locks that the sessions are spread over. */
+   public static final int STRIPES = 64;
+
+   /** The longs that hold the numbers of a session. */
+   private static final int CELL_LONGS = 6;
+   /** The longs that hold the possibilities of a session. */
+   private static final int MINI_LONGS = 12;
+   /** The amount of squares whose possibilities share a long. */
+   private static final int MINIS_PER_LONG = 7;
+   /** The state bit of a game that is in progress. */
+   private static final int IN_PROGRESS = 1;
+   /** The state bit of a session that is open. */
+   private static final int OPEN = 2;
+
+   /** The shared puzzle bank. */
+   private final PuzzleBank bank;
+   /** The most sessions that can be open at once. */
+   private final int capacity;
+   /** The numbers of each page of sessions. */
+   private final long[][] cells;
+   /** The possibilities of each page of sessions. */
+   private final long[][] minis;
+   /** The bank line of the puzzle of each page of sessions. */
+   private final int[][] lines;
+   /** The amount of empty squares of each page of sessions. */
+   private final byte[][] empties;
+   /** The amount of hints used by each page of sessions. */
+   private final byte[][] hints;
+   /** The state bits of each page of sessions. */
+   private final byte[][] states;
+   /** The generation of each slot of each page, see {@link #close(long)}. */
+   private final int[][] generations;
+   /** The locks that guard the sessions, see {@link #lockFor(int)}. */
+   private final Object[] locks;
+   /** Guards the handing out of session ids and pages. */
+   private final Object allocation = new Object();
+   /** The slots of closed sessions, which are reused first. */
+   private int[] freeIds;
+   /** The amount of slots in freeIds. */
+   private int freeCount;
+   /** The amount of slots that have ever been handed out. */
+   private int nextId;
+   /** The amount of sessions that are open. */
+   private int openCount;
+
+   /**
+    * Constructor - creates an empty host.
+    *
+    * @param bank the shared puzzle bank.
+    * @param capacity the most sessions that can be open at once.
+    */
+   public SessionHost(PuzzleBank bank, int capacity) {
+      this.bank = bank;
+      this.capacity = capacity;
+      int pages = (capacity + PAGE_SIZE - 1) / PAGE_SIZE;
+      cells = new long[pages][];
+      minis = new long[pages][];
+      lines = new int[pages][];
+      empties = new byte[pages][];
+      hints = new byte[pages][];
+      states = new byte[pages][];
+      generations = new int[pages][];
+      locks = new Object[STRIPES];
+      for (int i = 0; i < STRIPES; i++) {
+         locks[i] = new Object();
+      }
+      freeIds = new int[16];
+   }
+
+   /**
+    * Opens a session with a random puzzle of a difficulty.
+    *
+    * @param difficulty the difficulty of the puzzle, 0 to 3.
+    * @param random used to pick the puzzle.
+    * @return the handle of the session.
+    * @throws IllegalStateException if the host is full.
+    */
+   public long open(int difficulty, Random random) {
+      int line = bank.getSectionStart(difficulty)
+              + random.nextInt(bank.getSectionSize(difficulty));
+      int id = allocate();
+      synchronized (lockFor(id)) {
+         lines[page(id)][slot(id)] = line;
+         hints[page(id)][slot(id)] = 0;
+         states[page(id)][slot(id)] = OPEN | IN_PROGRESS;
+         reset(id);
+         return (long) generations[page(id)][slot(id)] << 32 | id;
+      }
+   }
+
+   /**
+    * Closes a session, so that its slot can be reused. The handle, and any
+    * copy of it, is refused from now on.
+    *
+    * @param session the handle of the session.
+    */
+   public void close(long session) {
+      int id = getId(session);
+      synchronized (lockFor(id)) {
+         checkOpen(session);
+         states[page(id)][slot(id)] = 0;
+         generations[page(id)][slot(id)]++;
+      }
+      synchronized (allocation) {
+         if (freeCount == freeIds.length) {
+            int[] grown = new int[freeIds.length * 2];
+            System.arraycopy(freeIds, 0, grown, 0, freeCount);
+            freeIds = grown;
+         }
+         freeIds[freeCount++] = id;
+         openCount--;
+      }
+   }
+
+   /**
+    * Adds a number to a square, like {@link GameNumbers#addNumber(int, int,
+    * int)} - entering the number that is already there clears the square, and
+    * the given numbers can't be changed.
+    *
+    * @param session the handle of the session.
+    * @param index the array index of the square.
+    * @param number the number, 0 to clear the square.
+    * @return true if this move finished the game.
+    * @throws IllegalArgumentException if the session isn't open, or the
+    *         square or number is out of range.
+    */
+   public boolean addNumber(long session, int index, int number) {
+      checkSquare(index);
+      checkNumber(number, 0);
+      int id = getId(session);
+      synchronized (lockFor(id)) {
+         checkOpen(session);
+         int p = page(id);
+         int s = slot(id);
+         int current = getCell(p, s, index);
+         if (current == number) {
+            number = 0;
+         }
+         if ((number == 0 && current == 0) || getGiven(id, index) != 0
+                 || (states[p][s] & IN_PROGRESS) == 0) {
+            return false;
+         }
+         setCell(p, s, index, number);
+         empties[p][s] += (current == 0) ? -1 : (number == 0) ? 1 : 0;
+         if (empties[p][s] == 0 && isSolved(id)) {
+            states[p][s] &= ~IN_PROGRESS;
+            return true;
+         }
+         return false;
+      }
+   }
+
+   /**
+    * Toggles a possibility of a square.
+    *
+    * @param session the handle of the session.
+    * @param index the array index of the square.
+    * @param number the possibility, 1 to 9.
+    * @throws IllegalArgumentException if the session isn't open, or the
+    *         square or number is out of range.
+    */
+   public void toggleMini(long session, int index, int number) {
+      checkSquare(index);
+      checkNumber(number, 1);
+      int id = getId(session);
+      synchronized (lockFor(id)) {
+         checkOpen(session);
+         long[] page = minis[page(id)];
+         int word = slot(id) * MINI_LONGS + index / MINIS_PER_LONG;
+         page[word] ^= 1L << ((index % MINIS_PER_LONG) * 9 + number - 1);
+      }
+   }
+
+   /**
+    * Clears all the possibilities of a session.
+    *
+    * @param session the handle of the session.
+    */
+   public void clearMinis(long session) {
+      int id = getId(session);
+      synchronized (lockFor(id)) {
+         checkOpen(session);
+         long[] page = minis[page(id)];
+         int base = slot(id) * MINI_LONGS;
+         for (int w = 0; w < MINI_LONGS; w++) {
+            page[base + w] = 0;
+         }
+      }
+   }
+
+   /**
+    * Solves one random empty square, counting it as a hint.
+    *
+    * @param session the handle of the session.
+    * @param random used to pick the square.
+    * @return the array index of the solved square, or -1 if none was solved.
+    */
+   public int solveNumber(long session, Random random) {
+      int id = getId(session);
+      synchronized (lockFor(id)) {
+         checkOpen(session);
+         int p = page(id);
+         int s = slot(id);
+         if ((states[p][s] & IN_PROGRESS) == 0 || empties[p][s] == 0) {
+            return -1;
+         }
+         // picks the nth empty square, without keeping a list of them.
+         int n = random.nextInt(empties[p][s]);
+         for (int i = 0; i < 81; i++) {
+            if (getCell(p, s, i) == 0 && n-- == 0) {
+               hints[p][s]++;
+               addNumber(session, i, getSolution(id, i));
+               return i;
+            }
+         }
+         return -1;
+      }
+   }
+
+   /**
+    * Resets a session's grid back to its puzzle, like
+    * {@link GameNumbers#restartGame()}.
+    *
+    * @param session the handle of the session.
+    */
+   public void restartGame(long session) {
+      int id = getId(session);
+      synchronized (lockFor(id)) {
+         checkOpen(session);
+         hints[page(id)][slot(id)] = 0;
+         states[page(id)][slot(id)] |= IN_PROGRESS;
+         reset(id);
+      }
+   }
+
+   /**
+    * Returns the number in a square.
+    *
+    * @param session the handle of the session.
+    * @param index the array index of the square.
+    * @return the number, 0 if the square is empty.
+    */
+   public int getNumber(long session, int index) {
+      checkSquare(index);
+      int id = getId(session);
+      synchronized (lockFor(id)) {
+         checkOpen(session);
+         return getCell(page(id), slot(id), index);
+      }
+   }
+
+   /**
+    * Returns the possibilities of a square as a bit mask, like
+    * {@link GameNumbers#getMiniMask(int)}.
+    *
+    * @param session the handle of the session.
+    * @param index the array index of the square.
+    * @return a mask with bit n set for each possibility n.
+    */
+   public int getMiniMask(long session, int index) {
+      checkSquare(index);
+      int id = getId(session);
+      synchronized (lockFor(id)) {
+         checkOpen(session);
+         long word = minis[page(id)][slot(id) * MINI_LONGS
+                 + index / MINIS_PER_LONG];
+         return (int) (word >>> ((index % MINIS_PER_LONG) * 9) & 0x1ff) << 1;
+      }
+   }
+
+   /**
+    * Copies a session's grid.
+    *
+    * @param session the handle of the session.
+    * @param grid filled with the 81 numbers of the grid.
+    */
+   public void copyGrid(long session, int[] grid) {
+      int id = getId(session);
+      synchronized (lockFor(id)) {
+         checkOpen(session);
+         for (int i = 0; i < 81; i++) {
+            grid[i] = getCell(page(id), slot(id), i);
+         }
+      }
+   }
+
+   /**
+    * Returns true if a session's game is in progress.
+    *
+    * @param session the handle of the session.
+    * @return false once the grid has been solved.
+    */
+   public boolean isGameInProgress(long session) {
+      int id = getId(session);
+      synchronized (lockFor(id)) {
+         checkOpen(session);
+         return (states[page(id)][slot(id)] & IN_PROGRESS) != 0;
+      }
+   }
+
+   /**
+    * Returns the amount of hints a session has used.
+    *
+    * @param session the handle of the session.
+    * @return the amount of squares solved by hints.
+    */
+   public int getHintsUsed(long session) {
+      int id = getId(session);
+      synchronized (lockFor(id)) {
+         checkOpen(session);
+         return hints[page(id)][slot(id)];
+      }
+   }
+
+   /**
+    * Returns the amount of sessions that are open.
+    *
+    * @return the amount of open sessions.
+    */
+   public int getOpenCount() {
+      synchronized (allocation) {
+         return openCount;
+      }
+   }
+
+   /**
+    * Returns the bytes used by the pages that have been allocated so far, not
+    * counting the shared puzzle bank.
+    *
+    * @return the approximate bytes used by the session state.
+    */
+   public long getAllocatedBytes() {
+      synchronized (allocation) {
+         long pages = (nextId + PAGE_SIZE - 1) / PAGE_SIZE;
+         return pages * PAGE_SIZE * (8L * (CELL_LONGS + MINI_LONGS) + 8 + 3);
+      }
+   }
+
+   /**
+    * Hands out a session id, allocating its page if needed.
+    *
+    * @return the id.
+    * @throws IllegalStateException if the host is full.
+    */
+   private int allocate() {
+      synchronized (allocation) {
+         int id;
+         if (freeCount > 0) {
+            id = freeIds[--freeCount];
+         } else if (nextId < capacity) {
+            id = nextId++;
+            int p = page(id);
+            if (cells[p] == null) {
+               cells[p] = new long[PAGE_SIZE * CELL_LONGS];
+               minis[p] = new long[PAGE_SIZE * MINI_LONGS];
+               lines[p] = new int[PAGE_SIZE];
+               empties[p] = new byte[PAGE_SIZE];
+               hints[p] = new byte[PAGE_SIZE];
+               states[p] = new byte[PAGE_SIZE];
+               generations[p] = new int[PAGE_SIZE];
+            }
+         } else {
+            throw new IllegalStateException("All " + capacity
+                    + " sessions are open.");
+         }
+         openCount++;
+         return id;
+      }
+   }
+
+   /**
+    * Sets a session's grid to its puzzle and clears its possibilities.
+    *
+    * @param id the id of the session, whose lock is held.
+    */
+   private void reset(int id) {
+      int p = page(id);
+      int s = slot(id);
+      String puzzle = bank.getPuzzleLine(lines[p][s]);
+      int empty = 0;
+      for (int w = 0; w < CELL_LONGS; w++) {
+         long word = 0;
+         for (int i = w * 16; i < Math.min(81, w * 16 + 16); i++) {
+            int given = puzzle.charAt(i) - '0';
+            word |= (long) given << ((i & 15) * 4);
+            empty += (given == 0) ? 1 : 0;
+         }
+         cells[p][s * CELL_LONGS + w] = word;
+      }
+      for (int w = 0; w < MINI_LONGS; w++) {
+         minis[p][s * MINI_LONGS + w] = 0;
+      }
+      empties[p][s] = (byte) empty;
+   }
+
+   /**
+    * Checks a session's grid against its solution.
+    *
+    * @param id the id of the session, whose lock is held.
+    * @return true if every square holds its solution.
+    */
+   private boolean isSolved(int id) {
+      for (int i = 0; i < 81; i++) {
+         if (getCell(page(id), slot(id), i) != getSolution(id, i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns a number of a session's puzzle.
+    *
+    * @param id the id of the session, whose lock is held.
+    * @param index the array index of the square.
+    * @return the given number, or 0 if the square started empty.
+    */
+   private int getGiven(int id, int index) {
+      return bank.getPuzzleLine(lines[page(id)][slot(id)]).charAt(index) - '0';
+   }
+
+   /**
+    * Returns a number of a session's solution.
+    *
+    * @param id the id of the session, whose lock is held.
+    * @param index the array index of the square.
+    * @return the solution of the square.
+    */
+   private int getSolution(int id, int index) {
+      return bank.getSolutionLine(lines[page(id)][slot(id)]).charAt(index)
+              - '0';
+   }
+
+   /**
+    * Returns the number in a square.
+    *
+    * @param p the page of the session.
+    * @param s the slot of the session in its page.
+    * @param index the array index of the square.
+    * @return the number, 0 if the square is empty.
+    */
+   private int getCell(int p, int s, int index) {
+      long word = cells[p][s * CELL_LONGS + (index >> 4)];
+      return (int) (word >>> ((index & 15) * 4)) & 0xf;
+   }
+
+   /**
+    * Sets the number in a square.
+    *
+    * @param p the page of the session.
+    * @param s the slot of the session in its page.
+    * @param index the array index of the square.
+    * @param number the number, 0 to clear the square.
+    */
+   private void setCell(int p, int s, int index, int number) {
+      int word = s * CELL_LONGS + (index >> 4);
+      int shift = (index & 15) * 4;
+      cells[p][word] = (cells[p][word] & ~(0xfL << shift))
+              | ((long) number << shift);
+   }
+
+   /**
+    * Checks that a handle is of a session that is open, and not of a closed
+    * session whose slot has been reused.
+    *
+    * @param session the handle of the session, whose lock is held.
+    * @throws IllegalArgumentException if the session isn't open.
+    */
+   private void checkOpen(long session) {
+      int id = getId(session);
+      if (id < 0 || id >= capacity || states[page(id)] == null
+              || (states[page(id)][slot(id)] & OPEN) == 0
+              || generations[page(id)][slot(id)] != (int) (session >>> 32)) {
+         throw new IllegalArgumentException("Session " + Long.toHexString(
+                 session) + " isn't open.");
+      }
+   }
+
+   /**
+    * Checks that a square is on the grid.
+    *
+    * @param index the array index of the square.
+    * @throws IllegalArgumentException if it isn't 0 to 80.
+    */
+   private static void checkSquare(int index) {
+      if (index < 0 || index > 80) {
+         throw new IllegalArgumentException("No square " + index + ".");
+      }
+   }
+
+   /**
+    * Checks that a number can go in a square.
+    *
+    * @param number the number.
+    * @param lowest the lowest number allowed, 0 or 1.
+    * @throws IllegalArgumentException if it isn't lowest to 9.
+    */
+   private static void checkNumber(int number, int lowest) {
+      if (number < lowest || number > 9) {
+         throw new IllegalArgumentException("No number " + number + ".");
+      }
+   }
+
+   /**
+    * Returns the slot of a session, without checking that it is open.
+    *
+    * @param session the handle of the session.
+    * @return the slot, which is also the id that picks its page and lock.
+    */
+   private static int getId(long session) {
+      return (int) session;
+   }
+
+   /**
+    * Returns the lock that guards a session.
+    *
+    * @param id the slot of the session.
+    * @return the lock.
+    */
+   private Object lockFor(int id) {
+      return locks[id & (STRIPES - 1)];
+   }
+
+   /**
+    * Returns the page of a session.
+    *
+    * @param id the slot of the session.
+    * @return the page.
+    */
+   private static int page(int id) {
+      return id / PAGE_SIZE;
+   }
+
+   /**
+    * Returns the slot of a session in its page.
+    *
+    * @param id the slot of the session.
+    * @return the slot.
+    */
+   private static int slot(int id) {
+      return id % PAGE_SIZE;
+   }
+}
@@ -0,0 +1,288 @@
+/* File: SolutionSpliterator.java  -  April 2011 */
+package sudoku;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Finds the solutions of a puzzle one at a time, for a stream of every
+ * solution - see {@link Solver#solutions(int[])}.
+ *
+ * The search is the same depth first search as the {@link Solver}, filling
+ * the empty squares in order, but its stack is kept in arrays rather than on
+ * the call stack, so it can stop after each solution and carry on when the
+ * next one is asked for. Only the arrays of one path down the search tree are
+ * kept, so the memory used doesn't grow with the amount of solutions.
+ * <br><br>
+ * A spliterator can be split to search in parallel: it hands the numbers it
+ * hasn't tried yet in the shallowest square it can to a new spliterator, which
+ * searches those branches of the tree while this one carries on with the
+ * rest. The solutions of a split stream come in no particular order.
+ * <br><br>
+ * Each solution is a new array of 81 values. A spliterator is not thread safe,
+ * but the ones split off it are independent.
+ *
+ * @author Rudi Theunissen
+ */
+public final class SolutionSpliterator implements Spliterator<int[]> {
+
+   /** The rules of the puzzle. */
+   private final Constraints constraints;
+   /** The array indexes of the empty squares of the puzzle, in order. */
+   private final int[] empties;
+   /** The puzzle, with the numbers of the current path filled in. */
+   private final int[] grid;
+   /** The numbers used by each unit of the constraints, one bit each. */
+   private final int[] unitUsed;
+   /** The rest of the sum of each cage. */
+   private final int[] cageRemaining;
+   /** The amount of empty squares in each cage. */
+   private final int[] cageEmpty;
+   /** The numbers not tried yet in the empty square of each depth. */
+   private final int[] untried;
+   /** The number placed in the empty square of each depth, or 0. */
+   private final int[] placed;
+   /** The depth of the square being filled. */
+   private int depth;
+   /** The shallowest depth this spliterator searches - the squares above it
+    *  are fixed. */
+   private int base;
+   /** The estimated amount of solutions, halved on every split. */
+   private long estimate = Long.MAX_VALUE;
+
+   /**
+    * Constructor - starts a search of every solution of a puzzle.
+    *
+    * Like {@link Solver#solveArray(int[])} this doesn't check the numbers that
+    * are already on the grid, see {@link Constraints#isValid(int[])}.
+    *
+    * @param puzzle the 81 values of the puzzle, 0 for an empty square.
+    * @param constraints the rules of the puzzle.
+    */
+   public SolutionSpliterator(int[] puzzle, Constraints constraints) {
+      this(puzzle, constraints, findEmpties(puzzle), 0, -1);
+   }
+
+   /**
+    * Private Constructor - starts a search below a depth.
+    *
+    * @param puzzle the puzzle, with the squares above the depth filled in.
+    * @param constraints the rules of the puzzle.
+    * @param empties the array indexes of the empty squares of the puzzle.
+    * @param base the depth to search from.
+    * @param untried the numbers to try at that depth, or -1 for every number
+    *        its square can hold.
+    */
+   private SolutionSpliterator(int[] puzzle, Constraints constraints,
+           int[] empties, int base, int untried) {
+      this.constraints = constraints;
+      this.empties = empties;
+      this.base = base;
+      depth = base;
+      grid = puzzle.clone();
+      unitUsed = new int[constraints.getUnitCount()];
+      cageRemaining = new int[constraints.getCageCount()];
+      cageEmpty = new int[constraints.getCageCount()];
+      this.untried = new int[empties.length];
+      placed = new int[empties.length];
+
+      for (int c = 0; c < cageRemaining.length; c++) {
+         cageRemaining[c] = constraints.getCageSum(c);
+         cageEmpty[c] = constraints.getUnit(constraints.getCageUnit(c)).length;
+      }
+      for (int i = 0; i < 81; i++) {
+         if (grid[i] != 0) {
+            place(i, grid[i]);
+         }
+      }
+      if (base < empties.length) {
+         this.untried[base] = (untried < 0) ? getCandidates(empties[base])
+                 : untried;
+      }
+   }
+
+   /**
+    * Finds the next solution.
+    *
+    * @param action given the solution, if there is one.
+    * @return false if there are no more solutions.
+    */
+   public boolean tryAdvance(Consumer<? super int[]> action) {
+      if (!next()) {
+         return false;
+      }
+      action.accept(grid.clone());
+      return true;
+   }
+
+   /**
+    * Carries on the search until the grid is full.
+    *
+    * @return true if the grid holds a solution, or false if there are no more.
+    */
+   private boolean next() {
+      while (depth >= base) {
+         if (depth == empties.length) {
+            // the numbers stay placed until the search carries on.
+            depth--;
+            return true;
+         }
+         int i = empties[depth];
+         if (placed[depth] != 0) {
+            remove(i, placed[depth]);
+            grid[i] = 0;
+            placed[depth] = 0;
+         }
+         if (untried[depth] == 0) {
+            depth--;
+            continue;
+         }
+         int j = Integer.numberOfTrailingZeros(untried[depth]);
+         untried[depth] &= untried[depth] - 1;
+         grid[i] = j;
+         place(i, j);
+         placed[depth] = j;
+         if (++depth < empties.length) {
+            untried[depth] = getCandidates(empties[depth]);
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Hands some of the branches that haven't been searched yet to a new
+    * spliterator.
+    *
+    * The shallowest square with numbers left to try gives up half of them, or
+    * all of them if a number is already placed there, since the branch of that
+    * number is still searched here.
+    *
+    * @return the new spliterator, or null if there is nothing to hand over.
+    */
+   public Spliterator<int[]> trySplit() {
+      for (int d = base; d < empties.length && d <= depth; d++) {
+         boolean inBranch = d < depth || placed[d] != 0;
+         int split = untried[d];
+         if (!inBranch) {
+            if (Integer.bitCount(split) < 2) {
+               return null;
+            }
+            // keep the lower half of the numbers.
+            for (int n = Integer.bitCount(split) / 2; n > 0; n--) {
+               split &= split - 1;
+            }
+         } else if (split == 0) {
+            // every other branch of this square is done, so it's fixed.
+            base = d + 1;
+            continue;
+         }
+         untried[d] &= ~split;
+
+         int[] prefix = grid.clone();
+         for (int e = d; e < empties.length; e++) {
+            prefix[empties[e]] = 0;
+         }
+         estimate >>>= 1;
+         SolutionSpliterator other = new SolutionSpliterator(prefix,
+                 constraints, empties, d, split);
+         other.estimate = estimate;
+         return other;
+      }
+      return null;
+   }
+
+   /**
+    * Returns the estimated amount of solutions left, which is unknown until
+    * the search is done.
+    *
+    * @return the estimate.
+    */
+   public long estimateSize() {
+      return estimate;
+   }
+
+   /**
+    * Returns the characteristics of the solutions - none is null, and each is
+    * different.
+    *
+    * @return {@link Spliterator#NONNULL} and {@link Spliterator#DISTINCT}.
+    */
+   public int characteristics() {
+      return NONNULL | DISTINCT;
+   }
+
+   /**
+    * Returns the numbers a square can hold, given the numbers placed so far.
+    *
+    * @param index the array index of the square.
+    * @return a mask with a bit set for each number.
+    */
+   private int getCandidates(int index) {
+      int used = 0;
+      for (int unit : constraints.getUnits(index)) {
+         used |= unitUsed[unit];
+      }
+      int candidates = constraints.getAllowed(index) & ~used;
+      int cage = constraints.getCage(index);
+      if (cage >= 0) {
+         candidates &= Constraints.getCageCandidates(
+                 unitUsed[constraints.getCageUnit(cage)], cageEmpty[cage],
+                 cageRemaining[cage]);
+      }
+      return candidates;
+   }
+
+   /**
+    * Marks a number as used by every unit of a square.
+    *
+    * @param index the array index of the square.
+    * @param value the number.
+    */
+   private void place(int index, int value) {
+      for (int unit : constraints.getUnits(index)) {
+         unitUsed[unit] |= 1 << value;
+      }
+      int cage = constraints.getCage(index);
+      if (cage >= 0) {
+         cageRemaining[cage] -= value;
+         cageEmpty[cage]--;
+      }
+   }
+
+   /**
+    * Takes a number back off every unit of a square.
+    *
+    * @param index the array index of the square.
+    * @param value the number.
+    */
+   private void remove(int index, int value) {
+      for (int unit : constraints.getUnits(index)) {
+         unitUsed[unit] &= ~(1 << value);
+      }
+      int cage = constraints.getCage(index);
+      if (cage >= 0) {
+         cageRemaining[cage] += value;
+         cageEmpty[cage]++;
+      }
+   }
+
+   /**
+    * Returns the array indexes of the empty squares of a puzzle.
+    *
+    * @param puzzle the puzzle.
+    * @return the indexes, in order.
+    */
+   private static int[] findEmpties(int[] puzzle) {
+      int count = 0;
+      for (int value : puzzle) {
+         count += (value == 0) ? 1 : 0;
+      }
+      int[] empties = new int[count];
+      for (int i = 0, e = 0; i < 81; i++) {
+         if (puzzle[i] == 0) {
+            empties[e++] = i;
+         }
+      }
+      return empties;
+   }
+}
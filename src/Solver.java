@@ -2,8 +2,9 @@
 package sudoku;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Solves a Sudoku puzzle.
@@ -20,6 +21,57 @@ public class Solver {
    private ArrayList<Integer> nonZeros;
    /** True if an array is solved. */
    private boolean solved;
+   /** The amount of solutions found by the current search. */
+   private int found;
+   /** The search stops once this many solutions have been found. */
+   private int limit;
+   /** The amount of numbers that have been tried in the current solve. */
+   private long nodes;
+   /** The amount of squares filled in by the search so far. */
+   private int depth;
+   /** The most squares the current solve has filled in at once. */
+   private int maxDepth;
+   /** True if the current solve should stop as soon as possible. */
+   private volatile boolean cancelled;
+   /** True once the search has seen the cancel and is unwinding. */
+   private boolean stopped;
+   /** Told about the progress of a solve, or null. */
+   private ProgressListener listener;
+   /** The rules of the puzzle, classic Sudoku unless set. */
+   private Constraints constraints = Constraints.CLASSIC;
+   /** The numbers used by each unit of the constraints, one bit each. */
+   private int[] unitUsed = new int[27];
+   /** The rest of the sum of each cage. */
+   private int[] cageRemaining = new int[0];
+   /** The amount of empty squares in each cage. */
+   private int[] cageEmpty = new int[0];
+   /** Records each step of the search, or null unless tracing is on. */
+   private final SearchTrace trace = SearchTrace.ENABLED ? new SearchTrace()
+           : null;
+
+   /** The amount of numbers tried between each progress report. */
+   private static final int PROGRESS_INTERVAL = 1 << 14;
+   /** Times {@link Solver#solveArray(int[])}. */
+   private static final Metrics.Timer SOLVE = Metrics.timer("solver.solve");
+   /** Counts the numbers tried by {@link Solver#solveArray(int[])}. */
+   private static final Metrics.Counter NODES =
+           Metrics.counter("solver.nodes");
+   /** Times {@link Solver#checkValidSolveRequest(int[])}. */
+   private static final Metrics.Timer VALIDATE =
+           Metrics.timer("solver.validate");
+
+   /**
+    * Listens for the progress of a solve.
+    */
+   public interface ProgressListener {
+
+      /**
+       * Called every few thousand numbers tried, on the solving thread.
+       *
+       * @param nodes the amount of numbers tried so far.
+       */
+      void progress(long nodes);
+   }
 
    /**
     * Default Constructor - initialises the arrays.
@@ -37,8 +89,11 @@ public class Solver {
     * @param input the array that is to be solved.
     */
    public void solveArray(int[] input) {
+      long begin = System.nanoTime();
       setupSolver(input);
       Solve();
+      SOLVE.recordSince(begin);
+      NODES.add(nodes);
    }
 
    /**
@@ -48,8 +103,38 @@ public class Solver {
     * @return true if the request was valid.
     */
    public boolean checkValidSolveRequest(int[] input) {
-      setNonZeros(input);
-      return (Algorithms.isValidSolve(input, nonZeros));
+      long begin = System.nanoTime();
+      boolean valid;
+      if (!constraints.isClassic()) {
+         valid = constraints.isValid(input);
+      } else {
+         setNonZeros(input);
+         valid = Algorithms.isValidSolve(input, nonZeros);
+      }
+      VALIDATE.recordSince(begin);
+      return valid;
+   }
+
+   /**
+    * Sets the rules of the puzzles this solver solves.
+    *
+    * @param constraints the rules, {@link Constraints#CLASSIC} for a normal
+    *        Sudoku.
+    */
+   public void setConstraints(Constraints constraints) {
+      this.constraints = constraints;
+      unitUsed = new int[constraints.getUnitCount()];
+      cageRemaining = new int[constraints.getCageCount()];
+      cageEmpty = new int[constraints.getCageCount()];
+   }
+
+   /**
+    * Returns the rules of the puzzles this solver solves.
+    *
+    * @return the rules.
+    */
+   public Constraints getConstraints() {
+      return constraints;
    }
 
    /**
@@ -59,57 +144,278 @@ public class Solver {
     */
    private void setupSolver(int[] input) {
       solved = false;
+      stopped = false;
+      nodes = 0;
       for (int i = 0; i < 81; i++) {
          unsolvedArray[i] = (char) (input[i] + '0');
       }
+
+      Arrays.fill(unitUsed, 0);
+      for (int c = 0; c < cageRemaining.length; c++) {
+         cageRemaining[c] = constraints.getCageSum(c);
+         cageEmpty[c] = constraints.getUnit(constraints.getCageUnit(c)).length;
+      }
+      for (int i = 0; i < 81; i++) {
+         if (input[i] != 0) {
+            place(i, input[i]);
+         }
+      }
+   }
+
+   /**
+    * Marks a number as used by every unit of a square.
+    *
+    * @param index the array index of the square.
+    * @param value the number.
+    */
+   private void place(int index, int value) {
+      for (int unit : constraints.getUnits(index)) {
+         unitUsed[unit] |= 1 << value;
+      }
+      int cage = constraints.getCage(index);
+      if (cage >= 0) {
+         cageRemaining[cage] -= value;
+         cageEmpty[cage]--;
+      }
+   }
+
+   /**
+    * Takes a number back off every unit of a square.
+    *
+    * @param index the array index of the square.
+    * @param value the number.
+    */
+   private void remove(int index, int value) {
+      for (int unit : constraints.getUnits(index)) {
+         unitUsed[unit] &= ~(1 << value);
+      }
+      int cage = constraints.getCage(index);
+      if (cage >= 0) {
+         cageRemaining[cage] += value;
+         cageEmpty[cage]++;
+      }
    }
 
    /**
     * Solving algorithm, adapted from <a href="http://goo.gl/eY3Pv">here</a>.
+    *
+    * The numbers used by each unit of the {@link Constraints} are kept in bit
+    * masks that are updated as numbers are placed and taken back, so a square's
+    * candidates are found by combining the masks of its few units, and no
+    * objects are created while searching.
     */
    public void Solve() {
-      for (char c : unsolvedArray) {
-         if (c == '0') {
-            solved = false;
-            break;
-         } else {
-            solved = true;
-         }
+      run(1);
+   }
+
+   /**
+    * Counts the solutions of a given array, up to a limit, and sets the values
+    * of <em>solvedArray</em> to the first solution found.
+    *
+    * Like {@link Solver#solveArray(int[])} this doesn't check the numbers
+    * that are already on the grid, see
+    * {@link Solver#checkValidSolveRequest(int[])}.
+    *
+    * @param input the array that is to be solved.
+    * @param limit the most solutions to look for, 2 to check that a puzzle has
+    *        exactly one solution.
+    * @return the amount of solutions found, at most <em>limit</em>.
+    */
+   public int countSolutions(int[] input, int limit) {
+      setupSolver(input);
+      run(limit);
+      return found;
+   }
+
+   /**
+    * Returns a stream of every solution of a given array, under the
+    * constraints of this solver.
+    *
+    * The solutions are found lazily as the stream is read, so a stream that
+    * is cut short, with <em>limit</em> or <em>findAny</em> say, stops the
+    * search, and the search needs the same memory however many solutions
+    * there are. A parallel stream splits the search tree between threads -
+    * see {@link SolutionSpliterator}. This solver's arrays aren't used, so it
+    * can go on solving while the stream is read.
+    *
+    * @param input the array that is to be solved.
+    * @return the solutions, a new array of 81 values each, or an empty stream
+    *         if the numbers on the grid already break a constraint.
+    */
+   public Stream<int[]> solutions(int[] input) {
+      if (!constraints.isValid(input)) {
+         return Stream.empty();
       }
+      return StreamSupport.stream(new SolutionSpliterator(input, constraints),
+              false);
+   }
 
-      /******************************************************************
-       ** This is the implementation of the adapted solving algorithm. **/
-      int i, j;
+   /**
+    * Searches for solutions until the limit is reached or there are no more.
+    *
+    * @param limit the most solutions to look for.
+    */
+   private void run(int limit) {
+      Probes.Sink probe = Probes.getSink();
+      Object event = (probe != null) ? probe.solveStarted() : null;
+      this.limit = limit;
+      found = 0;
+      depth = 0;
+      maxDepth = 0;
+      if (SearchTrace.ENABLED) {
+         trace.start();
+      }
+      search();
+      if (SearchTrace.ENABLED) {
+         trace.end(found, stopped);
+      }
+      solved = found > 0;
+      if (listener != null) {
+         listener.progress(nodes);
+      }
+      if (event != null) {
+         probe.solveFinished(event, nodes, maxDepth, found, stopped
+                 ? "cancelled" : (found == 0) ? "no solution"
+                 : (found == 1) ? "solved" : "multiple solutions");
+      }
+   }
 
-      for (i = 0; i < 81; i++) {
+   /**
+    * Fills the first empty square with each number its units don't use, and
+    * recursively solves the rest of the grid, counting each full grid as a
+    * solution.
+    *
+    * A square in a cage only gets the numbers that can still add up to the
+    * rest of the cage's sum, and a square marked odd or even only gets those
+    * numbers. The squares and numbers are tried in the same order for every
+    * variant, so a classic puzzle tries the same numbers as before.
+    *
+    * Every {@link Solver#PROGRESS_INTERVAL} numbers the listener is told about
+    * the progress, and the search gives up if it was cancelled. With
+    * -Dsudoku.trace each step is recorded, see {@link SearchTrace}.
+    *
+    * @return true once enough solutions have been found.
+    */
+   private boolean search() {
+      for (int i = 0; i < 81; i++) {
          if (unsolvedArray[i] != '0') {
             continue;
          }
 
-         Map<String, String> h = new HashMap<String, String>();
-         for (j = 0; j < 81; j++) {
-            h.put(j / 9 == i / 9 || j % 9 == i % 9 || (j / 27 == i / 27)
-                    && ((j % 9 / 3) == (i % 9 / 3))
-                    ? "" + unsolvedArray[j] : "0", "1");
+         int used = 0;
+         for (int unit : constraints.getUnits(i)) {
+            used |= unitUsed[unit];
          }
-         for (j = 1; j <= 9; j++) {
-            if (h.get("" + j) == null) {
+         int candidates = constraints.getAllowed(i) & ~used;
+         int cage = constraints.getCage(i);
+         if (cage >= 0) {
+            candidates &= Constraints.getCageCandidates(
+                    unitUsed[constraints.getCageUnit(cage)], cageEmpty[cage],
+                    cageRemaining[cage]);
+         }
+         if (SearchTrace.ENABLED) {
+            trace.branch(i, Integer.bitCount(candidates), depth);
+         }
+         for (int j = 1; j <= 9; j++) {
+            if ((candidates & (1 << j)) != 0) {
+               if ((++nodes & (PROGRESS_INTERVAL - 1)) == 0 && !report()) {
+                  break;
+               }
                unsolvedArray[i] = (char) ('0' + j);
-               if (solved) {
-                  return;
-               } else {
-                  Solve();
+               place(i, j);
+               if (SearchTrace.ENABLED) {
+                  trace.assign(i, j, depth);
+               }
+               if (++depth > maxDepth) {
+                  maxDepth = depth;
+               }
+               boolean done = search();
+               depth--;
+               remove(i, j);
+               if (SearchTrace.ENABLED) {
+                  trace.backtrack(i, j, depth);
+               }
+               if (done) {
+                  return true;
+               } else if (stopped) {
+                  break;
                }
             }
          }
          unsolvedArray[i] = '0';
-         return;
+         return false;
+      }
+
+      // the grid is full - keep the first solution, and stop at the limit.
+      if (SearchTrace.ENABLED) {
+         trace.solution(depth);
+      }
+      if (++found == 1) {
+         for (int k = 0; k < 81; k++) {
+            solvedArray[k] = unsolvedArray[k] - '0';
+         }
+      }
+      return found >= limit;
+   }
+
+   /**
+    * Tells the listener about the progress, and checks for a cancel.
+    *
+    * @return false if the search should stop.
+    */
+   private boolean report() {
+      if (cancelled) {
+         stopped = true;
+         return false;
       }
-      /******************************************************************/
-      // Creates an integer array from the char array.
-      for (i = 0; i < 81; i++) {
-         solvedArray[i] = Integer.parseInt(unsolvedArray[i] + "");
+      if (listener != null) {
+         listener.progress(nodes);
       }
+      return true;
+   }
+
+   /**
+    * Stops the current solve, which then finishes without a solution. Can be
+    * called from any thread, and a cancelled solver stays cancelled.
+    */
+   public void cancel() {
+      cancelled = true;
+   }
+
+   /**
+    * Returns true if the solver was cancelled.
+    *
+    * @return true if {@link Solver#cancel()} was called.
+    */
+   public boolean isCancelled() {
+      return cancelled;
+   }
+
+   /**
+    * Sets the listener that is told about the progress of each solve.
+    *
+    * @param listener the listener, or null for none.
+    */
+   public void setProgressListener(ProgressListener listener) {
+      this.listener = listener;
+   }
+
+   /**
+    * Returns the amount of numbers tried in the last solve.
+    *
+    * @return the amount of numbers tried.
+    */
+   public long getNodeCount() {
+      return nodes;
+   }
+
+   /**
+    * Returns true if the last solve found a solution.
+    *
+    * @return true if the last solve found a solution.
+    */
+   public boolean isSolved() {
+      return solved;
    }
 
    /**
@@ -0,0 +1,629 @@
+/* File: SolverFuzzer.java  -  April 2011 */
+package sudoku;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Differential fuzzing and throughput regression harness for the solvers.
+ *
+ * Generates a corpus of random puzzles with {@link PuzzleGenerator} - unique,
+ * near-minimal, with several solutions, without a solution, and with a
+ * repeated clue - and runs every solver on each of them. Each answer is
+ * checked against what the puzzle is known to have: any solution must be a
+ * valid grid that keeps the clues, the amount of solutions must match, and a
+ * puzzle with a single solution must be solved to that solution by every
+ * solver.
+ * <br><br>
+ * The corpus is then solved once more by each solver, timed, and the
+ * throughput is compared with the baseline file. The run fails if any answer
+ * was wrong, or if a solver is slower than its baseline by more than the
+ * tolerance in the file. With <em>-Dsudoku.fuzz.update=true</em> the baseline
+ * is rewritten with the measured throughput instead.
+ * <br><br>
+ * Usage: <em>SolverFuzzer &lt;baseline&gt; [puzzles] [seed]</em> - run by
+ * the <em>fuzz</em> target in build.xml. The same seed always gives the same
+ * corpus, and nothing is read or written except the baseline.
+ *
+ * @author Rudi Theunissen
+ */
+public class SolverFuzzer {
+
+   /** Answer - the puzzle has no solution. */
+   private static final int NONE = 0;
+   /** Answer - the puzzle has exactly one solution. */
+   private static final int ONE = 1;
+   /** Answer - the puzzle has more than one solution. */
+   private static final int MANY = 2;
+   /** Answer - the puzzle has a solution, but they weren't counted. */
+   private static final int SOME = 3;
+   /** Answer - the solver couldn't tell. */
+   private static final int UNKNOWN = -1;
+
+   /** The amount of failures that are printed in full. */
+   private static final int MAX_REPORTED = 10;
+   /** The tolerance used if the baseline file doesn't have one. */
+   private static final double DEFAULT_TOLERANCE = 0.5;
+
+   /** The kinds of puzzle in the corpus. */
+   private enum Kind {
+      /** A puzzle with one solution and 25 to 40 clues. */
+      UNIQUE,
+      /** A minimal puzzle, with up to two of its removed clues put back. */
+      NEAR_MINIMAL,
+      /** A minimal puzzle with one more clue removed. */
+      MULTIPLE,
+      /** A unique puzzle with a wrong, but not repeated, number added. */
+      UNSOLVABLE,
+      /** A unique puzzle with a number added that its row, column or 3 by 3
+       *  section already has. */
+      INVALID
+   }
+
+   /**
+    * A puzzle in the corpus, and what is known about it.
+    */
+   private static class Case {
+
+      /** The kind of puzzle. */
+      private Kind kind;
+      /** The puzzle, 0 for an empty square. */
+      private int[] puzzle;
+      /** The only solution, or null if it doesn't have exactly one. */
+      private int[] solution;
+      /** The amount of solutions - {@link SolverFuzzer#NONE},
+       *  {@link SolverFuzzer#ONE} or {@link SolverFuzzer#MANY}. */
+      private int expected;
+   }
+
+   /**
+    * A solver that is fuzzed.
+    */
+   private interface Candidate {
+
+      /**
+       * Returns the name of the solver, used in the report and baseline.
+       *
+       * @return the name of the solver.
+       */
+      String getName();
+
+      /**
+       * Solves a puzzle.
+       *
+       * @param puzzle the puzzle, which must not be changed.
+       * @param solution filled with a solution, if the answer has one.
+       * @return the answer - NONE, ONE, MANY, SOME or UNKNOWN.
+       */
+      int solve(int[] puzzle, int[] solution);
+   }
+
+   /**
+    * Runs the harness.
+    *
+    * @param args the baseline file, and optionally the amount of puzzles and
+    *        the seed.
+    */
+   public static void main(String[] args) {
+      if (args.length < 1) {
+         System.err.println("Usage: SolverFuzzer <baseline> [puzzles] [seed]");
+         System.exit(1);
+      }
+      File baselineFile = new File(args[0]);
+      int size = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+      long seed = (args.length > 2) ? Long.parseLong(args[2]) : 2011;
+
+      long begin = System.nanoTime();
+      List<Case> corpus = generate(size, seed);
+      System.out.printf("generated %d puzzles with seed %d in %.1f s%n",
+              corpus.size(), seed, (System.nanoTime() - begin) / 1e9);
+
+      List<Candidate> candidates = getCandidates();
+      int failures = 0;
+      for (Candidate candidate : candidates) {
+         failures += check(candidate, corpus);
+      }
+
+      Properties measured = new Properties();
+      for (Candidate candidate : candidates) {
+         measured.setProperty(candidate.getName(),
+                 String.valueOf(Math.round(measure(candidate, corpus))));
+      }
+
+      if (Boolean.getBoolean("sudoku.fuzz.update")) {
+         writeBaseline(baselineFile, measured, size, seed);
+      } else {
+         failures += compare(readBaseline(baselineFile), measured);
+      }
+
+      if (failures > 0) {
+         System.out.println("FAILED: " + failures + " failures");
+         System.exit(1);
+      }
+      System.out.println("passed");
+   }
+
+   /**
+    * Generates the corpus. Every tenth puzzle is invalid, two in ten are
+    * unsolvable, one in ten has several solutions, two in ten are near-minimal
+    * and the rest are unique.
+    *
+    * @param size the amount of puzzles.
+    * @param seed the seed of the generator.
+    * @return the corpus.
+    */
+   private static List<Case> generate(int size, long seed) {
+      PuzzleGenerator generator = new PuzzleGenerator(seed);
+      Random random = generator.getRandom();
+      List<Case> corpus = new ArrayList<Case>();
+
+      for (int i = 0; i < size; i++) {
+         int[] solution = generator.newSolution();
+         Case c = new Case();
+         switch (i % 10) {
+            case 0:
+               c.kind = Kind.INVALID;
+               c.puzzle = generator.removeClues(solution, 30);
+               addNumber(c.puzzle, solution, random, true);
+               c.expected = NONE;
+               break;
+            case 1:
+            case 2:
+               c.kind = Kind.UNSOLVABLE;
+               c.puzzle = generator.removeClues(solution, 30);
+               addNumber(c.puzzle, solution, random, false);
+               c.expected = NONE;
+               break;
+            case 3:
+               c.kind = Kind.MULTIPLE;
+               c.puzzle = generator.minimalPuzzle(solution);
+               for (int index : generator.shuffledSquares()) {
+                  if (c.puzzle[index] != 0) {
+                     c.puzzle[index] = 0;
+                     break;
+                  }
+               }
+               c.expected = MANY;
+               break;
+            case 4:
+            case 5:
+               c.kind = Kind.NEAR_MINIMAL;
+               c.puzzle = generator.minimalPuzzle(solution);
+               int extra = random.nextInt(3);
+               for (int index : generator.shuffledSquares()) {
+                  if (extra > 0 && c.puzzle[index] == 0) {
+                     c.puzzle[index] = solution[index];
+                     extra--;
+                  }
+               }
+               c.solution = solution;
+               c.expected = ONE;
+               break;
+            default:
+               c.kind = Kind.UNIQUE;
+               c.puzzle = generator.removeClues(solution, 25 + random.nextInt(16));
+               c.solution = solution;
+               c.expected = ONE;
+         }
+         corpus.add(c);
+      }
+      return corpus;
+   }
+
+   /**
+    * Puts a wrong number into an empty square of a unique puzzle.
+    *
+    * If the number isn't repeated, the puzzle no longer has a solution - its
+    * only solution had another number in that square.
+    *
+    * @param puzzle the puzzle to change.
+    * @param solution the solution of the puzzle.
+    * @param random random number generator.
+    * @param repeated true to use a number that a peer already has.
+    */
+   private static void addNumber(int[] puzzle, int[] solution, Random random,
+           boolean repeated) {
+      while (true) {
+         int index = random.nextInt(81);
+         if (puzzle[index] != 0) {
+            continue;
+         }
+         int used = 0;
+         for (int k = 0; k < Algorithms.PEER_COUNT; k++) {
+            used |= 1 << puzzle[Algorithms.getPeer(index, k)];
+         }
+         int start = random.nextInt(9);
+         for (int n = 0; n < 9; n++) {
+            int number = (start + n) % 9 + 1;
+            boolean isUsed = (used & (1 << number)) != 0;
+            if (number != solution[index] && isUsed == repeated) {
+               puzzle[index] = number;
+               return;
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns every solver that is fuzzed.
+    *
+    * @return the solvers.
+    */
+   private static List<Candidate> getCandidates() {
+      List<Candidate> candidates = new ArrayList<Candidate>();
+
+      // the solver used by the app.
+      candidates.add(new Candidate() {
+         private Solver solver = new Solver();
+
+         public String getName() {
+            return "Solver.solveArray";
+         }
+
+         public int solve(int[] puzzle, int[] solution) {
+            if (!solver.checkValidSolveRequest(puzzle)) {
+               return NONE;
+            }
+            solver.solveArray(puzzle);
+            if (!solver.isSolved()) {
+               return NONE;
+            }
+            System.arraycopy(solver.getSolvedArray(), 0, solution, 0, 81);
+            return SOME;
+         }
+      });
+
+      // the same search, counting up to two solutions.
+      candidates.add(new Candidate() {
+         private Solver solver = new Solver();
+
+         public String getName() {
+            return "Solver.countSolutions";
+         }
+
+         public int solve(int[] puzzle, int[] solution) {
+            if (!solver.checkValidSolveRequest(puzzle)) {
+               return NONE;
+            }
+            int count = solver.countSolutions(puzzle, 2);
+            if (count > 0) {
+               System.arraycopy(solver.getSolvedArray(), 0, solution, 0, 81);
+            }
+            return count;
+         }
+      });
+
+      // singles only - a puzzle they fill is unique, and a contradiction
+      // means it has no solution.
+      candidates.add(new Candidate() {
+         private Solver solver = new Solver();
+
+         public String getName() {
+            return "Hint.nextLogicalStep";
+         }
+
+         public int solve(int[] puzzle, int[] solution) {
+            if (!solver.checkValidSolveRequest(puzzle)) {
+               return NONE;
+            }
+            int[] grid = puzzle.clone();
+            while (true) {
+               Hint hint = Hint.nextLogicalStep(grid);
+               if (hint == null) {
+                  System.arraycopy(grid, 0, solution, 0, 81);
+                  return ONE;
+               } else if (hint.getTechnique() == Hint.Technique.NO_CANDIDATES) {
+                  return NONE;
+               } else if (hint.getTechnique() == Hint.Technique.NEEDS_SEARCH) {
+                  return UNKNOWN;
+               }
+               grid[hint.getIndex()] = hint.getValue();
+            }
+         }
+      });
+
+      // an independent reference solver, see ReferenceSolver.
+      candidates.add(new Candidate() {
+         public String getName() {
+            return "ReferenceSolver";
+         }
+
+         public int solve(int[] puzzle, int[] solution) {
+            return new ReferenceSolver(puzzle).count(solution);
+         }
+      });
+      return candidates;
+   }
+
+   /**
+    * Checks the answers of a solver for every puzzle in the corpus.
+    *
+    * @param candidate the solver.
+    * @param corpus the puzzles.
+    * @return the amount of wrong answers.
+    */
+   private static int check(Candidate candidate, List<Case> corpus) {
+      int failures = 0;
+      int unknown = 0;
+      int[] solution = new int[81];
+      for (int i = 0; i < corpus.size(); i++) {
+         Case c = corpus.get(i);
+         int answer = candidate.solve(c.puzzle, solution);
+         String error = null;
+
+         if (answer == UNKNOWN) {
+            unknown++;
+         } else if (answer == SOME ? c.expected == NONE : answer != c.expected) {
+            error = "answered " + answer + ", expected " + c.expected;
+         } else if (answer != NONE && !isSolution(c.puzzle, solution)) {
+            error = "returned an invalid solution " + toLine(solution);
+         } else if (c.solution != null && answer != NONE
+                 && !Arrays.equals(c.solution, solution)) {
+            error = "returned another solution " + toLine(solution);
+         }
+
+         if (error != null) {
+            if (++failures <= MAX_REPORTED) {
+               System.out.println(candidate.getName() + " puzzle " + i + " ("
+                       + c.kind + ") " + toLine(c.puzzle) + ": " + error);
+            }
+         }
+      }
+      System.out.printf("%-22s %d wrong, %d not answered%n",
+              candidate.getName(), failures, unknown);
+      return failures;
+   }
+
+   /**
+    * Times a solver over the whole corpus.
+    *
+    * @param candidate the solver.
+    * @param corpus the puzzles.
+    * @return the throughput, in puzzles per second.
+    */
+   private static double measure(Candidate candidate, List<Case> corpus) {
+      int[] solution = new int[81];
+      long begin = System.nanoTime();
+      for (Case c : corpus) {
+         candidate.solve(c.puzzle, solution);
+      }
+      double seconds = (System.nanoTime() - begin) / 1e9;
+      double throughput = corpus.size() / seconds;
+      System.out.printf("%-22s %10.0f puzzles/s%n", candidate.getName(),
+              throughput);
+      return throughput;
+   }
+
+   /**
+    * Compares the measured throughput with the baseline.
+    *
+    * @param baseline the baseline, in puzzles per second for each solver.
+    * @param measured the measured throughput.
+    * @return the amount of solvers that are slower than the baseline allows.
+    */
+   private static int compare(Properties baseline, Properties measured) {
+      double tolerance = Double.parseDouble(baseline.getProperty("tolerance",
+              String.valueOf(DEFAULT_TOLERANCE)));
+      int failures = 0;
+      for (String name : measured.stringPropertyNames()) {
+         String expected = baseline.getProperty(name);
+         if (expected == null) {
+            System.out.println(name + " has no baseline");
+            continue;
+         }
+         double minimum = Double.parseDouble(expected) * (1 - tolerance);
+         double actual = Double.parseDouble(measured.getProperty(name));
+         if (actual < minimum) {
+            System.out.printf("%s regressed: %.0f puzzles/s, baseline %s, "
+                    + "minimum %.0f%n", name, actual, expected, minimum);
+            failures++;
+         }
+      }
+      return failures;
+   }
+
+   /**
+    * Reads the baseline file.
+    *
+    * @param file the baseline file.
+    * @return the baseline, empty if the file couldn't be read.
+    */
+   private static Properties readBaseline(File file) {
+      Properties baseline = new Properties();
+      try {
+         InputStream in = new FileInputStream(file);
+         try {
+            baseline.load(in);
+         } finally {
+            in.close();
+         }
+      } catch (IOException ex) {
+         System.err.println(ex);
+      }
+      return baseline;
+   }
+
+   /**
+    * Writes the measured throughput as the new baseline, keeping the
+    * tolerance of the old one.
+    *
+    * @param file the baseline file.
+    * @param measured the measured throughput.
+    * @param size the amount of puzzles in the corpus.
+    * @param seed the seed of the corpus.
+    */
+   private static void writeBaseline(File file, Properties measured, int size,
+           long seed) {
+      Properties baseline = new Properties();
+      baseline.putAll(measured);
+      baseline.setProperty("tolerance", readBaseline(file).getProperty(
+              "tolerance", String.valueOf(DEFAULT_TOLERANCE)));
+      try {
+         OutputStream out = new FileOutputStream(file);
+         try {
+            baseline.store(out, "Solver throughput in puzzles per second, "
+                    + size + " puzzles, seed " + seed);
+         } finally {
+            out.close();
+         }
+         System.out.println("baseline written to " + file);
+      } catch (IOException ex) {
+         System.err.println(ex);
+      }
+   }
+
+   /**
+    * Checks that a grid is full, valid and keeps the clues of a puzzle.
+    *
+    * @param puzzle the puzzle.
+    * @param grid the grid to check.
+    * @return true if the grid is a solution of the puzzle.
+    */
+   private static boolean isSolution(int[] puzzle, int[] grid) {
+      for (int i = 0; i < 81; i++) {
+         if (grid[i] < 1 || grid[i] > 9
+                 || (puzzle[i] != 0 && puzzle[i] != grid[i])) {
+            return false;
+         }
+      }
+      for (int unit = 0; unit < Algorithms.UNIT_COUNT; unit++) {
+         int seen = 0;
+         for (int k = 0; k < 9; k++) {
+            seen |= 1 << grid[Algorithms.getUnitSquare(unit, k)];
+         }
+         if (seen != 0x3fe) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Writes a grid as a line of 81 characters, '.' for an empty square.
+    *
+    * @param grid the grid.
+    * @return the line.
+    */
+   private static String toLine(int[] grid) {
+      StringBuilder line = new StringBuilder(81);
+      for (int value : grid) {
+         line.append(value == 0 ? '.' : (char) ('0' + value));
+      }
+      return line.toString();
+   }
+
+   /**
+    * A reference solver that shares no code with {@link Solver}.
+    *
+    * Keeps a bit mask of the numbers used in each row, column and 3 by 3
+    * section, computed with plain arithmetic rather than the tables in
+    * {@link Algorithms}, and always fills the square with the fewest
+    * candidates first.
+    */
+   private static class ReferenceSolver {
+
+      /** The grid being solved. */
+      private int[] grid;
+      /** The numbers used in each row. */
+      private int[] rows = new int[9];
+      /** The numbers used in each column. */
+      private int[] cols = new int[9];
+      /** The numbers used in each 3 by 3 section. */
+      private int[] boxes = new int[9];
+      /** False if a number is repeated in the puzzle. */
+      private boolean valid = true;
+      /** The amount of solutions found. */
+      private int found;
+      /** Filled with the first solution found. */
+      private int[] first;
+
+      /**
+       * Constructor - reads the clues of a puzzle.
+       *
+       * @param puzzle the puzzle.
+       */
+      private ReferenceSolver(int[] puzzle) {
+         grid = puzzle.clone();
+         for (int i = 0; i < 81; i++) {
+            if (grid[i] != 0) {
+               int bit = 1 << grid[i];
+               int box = (i / 27) * 3 + (i % 9) / 3;
+               if (((rows[i / 9] | cols[i % 9] | boxes[box]) & bit) != 0) {
+                  valid = false;
+               }
+               rows[i / 9] |= bit;
+               cols[i % 9] |= bit;
+               boxes[box] |= bit;
+            }
+         }
+      }
+
+      /**
+       * Counts the solutions, up to two.
+       *
+       * @param solution filled with the first solution.
+       * @return NONE, ONE or MANY.
+       */
+      private int count(int[] solution) {
+         if (!valid) {
+            return NONE;
+         }
+         first = solution;
+         search();
+         return found;
+      }
+
+      /**
+       * Fills the square with the fewest candidates with each of them.
+       */
+      private void search() {
+         int best = -1;
+         int bestMask = 0;
+         int bestCount = 10;
+         for (int i = 0; i < 81 && bestCount > 1; i++) {
+            if (grid[i] == 0) {
+               int box = (i / 27) * 3 + (i % 9) / 3;
+               int mask = 0x3fe & ~(rows[i / 9] | cols[i % 9] | boxes[box]);
+               int count = Integer.bitCount(mask);
+               if (count < bestCount) {
+                  best = i;
+                  bestMask = mask;
+                  bestCount = count;
+               }
+            }
+         }
+         if (best == -1) {
+            if (++found == 1) {
+               System.arraycopy(grid, 0, first, 0, 81);
+            }
+            return;
+         }
+         int row = best / 9;
+         int col = best % 9;
+         int box = (best / 27) * 3 + col / 3;
+         for (int n = 1; n <= 9 && found < 2; n++) {
+            int bit = 1 << n;
+            if ((bestMask & bit) != 0) {
+               grid[best] = n;
+               rows[row] |= bit;
+               cols[col] |= bit;
+               boxes[box] |= bit;
+               search();
+               rows[row] &= ~bit;
+               cols[col] &= ~bit;
+               boxes[box] &= ~bit;
+            }
+         }
+         grid[best] = 0;
+      }
+   }
+}
@@ -35,17 +35,59 @@ public class SolverNumbers {
   }
 
   /**
-   * If the solving request was valid, run the solver and copy the solved values
-   * into the solving array.
+   * Sets the rules that the grid is checked and solved with.
+   *
+   * @param constraints the rules of the variant.
    */
-  public boolean attemptSolve() {
-    if (!solver.checkValidSolveRequest(solvingArray)) {
-      return false;
-    } else {
-      solver.solveArray(solvingArray);
-      System.arraycopy(solver.getSolvedArray(), 0, solvedArray, 0, 81);
-      return true;
-    }
+  public void setConstraints(Constraints constraints) {
+    solver.setConstraints(constraints);
+  }
+
+  /**
+   * Returns the rules that the grid is checked and solved with.
+   *
+   * @return the rules of the variant.
+   */
+  public Constraints getConstraints() {
+    return solver.getConstraints();
+  }
+
+  /**
+   * Checks that no number on the grid breaks the rules of the variant - for a
+   * classic grid, that none is repeated in its row, column or 3 by 3 section.
+   *
+   * @return true if the grid can be passed to a solver.
+   */
+  public boolean isValidSolveRequest() {
+    return solver.checkValidSolveRequest(solvingArray);
+  }
+
+  /**
+   * Copies the current grid, for a solver to work on while the grid can still
+   * be changed.
+   *
+   * @return a copy of the array that is still to be solved.
+   */
+  public int[] copySolvingArray() {
+    return solvingArray.clone();
+  }
+
+  /**
+   * Replaces the numbers of the grid, such as with a reduced puzzle.
+   *
+   * @param grid the values of the grid, 0 for an empty square.
+   */
+  public void setSolvingArray(int[] grid) {
+    System.arraycopy(grid, 0, solvingArray, 0, 81);
+  }
+
+  /**
+   * Sets the values that are shown once the grid has been solved.
+   *
+   * @param solved the values of the solved grid.
+   */
+  public void setSolvedArray(int[] solved) {
+    System.arraycopy(solved, 0, solvedArray, 0, 81);
   }
 
   /**
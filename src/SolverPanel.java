@@ -3,6 +3,10 @@ package sudoku;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
 import javax.swing.*;
 
 /**
@@ -25,18 +29,49 @@ public class SolverPanel extends JPanel implements ActionListener {
    private SolverNumbers numbers;
    /** Instance of {@link Images}, used to load images. */
    private Images images;
+   /** Instance of {@link BoardRenderer}, used to paint the grid. */
+   private BoardRenderer renderer;
+   /** Instance of {@link InputLatency}, measures input to paint latency. */
+   private InputLatency latency;
    /** True if numbers are currently able to be entered. */
    private boolean inputNumberState;
    /** True if the grid was solved. */
    private boolean solvedState;
    /** True if the invalid-solve-request notification dialog should be shown. */
    private boolean showInvalidDialog;
+   /** True for each square that has changed since the last repaint. */
+   private boolean[] dirtySquares;
+   /** True if the whole panel has changed since the last repaint. */
+   private boolean dirtyPanel;
+   /** The {@link Solver} of the solve that is running, or null. */
+   private Solver solver;
+   /** True while the grid is being reduced. */
+   private boolean reducing;
+   /** Reduces grids to minimal puzzles, created when first used. */
+   private PuzzleReducer reducer;
+   /** Chooses the clues that are removed first. */
+   private final Random random = new Random();
+
+   /** The least time between progress updates, in nanoseconds. */
+   private static final long PROGRESS_PERIOD = 50000000L;
+   /** The colour that the extra units of a variant are shaded with. */
+   private static final Color VARIANT_SHADE = new Color(255, 200, 0, 48);
 
    /**
     * Default Constructor - sets initial values for data fields, creates all the
     * swing components and defines the layout of the panel.
     */
    public SolverPanel() {
+      this(new BoardRenderer(Images.getInstance()));
+   }
+
+   /**
+    * Constructor - uses a renderer that was created beforehand, off the event
+    * dispatch thread.
+    *
+    * @param renderer the renderer that paints the grid.
+    */
+   public SolverPanel(BoardRenderer renderer) {
       this.setPreferredSize(new Dimension(540, 410));
       this.setMaximumSize(new Dimension(540, 410));
       this.setFocusTraversalKeysEnabled(false);
@@ -46,11 +81,14 @@ public class SolverPanel extends JPanel implements ActionListener {
       this.addKeyListener(new KeyboardAdapter());
       this.addMouseListener(new MouseClickAdapter());
 
-      images = new Images(true);
+      images = Images.getInstance();
+      this.renderer = renderer;
+      latency = new InputLatency("solver");
       numbers = new SolverNumbers();
       squareX = 5;
       squareY = 5;
       inputNumberState = true;
+      dirtySquares = new boolean[81];
 
       processNotifier = new JProgressBar();
       processNotifier.setString("Idle");
@@ -93,15 +131,20 @@ public class SolverPanel extends JPanel implements ActionListener {
     */
    public void actionPerformed(ActionEvent e) {
       String command = e.getActionCommand();
+      if (reducing && !"exit".equals(command)) {
+         return;
+      }
 
       if ("new".equals(command)) {
+         cancelSolve();
          newSolver();
       } else if ("solve".equals(command)) {
          Solve();
       } else if ("exit".equals(command)) {
+         cancelSolve();
          Sudoku.setCard("Card with Menu");
       }
-      repaint();
+      repaintDirty();
    }
 
    /**
@@ -114,51 +157,231 @@ public class SolverPanel extends JPanel implements ActionListener {
       solvedState = false;
       showInvalidDialog = false;
       processNotifier.setString("Blank");
+      markPanel();
+   }
+
+   /**
+    * Switches to the next of the built-in variants, see
+    * {@link Constraints#getBuiltInVariants()}, keeping the numbers on the grid.
+    */
+   public void nextVariant() {
+      List<Constraints> variants = Constraints.getBuiltInVariants();
+      int next = variants.indexOf(numbers.getConstraints()) + 1;
+      numbers.setConstraints(variants.get(next % variants.size()));
+      solvedState = false;
+      showInvalidDialog = false;
+      processNotifier.setString(numbers.getConstraints().getName());
+      markPanel();
    }
 
    /**
     * Runs the solving algorithm in the {@link Solver}, using a call to
-    * {@link Solver#solveArray(int[])}.
+    * {@link Solver#solveArray(int[])}, or cancels it if it's already running.
+    *
+    * The solver works on a copy of the grid in a background thread. Its node
+    * counter is shown in the progress bar at most every
+    * {@link SolverPanel#PROGRESS_PERIOD}, and the solved grid is shown as soon
+    * as the solver is done.
     */
    public void Solve() {
+      if (solver != null) {
+         cancelSolve();
+         return;
+      }
       solvedState = false;
-      showInvalidDialog = false;
+      showInvalidDialog = !numbers.isValidSolveRequest();
+      if (showInvalidDialog) {
+         processNotifier.setString("Invalid");
+         showResult();
+         return;
+      }
+      final int[] puzzle = numbers.copySolvingArray();
+      final Solver running = new Solver();
+      running.setConstraints(numbers.getConstraints());
+      solver = running;
       setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+      processNotifier.setIndeterminate(true);
+      processNotifier.setString("Solving...");
+
+      // solves the copy in a seperate thread..
+      SwingWorker<int[], Long> solveThread = new SwingWorker<int[], Long>() {
+         /** The time that progress was last published. */
+         private long lastPublished = System.nanoTime();
 
-      // attempts to solve the array in a seperate thread..
-      SwingWorker<Void, Void> solveThread = new SwingWorker<Void, Void>() {
          @Override
-         public Void doInBackground() {
-            showInvalidDialog = !numbers.attemptSolve();
-            if (!showInvalidDialog) {
-               processNotifier.setIndeterminate(true);
-               processNotifier.setString("Solving...");
-               try {
-                  Thread.sleep(500);
-               } catch (InterruptedException ex) {
-                  System.err.println("Thread was interrupted.");
+         public int[] doInBackground() {
+            running.setProgressListener(new Solver.ProgressListener() {
+               public void progress(long nodes) {
+                  long now = System.nanoTime();
+                  if (now - lastPublished >= PROGRESS_PERIOD) {
+                     lastPublished = now;
+                     publish(nodes);
+                  }
                }
+            });
+            running.solveArray(puzzle);
+            return running.isSolved() ? running.getSolvedArray() : null;
+         }
+         // shows the latest node count, on the event dispatch thread.
+         @Override
+         protected void process(List<Long> progress) {
+            if (solver == running && !running.isCancelled()) {
+               processNotifier.setString(
+                       formatNodes(progress.get(progress.size() - 1)));
             }
-            return null;
          }
          // after the solver has executed..
          @Override
          protected void done() {
-            if (!showInvalidDialog) {
-               processNotifier.setString("Solved");
-            } else {
-               processNotifier.setString("Invalid");
+            int[] solved = null;
+            try {
+               solved = get();
+            } catch (InterruptedException ex) {
+               System.err.println(ex);
+            } catch (ExecutionException ex) {
+               System.err.println(ex);
             }
+            finishSolve(running, solved);
+         }
+      };
+      solveThread.execute();
+   }
+
+   /**
+    * Reduces the grid to a minimal puzzle with the same single solution, using
+    * a {@link PuzzleReducer} in a background thread. Each reduction removes
+    * the clues in a new random order, so reducing again can give a different
+    * minimal puzzle.
+    */
+   public void reduce() {
+      if (solver != null || reducing) {
+         return;
+      }
+      solvedState = false;
+      showInvalidDialog = !numbers.isValidSolveRequest();
+      if (showInvalidDialog) {
+         processNotifier.setString("Invalid");
+         showResult();
+         return;
+      }
+      final Constraints constraints = numbers.getConstraints();
+      if (reducer == null) {
+         reducer = new PuzzleReducer(
+                 Runtime.getRuntime().availableProcessors());
+      }
+      final PuzzleReducer running = reducer;
+      final int[] puzzle = numbers.copySolvingArray();
+      reducing = true;
+      setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+      processNotifier.setIndeterminate(true);
+      processNotifier.setString("Reducing...");
+
+      SwingWorker<int[], Void> reduceThread = new SwingWorker<int[], Void>() {
+         @Override
+         public int[] doInBackground() {
+            List<int[]> reduced = running.reduce(puzzle, constraints, 1,
+                    random);
+            return reduced.isEmpty() ? null : reduced.get(0);
+         }
+         // shows the minimal puzzle, on the event dispatch thread.
+         @Override
+         protected void done() {
+            int[] minimal = null;
+            try {
+               minimal = get();
+            } catch (InterruptedException ex) {
+               System.err.println(ex);
+            } catch (ExecutionException ex) {
+               System.err.println(ex);
+            }
+            reducing = false;
             setCursor(Cursor.getDefaultCursor());
             processNotifier.setIndeterminate(false);
-            inputNumberState = false;
-            solvedState = true;
-            squareX = 5;
-            squareY = 5;
-            repaint();
+            if (minimal != null) {
+               numbers.setSolvingArray(minimal);
+               int clues = 0;
+               for (int value : minimal) {
+                  clues += (value != 0) ? 1 : 0;
+               }
+               processNotifier.setString(clues + " clues");
+            } else {
+               processNotifier.setString("Not unique");
+            }
+            markPanel();
+            repaintDirty();
          }
       };
-      solveThread.execute();
+      reduceThread.execute();
+   }
+
+   /**
+    * Cancels the solve that is running, if there is one.
+    */
+   public void cancelSolve() {
+      if (solver != null) {
+         solver.cancel();
+         processNotifier.setString("Cancelling");
+      }
+   }
+
+   /**
+    * Returns true while a solve is running.
+    *
+    * @return true while a solve is running.
+    */
+   public boolean isSolving() {
+      return solver != null;
+   }
+
+   /**
+    * Shows the result of a solve, once the solver has finished.
+    *
+    * @param running the solver that has finished.
+    * @param solved the solved grid, or null if there was no solution.
+    */
+   private void finishSolve(Solver running, int[] solved) {
+      solver = null;
+      setCursor(Cursor.getDefaultCursor());
+      processNotifier.setIndeterminate(false);
+      if (running.isCancelled()) {
+         processNotifier.setString("Cancelled");
+         return;
+      }
+      if (solved != null) {
+         numbers.setSolvedArray(solved);
+         processNotifier.setString("Solved");
+      } else {
+         // the grid is valid, but it doesn't have a solution.
+         showInvalidDialog = true;
+         processNotifier.setString("No solution");
+      }
+      showResult();
+      repaintDirty();
+   }
+
+   /**
+    * Shows the solved grid, or the invalid-solve dialog.
+    */
+   private void showResult() {
+      inputNumberState = false;
+      solvedState = true;
+      squareX = 5;
+      squareY = 5;
+      markPanel();
+   }
+
+   /**
+    * Formats a node count for the progress bar, for example <em>1.2M
+    * nodes</em>.
+    *
+    * @param nodes the amount of numbers the solver has tried.
+    * @return the formatted node count.
+    */
+   private static String formatNodes(long nodes) {
+      if (nodes >= 1000000) {
+         return String.format("%.1fM nodes", nodes / 1e6);
+      }
+      return (nodes / 1000) + "k nodes";
    }
 
    /**
@@ -168,14 +391,21 @@ public class SolverPanel extends JPanel implements ActionListener {
     */
    @Override
    public void paintComponent(Graphics g) {
+      FlightEvents.PaintEvent frame = new FlightEvents.PaintEvent();
+      frame.begin();
 
       requestFocusInWindow();
       super.paintComponent(g);
 
       // paint the grid.
-      g.drawImage(images.getImage("sudoku-grid"), 0, 0, this);
+      renderer.paintGrid(g);
+      paintVariant(g);
+
+      // only the squares within the clip have to be painted.
+      Rectangle clip = g.getClipBounds();
 
       int number, x, y, row, col;
+      int drawn = 0;
       for (int i = 0; i < 81; i++) {
 
          if (!solvedState || inputNumberState || showInvalidDialog) {
@@ -192,9 +422,13 @@ public class SolverPanel extends JPanel implements ActionListener {
          col = Algorithms.getCol(i);
          x = Algorithms.getBase(col);
          y = Algorithms.getBase(row);
+         if (clip != null && !clip.intersects(x, y, 44, 44)) {
+            continue;
+         }
 
          // paint the number.
-         g.drawImage(images.getNumberImage("white", number), x, y, this);
+         renderer.paintSquare(g, x, y, number, Images.WHITE, 0);
+         drawn++;
       }
 
       int xLoc = Algorithms.getBase(squareX);
@@ -206,6 +440,30 @@ public class SolverPanel extends JPanel implements ActionListener {
       if (showInvalidDialog) {
          g.drawImage(images.getImage("invalid-solve"), 47, 47, this);
       }
+
+      // the inputs that led to this paint are now visible.
+      latency.painted();
+      latency.paintOverlay(g);
+      frame.panel = "solver";
+      frame.cellsDrawn = drawn;
+      frame.commit();
+   }
+
+   /**
+    * Shades the squares of the units that the variant adds to the rows,
+    * columns and 3 by 3 sections, such as the diagonals.
+    *
+    * @param g Graphics parameter.
+    */
+   private void paintVariant(Graphics g) {
+      Constraints constraints = numbers.getConstraints();
+      g.setColor(VARIANT_SHADE);
+      for (int unit = 27; unit < constraints.getCageUnit(0); unit++) {
+         for (int i : constraints.getUnit(unit)) {
+            g.fillRect(Algorithms.getBase(Algorithms.getCol(i)),
+                    Algorithms.getBase(Algorithms.getRow(i)), 44, 44);
+         }
+      }
    }
 
    /**
@@ -215,7 +473,48 @@ public class SolverPanel extends JPanel implements ActionListener {
     */
    public void inputNumber(int numberToAdd) {
       numbers.addNumber(numberToAdd, squareX, squareY);
-      repaint();
+      markSelector();
+   }
+
+   /**
+    * Marks the square under the selector as changed, so that it is repainted.
+    */
+   private void markSelector() {
+      dirtySquares[Algorithms.toIndex(squareY, squareX)] = true;
+   }
+
+   /**
+    * Marks the whole panel as changed, for changes that affect every square.
+    */
+   private void markPanel() {
+      dirtyPanel = true;
+   }
+
+   /**
+    * Repaints only what has changed since the last call.
+    *
+    * Each changed square is repainted using its own rectangle, computed using
+    * {@link Algorithms#getBase(int)}, rather than repainting the whole panel.
+    *
+    * @return true if anything had changed, false if nothing is repainted.
+    */
+   private boolean repaintDirty() {
+      boolean changed = dirtyPanel;
+      if (dirtyPanel) {
+         repaint();
+      } else {
+         for (int i = 0; i < 81; i++) {
+            if (dirtySquares[i]) {
+               repaint(Algorithms.getBase(Algorithms.getCol(i)),
+                       Algorithms.getBase(Algorithms.getRow(i)), 44, 44);
+               changed = true;
+            }
+         }
+      }
+      dirtyPanel = false;
+      Arrays.fill(dirtySquares, false);
+      latency.repaintOverlay(this);
+      return changed;
    }
 
    /**
@@ -237,6 +536,28 @@ public class SolverPanel extends JPanel implements ActionListener {
       public void keyPressed(KeyEvent e) {
 
          int key = e.getKeyCode();
+         if (key == KeyEvent.VK_F12) {
+            latency.toggleOverlay(SolverPanel.this);
+            return;
+         }
+         latency.inputReceived(e);
+         if (reducing) {
+            latency.inputIgnored();
+            return;
+         }
+         if (solver != null) {
+            // only cancelling is possible while the grid is being solved.
+            if (key == KeyEvent.VK_ESCAPE || key == KeyEvent.VK_S
+                    || key == KeyEvent.VK_ENTER) {
+               cancelSolve();
+            }
+            latency.inputIgnored();
+            return;
+         }
+         if (!inputNumberState) {
+            // the solved numbers are replaced by the entered ones.
+            markPanel();
+         }
          inputNumberState = true;
          processNotifier.setString("Standby");
 
@@ -246,13 +567,21 @@ public class SolverPanel extends JPanel implements ActionListener {
             return;
          }
 
-         if (Algorithms.getNumberKeys().containsKey(key)) {
-            inputNumber(Algorithms.getNumberKeys().get(key));
-            repaint();
+         int number = Algorithms.getKeyNumber(key);
+         if (number != -1) {
+            inputNumber(number);
+            if (!repaintDirty()) {
+               latency.inputIgnored();
+            }
             return;
          }
 
+         // the selector may move, so its old square has to be repainted.
+         markSelector();
+
          if (key == KeyEvent.VK_ESCAPE) {
+            // this panel is hidden, so it won't be painted.
+            latency.inputIgnored();
             Sudoku.setCard("Card with Menu");
          } else if (key == KeyEvent.VK_UP && (squareY > 0 && squareY < 11)) {
             squareY += (squareY == 1) ? 8 : -1;
@@ -266,10 +595,17 @@ public class SolverPanel extends JPanel implements ActionListener {
             Solve();
          } else if (key == KeyEvent.VK_SPACE) {
             newSolver();
+         } else if (key == KeyEvent.VK_V) {
+            nextVariant();
+         } else if (key == KeyEvent.VK_M) {
+            reduce();
          } else if (key == KeyEvent.VK_DELETE) {
             inputNumber(0);
          }
-         repaint();
+         markSelector();
+         if (!repaintDirty()) {
+            latency.inputIgnored();
+         }
       }
    }
 
@@ -288,19 +624,31 @@ public class SolverPanel extends JPanel implements ActionListener {
        */
       @Override
       public void mouseClicked(MouseEvent e) {
+         if (solver != null || reducing) {
+            return;
+         }
+         latency.inputReceived(e);
          if (showInvalidDialog) {
             showInvalidDialog = false;
+            markPanel();
          }
          int x = Algorithms.getSquare(e.getX());
          int y = Algorithms.getSquare(e.getY());
 
          if (x != 0 && y != 0) {
+            if (!inputNumberState) {
+               markPanel();
+            }
+            markSelector();
             squareX = x;
             squareY = y;
+            markSelector();
             inputNumberState = true;
             processNotifier.setString("Standby");
          }
-         repaint();
+         if (!repaintDirty()) {
+            latency.inputIgnored();
+         }
       }
    }
 }
@@ -0,0 +1,297 @@
+/* File: SolverReport.java  -  April 2011 */
+package sudoku;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reports the latency and allocation of each solve, for each section of a
+ * puzzle file.
+ *
+ * Every puzzle is solved the same way as in the {@link SolverPanel} - checked
+ * with {@link Solver#checkValidSolveRequest(int[])}, then solved with
+ * {@link Solver#solveArray(int[])}. The whole file is solved a few times to
+ * warm up, then a number of timed runs follow. For each section the report
+ * has the p50, p90, p99 and maximum latency of all the timed solves, and the
+ * mean and maximum bytes allocated by a solve, measured by the
+ * <em>ThreadMXBean</em> of the JVM.
+ * <br><br>
+ * Usage: <em>SolverReport &lt;output&gt; [file] [runs] [warm-up runs]</em> -
+ * writes <em>output.csv</em> and <em>output.json</em>, and reads the bundled
+ * puzzle bank unless a file is given. A <em>.store</em> file is read as a
+ * {@link PuzzleStore}, and other files are copied into one, so that each
+ * puzzle is read into the same array however many there are. Run by the
+ * <em>solver-report</em> target in build.xml.
+ *
+ * @author Rudi Theunissen
+ */
+public class SolverReport {
+
+   /** The columns of the report, in order. */
+   private static final String[] COLUMNS = {"section", "puzzles", "solves",
+      "unsolved", "p50_us", "p90_us", "p99_us", "max_us", "mean_us",
+      "alloc_mean_bytes", "alloc_max_bytes"};
+
+   /** Used to measure the bytes allocated by the current thread. */
+   private static com.sun.management.ThreadMXBean threads;
+
+   /**
+    * Runs the report.
+    *
+    * @param args the output path, and optionally the puzzle file, the amount
+    *        of timed runs and the amount of warm-up runs.
+    * @throws IOException if the puzzle file couldn't be read or the report
+    *         couldn't be written.
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1) {
+         System.err.println(
+                 "Usage: SolverReport <output> [file] [runs] [warm-up runs]");
+         System.exit(1);
+      }
+      String output = args[0];
+      String fileName = (args.length > 1 && !args[1].isEmpty()) ? args[1]
+              : null;
+      int runs = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+      int warmUp = (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+
+      threads = (com.sun.management.ThreadMXBean)
+              ManagementFactory.getThreadMXBean();
+      threads.setThreadAllocatedMemoryEnabled(true);
+
+      PuzzleStore store;
+      if (fileName != null && fileName.endsWith(".store")) {
+         store = PuzzleStore.open(new File(fileName));
+      } else {
+         store = PuzzleStore.copyOf((fileName == null) ? PuzzleFile.readBank()
+                 : PuzzleFile.read(new FileInputStream(fileName)));
+      }
+      Solver solver = new Solver();
+      int[] puzzle = new int[81];
+
+      for (int run = 0; run < warmUp; run++) {
+         for (long record = 0; record < store.size(); record++) {
+            store.readPuzzle(record, puzzle);
+            solve(solver, puzzle, null, null, 0);
+         }
+      }
+
+      List<String[]> rows = new ArrayList<String[]>();
+      for (int section = 0; section < store.getSectionCount(); section++) {
+         rows.add(measure(solver, store, section, puzzle, runs));
+      }
+
+      String source = (fileName == null) ? "puzzles.sud" : fileName;
+      writeCsv(output + ".csv", rows);
+      writeJson(output + ".json", source, runs, warmUp, rows);
+      printTable(rows);
+   }
+
+   /**
+    * Solves every puzzle of a section a number of times, and summarises the
+    * latency and allocation.
+    *
+    * @param solver the solver.
+    * @param store the puzzles.
+    * @param section the section of the store.
+    * @param puzzle the array that each puzzle is read into.
+    * @param runs the amount of times each puzzle is solved.
+    * @return the row of the report, in the order of {@link SolverReport#COLUMNS}.
+    */
+   private static String[] measure(Solver solver, PuzzleStore store,
+           int section, int[] puzzle, int runs) {
+      long first = store.getSectionStart(section);
+      int puzzles = (int) store.getSectionSize(section);
+      int solves = puzzles * runs;
+      long[] latency = new long[solves];
+      long[] allocated = new long[solves];
+      int unsolved = 0;
+      int n = 0;
+      for (int run = 0; run < runs; run++) {
+         for (int i = 0; i < puzzles; i++) {
+            store.readPuzzle(first + i, puzzle);
+            if (!solve(solver, puzzle, latency, allocated, n++)) {
+               unsolved++;
+            }
+         }
+      }
+      unsolved /= Math.max(runs, 1);
+
+      long[] sorted = latency.clone();
+      Arrays.sort(sorted);
+      long totalLatency = 0;
+      long totalAllocated = 0;
+      long maxAllocated = 0;
+      for (int i = 0; i < solves; i++) {
+         totalLatency += latency[i];
+         totalAllocated += allocated[i];
+         maxAllocated = Math.max(maxAllocated, allocated[i]);
+      }
+      return new String[]{store.getSectionName(section),
+                 String.valueOf(puzzles),
+                 String.valueOf(solves), String.valueOf(unsolved),
+                 micros(percentile(sorted, 0.5)),
+                 micros(percentile(sorted, 0.9)),
+                 micros(percentile(sorted, 0.99)),
+                 micros(solves == 0 ? 0 : sorted[solves - 1]),
+                 micros(solves == 0 ? 0 : totalLatency / solves),
+                 String.valueOf(solves == 0 ? 0 : totalAllocated / solves),
+                 String.valueOf(maxAllocated)};
+   }
+
+   /**
+    * Solves a single puzzle, recording its latency and allocation.
+    *
+    * @param solver the solver.
+    * @param puzzle the puzzle.
+    * @param latency filled with the latency in nanoseconds, or null.
+    * @param allocated filled with the bytes allocated, or null.
+    * @param n the position to record at.
+    * @return true if the puzzle was solved.
+    */
+   private static boolean solve(Solver solver, int[] puzzle, long[] latency,
+           long[] allocated, int n) {
+      long bytes = threads.getCurrentThreadAllocatedBytes();
+      long begin = System.nanoTime();
+      boolean solved = solver.checkValidSolveRequest(puzzle);
+      if (solved) {
+         solver.solveArray(puzzle);
+         solved = solver.isSolved();
+      }
+      long elapsed = System.nanoTime() - begin;
+      if (latency != null) {
+         latency[n] = elapsed;
+         allocated[n] = threads.getCurrentThreadAllocatedBytes() - bytes;
+      }
+      return solved;
+   }
+
+   /**
+    * Returns a percentile of sorted values, using the nearest rank.
+    *
+    * @param sorted the values, in ascending order.
+    * @param fraction the percentile, between 0 and 1.
+    * @return the percentile, or 0 if there are no values.
+    */
+   private static long percentile(long[] sorted, double fraction) {
+      if (sorted.length == 0) {
+         return 0;
+      }
+      int rank = (int) Math.ceil(fraction * sorted.length);
+      return sorted[Math.max(rank, 1) - 1];
+   }
+
+   /**
+    * Formats a time in microseconds.
+    *
+    * @param nanos the time in nanoseconds.
+    * @return the time in microseconds, with one decimal.
+    */
+   private static String micros(long nanos) {
+      return String.format(Locale.ROOT, "%.1f", nanos / 1e3);
+   }
+
+   /**
+    * Writes the report as CSV, with a heading row.
+    *
+    * @param path the file to write.
+    * @param rows the rows of the report.
+    * @throws IOException if the file couldn't be written.
+    */
+   private static void writeCsv(String path, List<String[]> rows)
+           throws IOException {
+      PrintWriter out = new PrintWriter(new FileWriter(path));
+      try {
+         out.println(join(COLUMNS, ","));
+         for (String[] row : rows) {
+            String[] quoted = row.clone();
+            quoted[0] = "\"" + row[0].replace("\"", "\"\"") + "\"";
+            out.println(join(quoted, ","));
+         }
+      } finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Writes the report as JSON.
+    *
+    * @param path the file to write.
+    * @param source the name of the puzzle file.
+    * @param runs the amount of timed runs.
+    * @param warmUp the amount of warm-up runs.
+    * @param rows the rows of the report.
+    * @throws IOException if the file couldn't be written.
+    */
+   private static void writeJson(String path, String source, int runs,
+           int warmUp, List<String[]> rows) throws IOException {
+      PrintWriter out = new PrintWriter(new FileWriter(path));
+      try {
+         out.println("{");
+         out.println("  \"file\": " + quote(source) + ",");
+         out.println("  \"runs\": " + runs + ",");
+         out.println("  \"warmUpRuns\": " + warmUp + ",");
+         out.println("  \"sections\": [");
+         for (int r = 0; r < rows.size(); r++) {
+            String[] row = rows.get(r);
+            StringBuilder line = new StringBuilder("    {");
+            for (int c = 0; c < COLUMNS.length; c++) {
+               line.append(c == 0 ? "" : ", ").append(quote(COLUMNS[c]))
+                       .append(": ").append(c == 0 ? quote(row[c]) : row[c]);
+            }
+            out.println(line.append(r < rows.size() - 1 ? "}," : "}"));
+         }
+         out.println("  ]");
+         out.println("}");
+      } finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Prints the report as a table.
+    *
+    * @param rows the rows of the report.
+    */
+   private static void printTable(List<String[]> rows) {
+      System.out.printf("%-12s %7s %9s %9s %9s %9s %12s%n", "section", "solves",
+              "p50 us", "p90 us", "p99 us", "max us", "alloc bytes");
+      for (String[] row : rows) {
+         System.out.printf("%-12s %7s %9s %9s %9s %9s %12s%n", row[0], row[2],
+                 row[4], row[5], row[6], row[7], row[9]);
+      }
+   }
+
+   /**
+    * Joins values with a separator.
+    *
+    * @param values the values.
+    * @param separator the separator.
+    * @return the joined values.
+    */
+   private static String join(String[] values, String separator) {
+      StringBuilder joined = new StringBuilder();
+      for (int i = 0; i < values.length; i++) {
+         joined.append(i == 0 ? "" : separator).append(values[i]);
+      }
+      return joined.toString();
+   }
+
+   /**
+    * Quotes a JSON string.
+    *
+    * @param value the string.
+    * @return the quoted string.
+    */
+   private static String quote(String value) {
+      return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+   }
+}
@@ -0,0 +1,121 @@
+/* File: SpriteSheetBuilder.java  -  April 2011 */
+package sudoku;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * Build-time tool that packs all the GIF images into a single sprite sheet.
+ *
+ * Writes <em>sprites.png</em> and an index, <em>sprites.txt</em>, with one
+ * "name x y width height" line per image. {@link Images} loads the sheet with
+ * one eager decode instead of loading every GIF on its own.
+ * <br><br>
+ * Usage: <em>SpriteSheetBuilder &lt;image directory&gt; &lt;output
+ * directory&gt;</em> - run by the <em>compile</em> target in build.xml.
+ *
+ * @author Rudi Theunissen
+ */
+public class SpriteSheetBuilder {
+
+   /** The maximum width of the sprite sheet. */
+   private static final int SHEET_WIDTH = 1024;
+
+   /**
+    * Packs the images and writes the sheet and its index.
+    *
+    * @param args the image directory and the output directory.
+    * @throws IOException if an image could not be read or written.
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length != 2) {
+         System.err.println("Usage: SpriteSheetBuilder <images> <output>");
+         System.exit(1);
+      }
+      File[] files = new File(args[0]).listFiles();
+      if (files == null) {
+         throw new IOException("Not a directory: " + args[0]);
+      }
+      Arrays.sort(files);
+
+      final List<String> names = new ArrayList<String>();
+      final List<BufferedImage> images = new ArrayList<BufferedImage>();
+      for (File file : files) {
+         if (file.getName().endsWith(".gif")) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+               throw new IOException("Could not decode " + file);
+            }
+            names.add(file.getName().replace(".gif", ""));
+            images.add(image);
+         }
+      }
+
+      // pack the tallest images first, in rows (shelves) across the sheet.
+      Integer[] order = new Integer[images.size()];
+      for (int i = 0; i < order.length; i++) {
+         order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            return images.get(b).getHeight() - images.get(a).getHeight();
+         }
+      });
+
+      int[][] locations = new int[images.size()][];
+      int x = 0;
+      int y = 0;
+      int shelfHeight = 0;
+      for (int i : order) {
+         BufferedImage image = images.get(i);
+         if (x + image.getWidth() > SHEET_WIDTH) {
+            x = 0;
+            y += shelfHeight;
+            shelfHeight = 0;
+         }
+         locations[i] = new int[]{x, y};
+         x += image.getWidth();
+         shelfHeight = Math.max(shelfHeight, image.getHeight());
+      }
+
+      BufferedImage sheet = new BufferedImage(SHEET_WIDTH, y + shelfHeight,
+              BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g = sheet.createGraphics();
+      List<String> index = new ArrayList<String>();
+      for (int i = 0; i < images.size(); i++) {
+         BufferedImage image = images.get(i);
+         g.drawImage(image, locations[i][0], locations[i][1], null);
+         index.add(names.get(i) + " " + locations[i][0] + " "
+                 + locations[i][1] + " " + image.getWidth() + " "
+                 + image.getHeight());
+      }
+      g.dispose();
+      Collections.sort(index);
+
+      File output = new File(args[1]);
+      if (!output.isDirectory() && !output.mkdirs()) {
+         throw new IOException("Could not create " + output);
+      }
+      ImageIO.write(sheet, "png", new File(output, "sprites.png"));
+      PrintWriter writer = new PrintWriter(new File(output, "sprites.txt"),
+              "UTF-8");
+      try {
+         for (String line : index) {
+            writer.println(line);
+         }
+      } finally {
+         writer.close();
+      }
+      System.out.println("Packed " + images.size() + " images into a "
+              + sheet.getWidth() + "x" + sheet.getHeight() + " sprite sheet.");
+   }
+}
@@ -0,0 +1,188 @@
+/* File: StartupBenchmark.java  -  April 2011 */
+package sudoku;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares cold-start time with and without the class-data-sharing archive.
+ *
+ * Launches the real app, {@link Sudoku}, in a fresh JVM a number of times with
+ * and without the archive, alternating between the two, the same way as
+ * <em>dist/sudoku.sh</em> does. Each launch is timed from starting the JVM to
+ * the {@link StartupTimeline} logging the time to first frame, when the menu
+ * has been painted, and to interactive, when the background loading has also
+ * finished, and is then closed. The median and best times of each are
+ * printed. The app is given a fresh home directory for the runs, so every
+ * launch starts without an autosaved session.
+ * <br><br>
+ * The app has to be able to open its window, so this needs a display.
+ * <br><br>
+ * Usage: <em>StartupBenchmark &lt;jar&gt; &lt;archive&gt; [runs]</em> - run
+ * by the <em>cds-bench</em> target in build.xml.
+ *
+ * @author Rudi Theunissen
+ */
+public class StartupBenchmark {
+
+   /** The longest a launch may take to become interactive, in milliseconds. */
+   private static final long TIMEOUT = 60000;
+   /** The line that {@link StartupTimeline} logs at the first frame. */
+   private static final String FIRST_FRAME = "[startup] time to first frame";
+   /** The line that {@link StartupTimeline} logs once interactive. */
+   private static final String INTERACTIVE = "[startup] time to interactive";
+
+   /**
+    * Runs the benchmark.
+    *
+    * @param args the jar, the archive and optionally the number of runs.
+    * @throws Exception if a run could not be started or failed.
+    */
+   public static void main(String[] args) throws Exception {
+      if (args.length < 2) {
+         System.err.println("Usage: StartupBenchmark <jar> <archive> [runs]");
+         System.exit(1);
+      }
+      String jar = args[0];
+      String archive = args[1];
+      int runs = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+      if (!new File(archive).isFile()) {
+         System.err.println("No archive at " + archive + ", run 'ant cds'.");
+         System.exit(1);
+      }
+
+      File home = Files.createTempDirectory("sudoku-startup").toFile();
+
+      // one untimed run of each, so the file system cache is warm for both.
+      run(jar, null, home);
+      run(jar, archive, home);
+
+      long[] withoutFrame = new long[runs];
+      long[] withoutReady = new long[runs];
+      long[] withFrame = new long[runs];
+      long[] withReady = new long[runs];
+      for (int i = 0; i < runs; i++) {
+         long[] times = run(jar, null, home);
+         withoutFrame[i] = times[0];
+         withoutReady[i] = times[1];
+         times = run(jar, archive, home);
+         withFrame[i] = times[0];
+         withReady[i] = times[1];
+      }
+      System.out.println("time to first frame");
+      report("without archive", withoutFrame);
+      report("with archive", withFrame);
+      System.out.printf("median speedup:  %8.2fx%n",
+              (double) median(withoutFrame) / median(withFrame));
+      System.out.println("time to interactive");
+      report("without archive", withoutReady);
+      report("with archive", withReady);
+      System.out.printf("median speedup:  %8.2fx%n",
+              (double) median(withoutReady) / median(withReady));
+   }
+
+   /**
+    * Launches the app, waits until it is interactive, and closes it.
+    *
+    * @param jar the application jar.
+    * @param archive the archive to use, or null to run without one.
+    * @param home the home directory to give the app.
+    * @return the wall-clock times from launching the JVM to the first frame
+    *         and to interactive, in nanoseconds.
+    */
+   private static long[] run(String jar, String archive, File home)
+           throws IOException, InterruptedException {
+      String java = System.getProperty("java.home") + File.separator + "bin"
+              + File.separator + "java";
+      List<String> command = new ArrayList<String>();
+      command.add(java);
+      if (archive != null) {
+         command.add("-XX:SharedArchiveFile=" + archive);
+         command.add("-Xshare:auto");
+      }
+      command.add("-Duser.home=" + home.getAbsolutePath());
+      command.add("-cp");
+      command.add(jar);
+      command.add("sudoku.Sudoku");
+
+      ProcessBuilder builder = new ProcessBuilder(command);
+      builder.redirectErrorStream(true);
+
+      long start = System.nanoTime();
+      final Process process = builder.start();
+      // closes a launch that never gets there, which ends the output.
+      Thread watchdog = new Thread() {
+         @Override
+         public void run() {
+            try {
+               if (!process.waitFor(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                  process.destroyForcibly();
+               }
+            } catch (InterruptedException ex) {
+               // the launch finished in time.
+            }
+         }
+      };
+      watchdog.setDaemon(true);
+      watchdog.start();
+
+      long[] times = new long[]{-1, -1};
+      StringBuilder output = new StringBuilder();
+      BufferedReader in = new BufferedReader(new InputStreamReader(
+              process.getInputStream()));
+      try {
+         String line;
+         while (times[1] < 0 && (line = in.readLine()) != null) {
+            if (line.startsWith(FIRST_FRAME)) {
+               times[0] = System.nanoTime() - start;
+            } else if (line.startsWith(INTERACTIVE)) {
+               times[1] = System.nanoTime() - start;
+            } else {
+               output.append(line).append('\n');
+            }
+         }
+      } finally {
+         watchdog.interrupt();
+         process.destroy();
+         process.waitFor();
+         in.close();
+      }
+      if (times[0] < 0 || times[1] < 0) {
+         throw new IllegalStateException("The app didn't become interactive:"
+                 + "\n" + output);
+      }
+      return times;
+   }
+
+   /**
+    * Prints the median and best time of a set of runs.
+    *
+    * @param name the name of the set.
+    * @param times the times of each run, in nanoseconds.
+    */
+   private static void report(String name, long[] times) {
+      long[] sorted = times.clone();
+      Arrays.sort(sorted);
+      System.out.printf("%-16s median %7.1f ms, best %7.1f ms%n", name + ":",
+              median(times) / 1e6, sorted[0] / 1e6);
+   }
+
+   /**
+    * Returns the median of a set of times.
+    *
+    * @param times the times.
+    * @return the median time.
+    */
+   private static long median(long[] times) {
+      long[] sorted = times.clone();
+      Arrays.sort(sorted);
+      return sorted[sorted.length / 2];
+   }
+}
@@ -0,0 +1,110 @@
+/* File: StartupTimeline.java  -  April 2011 */
+package sudoku;
+
+/**
+ * Logs how long each phase of starting the app takes.
+ *
+ * Times are measured from {@link StartupTimeline#start()}, called first thing
+ * in {@link Sudoku#main(String[])}. Besides each phase, two milestones are
+ * logged: <em>time to first frame</em>, when the menu is first painted, and
+ * <em>time to interactive</em>, when the menu has been painted and the puzzle
+ * bank and images have finished loading in the background.
+ * <br><br>
+ * Logging can be turned off with <em>-Dsudoku.startup.quiet=true</em>.
+ *
+ * @author Rudi Theunissen
+ */
+public final class StartupTimeline {
+
+   /** True if the timeline should not be logged. */
+   private static final boolean QUIET = Boolean.getBoolean(
+           "sudoku.startup.quiet");
+
+   /** The time that the app was started, in nanoseconds. */
+   private static long start = System.nanoTime();
+   /** True once the first frame has been painted. */
+   private static boolean firstFrame;
+   /** True once all the background loading has finished. */
+   private static boolean preloaded;
+   /** True once the time to interactive has been logged. */
+   private static boolean interactive;
+
+   /**
+    * Private Constructor - only static methods are used.
+    */
+   private StartupTimeline() {
+   }
+
+   /**
+    * Marks the start of the app - all other times are relative to this.
+    */
+   public static synchronized void start() {
+      start = System.nanoTime();
+   }
+
+   /**
+    * Returns the current time, for passing to
+    * {@link StartupTimeline#phase(String, long)} once the phase is done.
+    *
+    * @return the current time in nanoseconds.
+    */
+   public static long begin() {
+      return System.nanoTime();
+   }
+
+   /**
+    * Logs a phase that has finished.
+    *
+    * @param name the name of the phase.
+    * @param begin the time the phase began, see {@link StartupTimeline#begin()}.
+    */
+   public static synchronized void phase(String name, long begin) {
+      long now = System.nanoTime();
+      log(String.format("%-22s %6.1f ms  (done at %6.1f ms, %s)", name,
+              (now - begin) / 1e6, (now - start) / 1e6,
+              Thread.currentThread().getName()));
+   }
+
+   /**
+    * Marks the first frame as painted. Only the first call has any effect.
+    */
+   public static synchronized void firstFrame() {
+      if (firstFrame) {
+         return;
+      }
+      firstFrame = true;
+      log(String.format("time to first frame    %6.1f ms",
+              (System.nanoTime() - start) / 1e6));
+      checkInteractive();
+   }
+
+   /**
+    * Marks all background loading as finished.
+    */
+   public static synchronized void preloaded() {
+      preloaded = true;
+      checkInteractive();
+   }
+
+   /**
+    * Logs the time to interactive once the app is both painted and loaded.
+    */
+   private static void checkInteractive() {
+      if (firstFrame && preloaded && !interactive) {
+         interactive = true;
+         log(String.format("time to interactive    %6.1f ms",
+                 (System.nanoTime() - start) / 1e6));
+      }
+   }
+
+   /**
+    * Writes a line of the timeline to the error stream.
+    *
+    * @param line the line to write.
+    */
+   private static void log(String line) {
+      if (!QUIET) {
+         System.err.println("[startup] " + line);
+      }
+   }
+}
@@ -5,6 +5,13 @@ import java.awt.BorderLayout;
 import java.awt.CardLayout;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import javax.swing.*;
 
 /**
@@ -12,7 +19,9 @@ import javax.swing.*;
  * {@link CardLayout}.
  *
  * Forces the {@link LookAndFeel LAF}, creates the frame and layout, and adds
- * instances of each sub-application class to the deck of cards.
+ * instances of each sub-application class to the deck of cards as they are
+ * first shown. A card that is asked for before the app has finished loading
+ * is shown once it has, with a placeholder in the meantime.
  *
  * @author Rudi Theunissen
  */
@@ -34,12 +43,25 @@ public class Sudoku {
    private static JPanel cards;
    /** Layout for the application, see {@link CardLayout} */
    private static CardLayout cardLayout;
-    /** The relative path to the image resources. */
-   public final static String IMAGE_DIRECTORY = "resources/images/";
-   /** The relative path to the puzzle resources. */
-   public final static String PUZZLE_DIRECTORY = "resources/puzzles/";
-   /** The number of puzzles that has been added to the puzzle files. */
-   public final static int NUMBER_OF_PUZZLES_PER_DIFFICULTY = 30;
+   /** The autosave {@link Journal} that the game session is restored from. */
+   private static Journal journal;
+   /** Names of the cards that have been created so far. */
+   private static Set<String> builtCards;
+   /** Counts down as each part of the app finishes loading. */
+   private static CountDownLatch preloading;
+   /** The card to show once the app has loaded, or null. */
+   private static String pendingCard;
+   /** The numbers of the game, created and restored in the background. */
+   private static GameNumbers gameNumbers;
+   /** True if the game numbers restored a previous session. */
+   private static boolean gameRestored;
+   /** The renderer of the game panel, created in the background. */
+   private static BoardRenderer gameRenderer;
+   /** The renderer of the solver panel, created in the background. */
+   private static BoardRenderer solverRenderer;
+   /** The directory that the autosave journal is kept in. */
+   public final static String SAVE_DIRECTORY =
+           System.getProperty("user.home") + "/.sudoku/";
 
    /**
     * Initialises the application.
@@ -47,13 +69,28 @@ public class Sudoku {
     * @param args command line is not used in this application.
     */
    public static void main(String[] args) {
+      StartupTimeline.start();
       initialise();
    }
 
    /**
     * Sets the layout and window mechanics.
+    *
+    * The puzzle bank and images, and the parts of the game and solver panels
+    * that don't need Swing, are loaded concurrently on background threads
+    * while the frame is being created, and every card except the menu is only
+    * created the first time it is shown.
     */
    private static void initialise() {
+      journal = new Journal(new File(SAVE_DIRECTORY));
+
+      // before anything is loaded, so that the loads are recorded.
+      FlightEvents.install();
+
+      // loads the independent parts in seperate threads - faster app load.
+      preload();
+
+      long begin = StartupTimeline.begin();
       try {
          UIManager.setLookAndFeel("javax.swing.plaf.metal.MetalLookAndFeel");
       } catch (ClassNotFoundException ex) {
@@ -69,54 +106,203 @@ public class Sudoku {
          System.err.println(ex);
          System.exit(0);
       }
+      StartupTimeline.phase("look and feel", begin);
+
+      // writes any moves that are still pending when the app is closed, and
+      // the input latency histograms.
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+         @Override
+         public void run() {
+            journal.close();
+            InputLatency.dumpAll(new File(SAVE_DIRECTORY, "latency.txt"));
+         }
+      });
 
+      begin = StartupTimeline.begin();
       frame = new JFrame("Sudoku");
       frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
       frame.setResizable(false);
       frame.getContentPane().setPreferredSize(new Dimension(517, 416));
 
-      menu = new Menu();
-
-      // creates the main objects in a seperate thread - faster app load.
-      SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
-         @Override
-         protected Void doInBackground() {
-            game = new GamePanel();
-            aboutPage = new Instructions("about");
-            buttonSummary = new Instructions("summary");
-            solverPanel = new SolverPanel();
-            new Algorithms();
-            return null;
-         }
-         @Override
-         protected void done() {
-            cards.add(game, "Card with Game");
-            cards.add(aboutPage, "Card with About Section");
-            cards.add(buttonSummary, "Card with Button Summary");
-            cards.add(solverPanel, "Card with Solver");
-         }
-      };
-
       cards = new JPanel(new CardLayout());
       frame.getContentPane().add(cards, BorderLayout.CENTER);
       cardLayout = (CardLayout) (cards.getLayout());
       cards.setBorder(BorderFactory.createLineBorder(Color.BLACK, 3));
+      builtCards = new HashSet<String>();
+      StartupTimeline.phase("frame", begin);
 
+      begin = StartupTimeline.begin();
+      menu = new Menu();
       cards.add(menu, "Card with Menu");
-      worker.execute();
+      builtCards.add("Card with Menu");
+      cards.add(createPlaceholder(), "Card with Placeholder");
+      StartupTimeline.phase("menu", begin);
 
       cardLayout.show(cards, "Card with Menu");
       frame.pack();
       frame.setLocationRelativeTo(null);
       frame.setVisible(true);
+
+      // the platform MBean server is slow to start, and the metrics count
+      // without it, so the MXBeans are registered once the frame is shown.
+      Thread mbeans = new Thread(new Runnable() {
+         public void run() {
+            long begin = StartupTimeline.begin();
+            MetricsMBeans.register();
+            StartupTimeline.phase("metrics mbeans", begin);
+         }
+      }, "Sudoku metrics");
+      mbeans.setDaemon(true);
+      mbeans.setPriority(Thread.MIN_PRIORITY);
+      mbeans.start();
+   }
+
+   /**
+    * Starts loading the puzzle bank, the images, the game's numbers and
+    * session, and the renderers of the game and solver panels, on background
+    * threads. Each task waits for the bank or images that it needs, which ever
+    * thread is loading them. Puzzles for new games are generated once they
+    * have all loaded.
+    */
+   private static void preload() {
+      ExecutorService loader = Executors.newFixedThreadPool(4,
+              new ThreadFactory() {
+                 public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "Sudoku loader");
+                    thread.setDaemon(true);
+                    return thread;
+                 }
+              });
+      preloading = new CountDownLatch(5);
+
+      preload(loader, "puzzle bank", new Runnable() {
+         public void run() {
+            PuzzleBank.getInstance();
+         }
+      });
+      preload(loader, "images", new Runnable() {
+         public void run() {
+            Images.getInstance();
+         }
+      });
+      preload(loader, "game numbers", new Runnable() {
+         public void run() {
+            gameNumbers = GamePanel.createNumbers();
+            gameRestored = gameNumbers.replay(journal);
+         }
+      });
+      preload(loader, "game renderer", new Runnable() {
+         public void run() {
+            gameRenderer = new BoardRenderer(Images.getInstance());
+         }
+      });
+      preload(loader, "solver renderer", new Runnable() {
+         public void run() {
+            solverRenderer = new BoardRenderer(Images.getInstance());
+         }
+      });
+      loader.shutdown();
+   }
+
+   /**
+    * Runs a single loading task and logs how long it took. Once every task
+    * has finished, starts generating puzzles for new games and shows the card
+    * that was asked for in the meantime.
+    *
+    * @param loader the executor to run the task on.
+    * @param name the name of the task, used in the startup timeline.
+    * @param task the loading task.
+    */
+   private static void preload(ExecutorService loader, final String name,
+           final Runnable task) {
+      loader.execute(new Runnable() {
+         public void run() {
+            long begin = StartupTimeline.begin();
+            try {
+               task.run();
+            } finally {
+               StartupTimeline.phase(name, begin);
+               preloading.countDown();
+               if (preloading.getCount() == 0) {
+                  StartupTimeline.preloaded();
+                  // generating competes with loading, so it waits until now.
+                  PuzzleSupply.getInstance().start();
+                  SwingUtilities.invokeLater(new Runnable() {
+                     public void run() {
+                        if (pendingCard != null) {
+                           setCard(pendingCard);
+                        }
+                     }
+                  });
+               }
+            }
+         }
+      });
+   }
+
+   /**
+    * Creates the card that is shown while the app is still loading.
+    *
+    * @return the placeholder card.
+    */
+   private static JPanel createPlaceholder() {
+      JPanel placeholder = new JPanel(new BorderLayout());
+      placeholder.setBackground(Color.WHITE);
+      JLabel label = new JLabel("Loading...", SwingConstants.CENTER);
+      placeholder.add(label, BorderLayout.CENTER);
+      return placeholder;
+   }
+
+   /**
+    * Creates a card the first time it is shown, once the app has loaded.
+    *
+    * @param cardName name of the card to be created.
+    * @return the new card.
+    */
+   private static JPanel createCard(String cardName) {
+      long begin = StartupTimeline.begin();
+      JPanel card;
+
+      if ("Card with Game".equals(cardName)) {
+         game = new GamePanel(gameNumbers, gameRenderer);
+         if (gameRestored) {
+            game.showRestoredSession();
+         }
+         card = game;
+      } else if ("Card with About Section".equals(cardName)) {
+         aboutPage = new Instructions("about");
+         card = aboutPage;
+      } else if ("Card with Button Summary".equals(cardName)) {
+         buttonSummary = new Instructions("summary");
+         card = buttonSummary;
+      } else {
+         solverPanel = new SolverPanel(solverRenderer);
+         card = solverPanel;
+      }
+      StartupTimeline.phase(cardName.replace("Card with ", "").toLowerCase(),
+              begin);
+      return card;
    }
 
    /**
-    * Sets the current card of the {@link CardLayout}.
+    * Sets the current card of the {@link CardLayout}. A card that isn't built
+    * yet is built if the app has loaded; otherwise a placeholder is shown and
+    * the card follows as soon as the app has loaded, without ever waiting on
+    * the event dispatch thread.
     *
     * @param cardName name of the card to be pushed to the front.
     */
    public static void setCard(String cardName) {
+      if (!builtCards.contains(cardName)) {
+         if (preloading.getCount() != 0) {
+            pendingCard = cardName;
+            cardLayout.show(cards, "Card with Placeholder");
+            return;
+         }
+         builtCards.add(cardName);
+         cards.add(createCard(cardName), cardName);
+      }
+      pendingCard = null;
       cardLayout.show(cards, cardName);
    }
 }
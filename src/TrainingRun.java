@@ -0,0 +1,62 @@
+/* File: TrainingRun.java  -  April 2011 */
+package sudoku;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import javax.swing.JPanel;
+import javax.swing.UIManager;
+
+/**
+ * Scripted, headless run through the app, used to train a class-data-sharing
+ * archive at build time.
+ *
+ * Loads the puzzle bank and images, creates and paints every card, plays a
+ * new game and runs the solver, so that the archive contains the classes that
+ * a real start-up loads. See the <em>cds</em> target in build.xml.
+ *
+ * @author Rudi Theunissen
+ */
+public class TrainingRun {
+
+   /**
+    * Runs the training script.
+    *
+    * @param args command line is not used.
+    * @throws Exception if any part of the app fails to start.
+    */
+   public static void main(String[] args) throws Exception {
+      System.setProperty("java.awt.headless", "true");
+      System.setProperty("sudoku.startup.quiet", "true");
+      UIManager.setLookAndFeel("javax.swing.plaf.metal.MetalLookAndFeel");
+
+      PuzzleBank.getInstance();
+      Images.getInstance();
+
+      GamePanel game = new GamePanel();
+      game.newGame();
+      SolverPanel solverPanel = new SolverPanel();
+
+      JPanel[] cards = new JPanel[]{new Menu(), game, solverPanel,
+         new Instructions("about"), new Instructions("summary")};
+      BufferedImage frame = new BufferedImage(541, 410,
+              BufferedImage.TYPE_INT_RGB);
+      for (JPanel card : cards) {
+         card.setSize(card.getPreferredSize());
+         card.doLayout();
+         Graphics g = frame.getGraphics();
+         card.paint(g);
+         g.dispose();
+      }
+
+      // solve one of the puzzles in the bank.
+      GameNumbers numbers = new GameNumbers();
+      numbers.newGame(1);
+      int[] puzzle = new int[81];
+      for (int i = 0; i < 81; i++) {
+         puzzle[i] = numbers.getCurrentNumber(i);
+      }
+      Solver solver = new Solver();
+      solver.solveArray(puzzle);
+      System.out.println("Training run finished.");
+   }
+}